@@ -0,0 +1,279 @@
+package gitlet;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of ancestry tests and reachable-set unions done with Ewah
+ *  reachability bitmaps against the same work done without them, on synthetic
+ *  histories of -p commits= commits where several branches are developed side by
+ *  side and merged into each other, and each commit introduces a few new trees and
+ *  blobs. Every commit has a bitmap, as if each were a branch tip.
+ *
+ *  Objects are numbered in the order they are first reached from the oldest commit,
+ *  as Bitmaps.rebuild numbers them. The compressed size of the bitmaps against
+ *  uncompressed ones is printed when each trial starts. Ancestry tests cycle through
+ *  QUERIES random pairs of commits. Before timing anything, the bitmap operations are
+ *  checked against BitSet, and the bitmaps against MergeBase and a walk.
+ *
+ *  @author Alex Rios
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BitmapBenchmark {
+
+    /** Number of branches developed in parallel. */
+    private static final int BRANCHES = 8;
+    /** Chance that a commit merges in another branch. */
+    private static final double MERGE_RATE = 0.3;
+    /** Largest number of new trees and blobs a commit introduces. */
+    private static final int MAX_NEW_OBJECTS = 6;
+    /** Number of pairs of commits the ancestry tests cycle through. */
+    private static final int QUERIES = 1000;
+
+    /** Number of commits in the history. */
+    @Param({"1000", "10000", "50000"})
+    public int commits;
+
+    private History history;
+    private MergeBase engine;
+    /** The pairs of commits tested, one after another. */
+    private int[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        verify();
+        history = new History(commits, 42);
+        engine = new MergeBase(history);
+        Random random = new Random(7);
+        queries = new int[QUERIES][];
+        for (int q = 0; q < QUERIES; q += 1) {
+            int a = random.nextInt(commits);
+            int b = random.nextInt(commits);
+            queries[q] = new int[] {a, b};
+            if (history.reachable[b].get(history.commitBit[a]) != (engine.best(a, b) == a)) {
+                throw new AssertionError("bitmap and MergeBase disagree on " + a + ", " + b);
+            }
+        }
+        if (!orTips().toBitSet().equals(walkTips())) {
+            throw new AssertionError("union of bitmaps differs from walk");
+        }
+        long ewahBytes = 0;
+        for (Ewah bits : history.reachable) {
+            ewahBytes += bits.byteSize();
+        }
+        long plainBytes = (long) commits * ((history.objects + 63) / 64) * 8;
+        System.out.printf("%n%d objects, %d bytes of bitmaps, %d uncompressed%n",
+                history.objects, ewahBytes, plainBytes);
+    }
+
+    /** Returns the next pair of commits to test. */
+    private int[] next() {
+        next = next + 1 < queries.length ? next + 1 : 0;
+        return queries[next];
+    }
+
+    /** Tests whether one commit is an ancestor of another by a bit lookup. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean bitmapLookup() {
+        int[] query = next();
+        return history.reachable[query[1]].get(history.commitBit[query[0]]);
+    }
+
+    /** Tests whether one commit is an ancestor of another with MergeBase. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean mergeBase() {
+        int[] query = next();
+        return engine.best(query[0], query[1]) == query[0];
+    }
+
+    /** Finds everything reachable from every branch tip by ORing their bitmaps. */
+    @Benchmark
+    public Ewah orTips() {
+        Ewah union = history.reachable[history.tips[0]];
+        for (int i = 1; i < BRANCHES; i += 1) {
+            union = union.or(history.reachable[history.tips[i]]);
+        }
+        return union;
+    }
+
+    /** Finds everything reachable from every branch tip by walking the history. */
+    @Benchmark
+    public BitSet walkTips() {
+        return history.walk(history.tips);
+    }
+
+    /** Checks Ewah against BitSet on random sets of bits, sparse, dense and in runs. */
+    private static void verify() {
+        Random random = new Random(1);
+        for (int t = 0; t < 2000; t += 1) {
+            BitSet x = randomBits(random);
+            BitSet y = randomBits(random);
+            Ewah ex = Ewah.of(x);
+            Ewah ey = Ewah.of(y);
+            BitSet or = (BitSet) x.clone();
+            or.or(y);
+            BitSet and = (BitSet) x.clone();
+            and.and(y);
+            BitSet each = new BitSet();
+            ex.forEach(each::set);
+            if (!ex.toBitSet().equals(x) || !each.equals(x)
+                    || ex.cardinality() != x.cardinality()
+                    || !ex.or(ey).toBitSet().equals(or) || !ex.and(ey).toBitSet().equals(and)) {
+                throw new AssertionError("Ewah differs from BitSet on trial " + t);
+            }
+            for (int i = 0; i < 100; i += 1) {
+                int bit = random.nextInt(x.length() + 128);
+                if (ex.get(bit) != x.get(bit)) {
+                    throw new AssertionError("Ewah.get(" + bit + ") wrong on trial " + t);
+                }
+            }
+        }
+    }
+
+    private static BitSet randomBits(Random random) {
+        BitSet bits = new BitSet();
+        int n = random.nextInt(20_000);
+        switch (random.nextInt(3)) {
+            case 0:
+                for (int i = 0; i < n; i += 1) {
+                    bits.set(i, random.nextInt(10) == 0);
+                }
+                break;
+            case 1:
+                for (int i = 0; i < n; i += 1) {
+                    bits.set(i, random.nextInt(10) != 0);
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i += 500) {
+                    int start = random.nextInt(200_000);
+                    bits.set(start, start + random.nextInt(5_000));
+                }
+        }
+        return bits;
+    }
+
+    /** A random history of BRANCHES branches that regularly merge into each other,
+     *  with the bitmap of each commit.
+     */
+    private static class History implements MergeBase.Graph {
+        private final int[] parents;
+        private final int[] secParents;
+        private final int[] generations;
+        /** Number of objects each commit introduces, itself included. */
+        private final int[] introduced;
+        /** Bit of each commit, followed by those of the objects it introduces. */
+        private final int[] commitBit;
+        private final Ewah[] reachable;
+        private final int[] tips = new int[BRANCHES];
+        private int objects;
+
+        History(int size, long seed) {
+            Random random = new Random(seed);
+            parents = new int[size];
+            secParents = new int[size];
+            generations = new int[size];
+            introduced = new int[size];
+            commitBit = new int[size];
+            reachable = new Ewah[size];
+            BitSet bits = new BitSet();
+            for (int pos = 0; pos < size; pos += 1) {
+                int branch = random.nextInt(BRANCHES);
+                int other = random.nextInt(BRANCHES);
+                parents[pos] = pos == 0 ? -1 : tips[branch];
+                secParents[pos] = -1;
+                if (pos > 0 && other != branch && tips[other] != tips[branch]
+                        && random.nextDouble() < MERGE_RATE) {
+                    secParents[pos] = tips[other];
+                }
+                generations[pos] = 1 + Math.max(generationOf(parents[pos]),
+                        generationOf(secParents[pos]));
+                tips[branch] = pos;
+
+                if (parents[pos] != pos - 1) {
+                    bits = parents[pos] < 0 ? new BitSet() : reachable[parents[pos]].toBitSet();
+                }
+                if (secParents[pos] >= 0) {
+                    bits.or(reachable[secParents[pos]].toBitSet());
+                }
+                introduced[pos] = 1 + random.nextInt(MAX_NEW_OBJECTS);
+                commitBit[pos] = objects;
+                bits.set(objects, objects + introduced[pos]);
+                objects += introduced[pos];
+                reachable[pos] = Ewah.of(bits);
+            }
+        }
+
+        /** Returns the objects reachable from FROM, found by walking the history. */
+        BitSet walk(int[] from) {
+            BitSet seen = new BitSet();
+            BitSet result = new BitSet();
+            int[] stack = new int[parents.length * 2 + from.length];
+            int top = 0;
+            for (int pos : from) {
+                stack[top++] = pos;
+            }
+            while (top > 0) {
+                int pos = stack[--top];
+                if (pos < 0 || seen.get(pos)) {
+                    continue;
+                }
+                seen.set(pos);
+                result.set(commitBit[pos], commitBit[pos] + introduced[pos]);
+                stack[top++] = parents[pos];
+                stack[top++] = secParents[pos];
+            }
+            return result;
+        }
+
+        private int generationOf(int pos) {
+            return pos < 0 ? 0 : generations[pos];
+        }
+
+        @Override
+        public int parent(int pos) {
+            return parents[pos];
+        }
+
+        @Override
+        public int secParent(int pos) {
+            return secParents[pos];
+        }
+
+        @Override
+        public int generation(int pos) {
+            return generations[pos];
+        }
+
+        @Override
+        public long time(int pos) {
+            return pos;
+        }
+
+        @Override
+        public String id(int pos) {
+            return String.format("%040x", pos);
+        }
+    }
+}
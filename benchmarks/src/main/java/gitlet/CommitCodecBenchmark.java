@@ -0,0 +1,132 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** JMH benchmarks of reading the file list of a commit tracking -p files= files, in
+ *  gitlet's binary encoding and by decoding the Java serialization gitlet used
+ *  before it. In the binary encoding the files are listed in the commit's tree, so
+ *  both the commit and a tree holding every file (as if they were all in one
+ *  directory) are decoded.
+ *
+ *  The encoded size in each format is printed when each trial starts. Before timing
+ *  anything, it checks that the commit and tree decode to the same fields they were
+ *  encoded from.
+ *
+ *  @author Alex Rios
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommitCodecBenchmark {
+
+    /** Number of files the commit tracks. */
+    @Param({"100", "10000", "100000"})
+    public int files;
+
+    private byte[] commit;
+    private byte[] tree;
+    private byte[] legacy;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        verify();
+        HashMap<String, String> blobMap = files(files, 1);
+        commit = synthetic(null, blobMap).encode();
+        tree = tree(blobMap).encode();
+        legacy = Utils.serialize(synthetic(null, blobMap));
+        System.out.printf("%n%d bytes in the binary encoding, %d serialized%n",
+                commit.length + tree.length, legacy.length);
+    }
+
+    /** Decodes the commit and its tree. */
+    @Benchmark
+    public void binary(Blackhole bh) throws Exception {
+        bh.consume(Commit.decode("", commit));
+        bh.consume(Tree.decode(tree));
+    }
+
+    /** Decodes the serialized commit and its file list. */
+    @Benchmark
+    public HashMap<String, String> legacy() throws Exception {
+        return Commit.decode("", legacy).getBlobMap();
+    }
+
+    /** Checks that commits and trees round-trip, and that legacy commits are read. */
+    private static void verify() throws Exception {
+        HashMap<String, String> blobMap = files(5_000, 2);
+        Tree tree = tree(blobMap);
+        String treeId = Utils.sha1((Object) tree.encode());
+        Commit commit = synthetic(treeId, null);
+        Commit decoded = Commit.decode("", commit.encode());
+        if (!decoded.getTree().equals(treeId)
+                || !decoded.getMessage().equals(commit.getMessage())
+                || !decoded.getParent().equals(commit.getParent())
+                || decoded.getSecParent() != null) {
+            throw new AssertionError("commit did not round-trip");
+        }
+        if (!Arrays.equals(Tree.decode(tree.encode()).encode(), tree.encode())) {
+            throw new AssertionError("tree did not round-trip");
+        }
+        Commit legacy = synthetic(null, blobMap);
+        if (!Commit.decode("", Utils.serialize(legacy)).getBlobMap().equals(blobMap)) {
+            throw new AssertionError("legacy commit was not decoded");
+        }
+    }
+
+    /** Returns a tree holding every file in BLOBMAP in a single directory. */
+    private static Tree tree(HashMap<String, String> blobMap) {
+        String[] names = blobMap.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        String[] ids = new String[names.length];
+        for (int i = 0; i < names.length; i += 1) {
+            ids[i] = blobMap.get(names[i]);
+        }
+        return new Tree(names, new byte[names.length], ids);
+    }
+
+    /** Returns FILES file names mapped to random blob ids. */
+    private static HashMap<String, String> files(int files, long seed) {
+        Random random = new Random(seed);
+        HashMap<String, String> blobMap = new HashMap<>();
+        for (int i = 0; i < files; i += 1) {
+            blobMap.put("File" + i + ".java", randomId(random));
+        }
+        return blobMap;
+    }
+
+    /** Returns an unsaved commit with the given tree, or listing BLOBMAP inline. */
+    private static Commit synthetic(String tree, HashMap<String, String> blobMap) {
+        Random random = new Random(3);
+        String id = randomId(random);
+        return new Commit("synthetic commit", "Thu Jan 1 00:00:00 1970 +0000",
+                randomId(random), null, tree != null ? tree : id, blobMap, id);
+    }
+
+    private static String randomId(Random random) {
+        StringBuilder sb = new StringBuilder(Utils.UID_LENGTH);
+        for (int i = 0; i < Utils.UID_LENGTH; i += 1) {
+            sb.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return sb.toString();
+    }
+}
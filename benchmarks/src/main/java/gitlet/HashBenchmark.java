@@ -0,0 +1,67 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of SHA-1 hashing, which names every blob, tree and commit: of a
+ *  byte array held in memory, as for trees and commits, and of a file streamed
+ *  through ObjectStore's buffer, as add does. Divide SIZE by the time per operation
+ *  for the throughput.
+ *
+ *  @author Alex Rios
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashBenchmark {
+
+    /** Bytes hashed per operation. */
+    @Param({"64", "4096", "1048576"})
+    public int size;
+
+    private byte[] data;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+        file = Files.createTempFile("gitlet-bench-", ".bin").toFile();
+        Files.write(file.toPath(), data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public String sha1Bytes() {
+        return Utils.sha1((Object) data);
+    }
+
+    @Benchmark
+    public String hashFile() throws IOException {
+        return ObjectStore.hashFile(file);
+    }
+}
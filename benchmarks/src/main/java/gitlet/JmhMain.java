@@ -0,0 +1,32 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Runs the JMH benchmarks like org.openjdk.jmh.Main, taking the same options, but
+ *  writes the results as JSON to target/jmh-result.json unless -rf or -rff says
+ *  otherwise, so runs can be kept and compared.
+ *
+ *  Usage: java -jar target/benchmarks.jar [JMH OPTIONS] [BENCHMARK REGEXPS]
+ *
+ *  @author Alex Rios
+ */
+public class JmhMain {
+
+    /** Where the results go by default. */
+    static final String RESULT_FILE = "target/jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf")) {
+            options.addAll(0, List.of("-rf", "json"));
+        }
+        if (!options.contains("-rff")) {
+            new File(RESULT_FILE).getParentFile().mkdirs();
+            options.addAll(0, List.of("-rff", RESULT_FILE));
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,122 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** JMH benchmarks of Merge3 on large synthetic text files of -p lines= lines. The
+ *  edge cases a three-way merge has to get right are checked by
+ *  testing/student_tests/test44-merge3-cases.in.
+ *
+ *  With -p edits=disjoint, each side has scattered edits (changed, inserted and
+ *  deleted lines) that don't overlap; with colliding, the edits collide every so
+ *  often; with unrelated, the three files have nothing in common, so the diff's cost
+ *  limit applies. Divide the bytes of input, printed with the number of conflicting
+ *  regions when each trial starts, by the time per merge for the throughput.
+ *
+ *  @author Alex Rios
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Merge3Benchmark {
+
+    /** One line in this many is edited on each side. */
+    private static final int EDIT_RATE = 50;
+
+    /** Number of lines in the base file. */
+    @Param({"10000", "100000", "1000000"})
+    public int lines;
+    /** How the two sides' edits relate: disjoint, colliding or unrelated. */
+    @Param({"disjoint", "colliding", "unrelated"})
+    public String edits;
+
+    private byte[] base;
+    private byte[] ours;
+    private byte[] theirs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        base = text(lines, 1);
+        switch (edits) {
+            case "disjoint":
+                ours = edit(base, 2, 0);
+                theirs = edit(base, 3, EDIT_RATE / 2);
+                break;
+            case "colliding":
+                ours = edit(base, 2, 0);
+                theirs = edit(base, 3, 0);
+                break;
+            case "unrelated":
+                ours = text(lines, 2);
+                theirs = text(lines, 3);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown edits: " + edits);
+        }
+        System.out.printf("%n%d bytes of input, %d conflicts%n",
+                base.length + ours.length + theirs.length, merge());
+    }
+
+    /** Merges the two sides into nothing, returning the number of conflicts. */
+    @Benchmark
+    public int merge() throws IOException {
+        return Merge3.merge(base, ours, theirs, OutputStream.nullOutputStream());
+    }
+
+    /** Returns LINES lines of pseudo-random text. */
+    private static byte[] text(int lines, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i += 1) {
+            sb.append("    value").append(random.nextInt(1 << 20)).append(" = compute(")
+                    .append(i).append(");\n");
+        }
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    /** Returns BASE with one line in every EDIT_RATE, starting at line PHASE, changed,
+     *  deleted or preceded by a new line.
+     */
+    private static byte[] edit(byte[] base, long seed, int phase) {
+        Random random = new Random(seed);
+        String[] lines = new String(base, UTF_8).split("\n", -1);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines.length - 1; i += 1) {
+            if (i % EDIT_RATE != phase) {
+                sb.append(lines[i]).append('\n');
+                continue;
+            }
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.append(lines[i]).append(" // edited ").append(seed).append('\n');
+                    break;
+                case 1:
+                    break;
+                default:
+                    sb.append("    inserted").append(seed).append("();\n");
+                    sb.append(lines[i]).append('\n');
+            }
+        }
+        return sb.toString().getBytes(UTF_8);
+    }
+}
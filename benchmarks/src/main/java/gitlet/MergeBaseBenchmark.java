@@ -0,0 +1,253 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of MergeBase against the breadth-first split point search gitlet
+ *  used before it, on synthetic histories of -p commits= commits where several
+ *  branches are developed side by side and merged into each other at random (so
+ *  criss-cross merges are common).
+ *
+ *  Each operation is one query between the tips of a pair of branches, cycling
+ *  through QUERIES random pairs. The old search gives up after a fixed budget of
+ *  visits, since its second pass has no visited set and can take exponential time on
+ *  such histories. Before timing anything, MergeBase is checked against a
+ *  brute-force search.
+ *
+ *  @author Alex Rios
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MergeBaseBenchmark {
+
+    /** Number of branches developed in parallel. */
+    private static final int BRANCHES = 8;
+    /** Chance that a commit merges in another branch. */
+    private static final double MERGE_RATE = 0.3;
+    /** Number of pairs of branch tips the queries cycle through. */
+    private static final int QUERIES = 200;
+    /** Visits after which the old search is abandoned. */
+    private static final long LEGACY_BUDGET = 50_000_000L;
+
+    /** Number of commits in the history. */
+    @Param({"1000", "10000", "100000"})
+    public int commits;
+
+    private SyntheticGraph graph;
+    private MergeBase engine;
+    /** The pairs of commits queried, one after another. */
+    private int[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        verify();
+        graph = new SyntheticGraph(commits, 42);
+        engine = new MergeBase(graph);
+        Random random = new Random(7);
+        queries = new int[QUERIES][];
+        for (int q = 0; q < QUERIES; q += 1) {
+            queries[q] = new int[] {graph.tip(random.nextInt(BRANCHES)),
+                graph.tip(random.nextInt(BRANCHES))};
+        }
+    }
+
+    /** Returns the next pair of commits to query. */
+    private int[] next() {
+        next = next + 1 < queries.length ? next + 1 : 0;
+        return queries[next];
+    }
+
+    /** Finds the best merge base of a pair of branch tips with MergeBase. */
+    @Benchmark
+    public int engine() {
+        int[] query = next();
+        return engine.best(query[0], query[1]);
+    }
+
+    /** Finds a split point of a pair of branch tips the way gitlet used to, returning
+     *  the commits visited.
+     */
+    @Benchmark
+    public long legacy() {
+        int[] query = next();
+        return legacySplitPoint(graph, query[0], query[1]);
+    }
+
+    /** The split point search gitlet used before MergeBase, returning the number of
+     *  commits it visited, or LEGACY_BUDGET if it gave up.
+     */
+    private static long legacySplitPoint(SyntheticGraph graph, int head, int other) {
+        long visits = 0;
+        Queue<Integer> commitQ = new LinkedList<>();
+        commitQ.add(head);
+        Set<Integer> marked = new HashSet<>();
+        marked.add(head);
+        while (!commitQ.isEmpty()) {
+            int curr = commitQ.remove();
+            visits += 1;
+            for (int parent : new int[] {graph.parent(curr), graph.secParent(curr)}) {
+                if (parent >= 0 && marked.add(parent)) {
+                    commitQ.add(parent);
+                }
+            }
+        }
+        commitQ.add(other);
+        while (!commitQ.isEmpty() && visits < LEGACY_BUDGET) {
+            int curr = commitQ.remove();
+            visits += 1;
+            if (marked.contains(curr)) {
+                return visits;
+            }
+            for (int parent : new int[] {graph.parent(curr), graph.secParent(curr)}) {
+                if (parent >= 0) {
+                    commitQ.add(parent);
+                }
+            }
+        }
+        return Math.max(visits, LEGACY_BUDGET);
+    }
+
+    /** Checks MergeBase against the definition of a merge base on small histories. */
+    private static void verify() {
+        for (int seed = 0; seed < 50; seed += 1) {
+            SyntheticGraph graph = new SyntheticGraph(300, seed);
+            MergeBase engine = new MergeBase(graph);
+            Random random = new Random(seed);
+            for (int q = 0; q < 20; q += 1) {
+                int a = random.nextInt(graph.size());
+                int b = random.nextInt(graph.size());
+                Set<Integer> expected = bruteForce(graph, a, b);
+                Set<Integer> actual = new HashSet<>(engine.bases(a, b));
+                if (!expected.equals(actual)) {
+                    throw new AssertionError("merge bases of " + a + " and " + b + " were "
+                            + actual + ", expected " + expected);
+                }
+            }
+        }
+    }
+
+    /** Returns the common ancestors of A and B that aren't ancestors of another. */
+    private static Set<Integer> bruteForce(SyntheticGraph graph, int a, int b) {
+        BitSet common = graph.ancestors(a);
+        common.and(graph.ancestors(b));
+        Set<Integer> result = new HashSet<>();
+        for (int c = common.nextSetBit(0); c >= 0; c = common.nextSetBit(c + 1)) {
+            boolean redundant = false;
+            for (int d = common.nextSetBit(0); d >= 0 && !redundant; d = common.nextSetBit(d + 1)) {
+                redundant = d != c && graph.ancestors(d).get(c);
+            }
+            if (!redundant) {
+                result.add(c);
+            }
+        }
+        return result;
+    }
+
+    /** A random history of BRANCHES branches that regularly merge into each other. */
+    private static class SyntheticGraph implements MergeBase.Graph {
+        private final int[] parents;
+        private final int[] secParents;
+        private final int[] generations;
+        private final int[] tips = new int[BRANCHES];
+
+        SyntheticGraph(int size, long seed) {
+            Random random = new Random(seed);
+            parents = new int[size];
+            secParents = new int[size];
+            generations = new int[size];
+            parents[0] = -1;
+            secParents[0] = -1;
+            generations[0] = 1;
+            for (int i = 0; i < BRANCHES; i += 1) {
+                tips[i] = 0;
+            }
+            for (int pos = 1; pos < size; pos += 1) {
+                int branch = random.nextInt(BRANCHES);
+                int other = random.nextInt(BRANCHES);
+                parents[pos] = tips[branch];
+                secParents[pos] = -1;
+                if (other != branch && tips[other] != tips[branch]
+                        && random.nextDouble() < MERGE_RATE) {
+                    secParents[pos] = tips[other];
+                }
+                generations[pos] = 1 + Math.max(generations[parents[pos]],
+                        secParents[pos] < 0 ? 0 : generations[secParents[pos]]);
+                tips[branch] = pos;
+            }
+        }
+
+        int size() {
+            return parents.length;
+        }
+
+        int tip(int branch) {
+            return tips[branch];
+        }
+
+        BitSet ancestors(int pos) {
+            BitSet result = new BitSet();
+            List<Integer> stack = new ArrayList<>();
+            stack.add(pos);
+            while (!stack.isEmpty()) {
+                int curr = stack.remove(stack.size() - 1);
+                if (curr < 0 || result.get(curr)) {
+                    continue;
+                }
+                result.set(curr);
+                stack.add(parents[curr]);
+                stack.add(secParents[curr]);
+            }
+            return result;
+        }
+
+        @Override
+        public int parent(int pos) {
+            return parents[pos];
+        }
+
+        @Override
+        public int secParent(int pos) {
+            return secParents[pos];
+        }
+
+        @Override
+        public int generation(int pos) {
+            return generations[pos];
+        }
+
+        @Override
+        public long time(int pos) {
+            return pos;
+        }
+
+        @Override
+        public String id(int pos) {
+            return String.format("%040x", pos);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of the repository operations every command leans on, run against a
+ *  SyntheticRepo of each size given by the parameters: files tracked, history depth,
+ *  and how often master merges the topic branch.
+ *
+ *  Each benchmark cycles through its inputs (every commit, or 64 sets of changed
+ *  files) so no single one stays hot. The in-memory caches are dropped before each read
+ *  that's meant to measure decoding or loading rather than a cache hit.
+ *
+ *  @author Alex Rios
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryBenchmark {
+
+    /** Number of files changed by each commitTree call. */
+    private static final int CHANGED_FILES = 8;
+
+    /** A generated repository and the inputs the benchmarks cycle through. */
+    @State(Scope.Benchmark)
+    public static class Repo {
+        @Param({"100", "10000"})
+        public int files;
+        @Param({"100", "1000"})
+        public int depth;
+        @Param({"0.0", "0.3"})
+        public double mergeRate;
+
+        SyntheticRepo repo;
+        /** The encoded form of every commit. */
+        byte[][] encoded;
+        /** An abbreviated id, 8 digits long, of every commit. */
+        String[] prefixes;
+        Commit master;
+        Commit topic;
+        /** Sets of changes for commitTree to apply to master's tree, each giving files
+         *  the contents of their neighbours.
+         */
+        List<HashMap<String, String>> changes = new ArrayList<>();
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            repo = SyntheticRepo.build(files, depth, mergeRate, 42);
+            encoded = new byte[repo.commits.size()][];
+            prefixes = new String[repo.commits.size()];
+            for (int i = 0; i < encoded.length; i += 1) {
+                String uid = repo.commits.get(i);
+                encoded[i] = ObjectStore.read(uid, ObjectStore.COMMIT);
+                prefixes[i] = uid.substring(0, 8);
+            }
+            CommitInfo info = CommitInfo.readCommitInfo();
+            master = Commit.readCommit(info.branchUID("master"));
+            topic = Commit.readCommit(info.branchUID("topic"));
+            int n = repo.paths.size();
+            for (int i = 0; i < 64; i += 1) {
+                HashMap<String, String> change = new HashMap<>();
+                for (int j = 0; j < CHANGED_FILES; j += 1) {
+                    String path = repo.paths.get((i * 7919 + j * 104729) % n);
+                    String other = repo.paths.get((i * 7919 + j * 104729 + 1) % n);
+                    change.put(path, Tree.lookup(master.getTree(), other));
+                }
+                changes.add(change);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            repo.delete();
+        }
+
+        /** Returns the index of the next input, out of N. */
+        int next(int n) {
+            next = next + 1 < n ? next + 1 : 0;
+            return next;
+        }
+    }
+
+    /** Decodes a commit from its stored bytes. */
+    @Benchmark
+    public Commit decodeCommit(Repo state) throws Exception {
+        int i = state.next(state.encoded.length);
+        return Commit.decode(state.repo.commits.get(i), state.encoded[i]);
+    }
+
+    /** Reads a commit from the object store, with the commit cache empty. */
+    @Benchmark
+    public Commit readCommit(Repo state) {
+        Commit.forget();
+        return Commit.readCommit(state.repo.commits.get(state.next(state.repo.commits.size())));
+    }
+
+    /** Builds and stores the tree for a commit of CHANGED_FILES files on top of master:
+     *  what the Commit constructor does once the staged blobs are stored.
+     */
+    @Benchmark
+    public String commitTree(Repo state) {
+        return Tree.update(state.master.getTree(),
+                state.changes.get(state.next(state.changes.size())));
+    }
+
+    /** Finds the split point of master and topic, as merge does. */
+    @Benchmark
+    public Commit splitPoint(Repo state) {
+        return Repository.splitPoint(state.master, state.topic);
+    }
+
+    /** Expands an abbreviated commit id. */
+    @Benchmark
+    public String fullUID(Repo state) {
+        return Repository.fullUID(state.prefixes[state.next(state.prefixes.length)]);
+    }
+
+    /** Loads the branches and HEAD. */
+    @Benchmark
+    public String loadCommitInfo(Repo state) {
+        CommitInfo.forget();
+        return CommitInfo.readCommitInfo().getHeadCommit();
+    }
+
+    /** Creates and deletes a branch: two ref transactions, each written to the
+     *  journal and reflog.
+     */
+    @Benchmark
+    public void saveCommitInfo(Repo state) {
+        CommitInfo info = CommitInfo.readCommitInfo();
+        info.addBranch("bench");
+        info.removeBranch("bench");
+    }
+}
@@ -0,0 +1,131 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** A repository generated for benchmarking: FILES files in directories of 100, then
+ *  DEPTH commits, each changing one file on master or on a topic branch, chosen at
+ *  random. Master only changes even-numbered files and topic odd-numbered ones, and
+ *  a commit on master merges topic in, if topic has moved since, with probability
+ *  MERGERATE, so merges never conflict.
+ *
+ *  Commits are made through Commit and CommitInfo directly rather than through the
+ *  commands, so the working directory isn't kept in step with HEAD. Gitlet finds its
+ *  repository through the user.dir property when its classes are first loaded, so a
+ *  process can only use one; build must be called before any other gitlet class is
+ *  used, which JMH ensures by running each trial in a fresh fork.
+ *
+ *  @author Alex Rios
+ */
+class SyntheticRepo {
+
+    /** Files per directory. */
+    private static final int DIR_SIZE = 100;
+
+    /** Every commit made, oldest first, starting with the initial commit. */
+    final List<String> commits = new ArrayList<>();
+    /** Every tracked file. */
+    final List<String> paths = new ArrayList<>();
+    /** The directory holding the repository. */
+    final File dir;
+
+    private SyntheticRepo(File dir) {
+        this.dir = dir;
+    }
+
+    /** Returns a new repository in a temporary directory, generated from SEED. */
+    static SyntheticRepo build(int files, int depth, double mergeRate, long seed)
+            throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench-").toFile().getCanonicalFile();
+        System.setProperty("user.dir", dir.getPath());
+        if (!Repository.CWD.equals(dir)) {
+            throw new IllegalStateException("gitlet was already loaded for "
+                    + Repository.CWD + "; run with at least one fork.");
+        }
+        SyntheticRepo repo = new SyntheticRepo(dir);
+        repo.generate(files, depth, mergeRate, new Random(seed));
+        return repo;
+    }
+
+    private void generate(int files, int depth, double mergeRate, Random random)
+            throws IOException {
+        Repository.init();
+        CommitInfo info = CommitInfo.readCommitInfo();
+        commits.add(info.getHeadCommit());
+        StagingArea stage = StagingArea.readStagingArea();
+        File scratch = join(dir, "scratch");
+        HashMap<String, String> blobs = new HashMap<>();
+        for (int i = 0; i < files; i += 1) {
+            String path = String.format("d%03d/f%05d.txt", i / DIR_SIZE, i);
+            paths.add(path);
+            blobs.put(path, writeBlob(scratch, path + " version 0\n", null));
+            stage.add(path, blobs.get(path));
+        }
+        commit(info, stage, "add " + files + " files", null);
+        info.addBranch("topic");
+
+        HashMap<String, String> topicChanges = new HashMap<>();
+        boolean topicMoved = false;
+        for (int i = 1; i <= depth; i += 1) {
+            String branch = random.nextBoolean() ? "master" : "topic";
+            if (!branch.equals(info.getHEAD())) {
+                info.changeHead(branch);
+            }
+            int parity = branch.equals("master") ? 0 : 1;
+            int file = Math.min(files - 1, random.nextInt((files + 1) / 2) * 2 + parity);
+            String path = paths.get(file);
+            String id = writeBlob(scratch, path + " version " + i + "\n", blobs.get(path));
+            blobs.put(path, id);
+            stage.add(path, id);
+            String secParent = null;
+            if (branch.equals("topic")) {
+                topicChanges.put(path, id);
+                topicMoved = true;
+            } else if (topicMoved && random.nextDouble() < mergeRate) {
+                topicChanges.forEach(stage::add);
+                secParent = info.branchUID("topic");
+                topicMoved = false;
+            }
+            commit(info, stage, "commit " + i + " on " + branch, secParent);
+        }
+        if (!info.getHEAD().equals("master")) {
+            info.changeHead("master");
+        }
+        scratch.delete();
+    }
+
+    private void commit(CommitInfo info, StagingArea stage, String message, String secParent)
+            throws IOException {
+        Commit commit = new Commit(message, info.getHeadCommit(), secParent, stage);
+        commits.add(commit.getUID());
+        stage.clear();
+    }
+
+    private static String writeBlob(File scratch, String contents, String base)
+            throws IOException {
+        writeContents(scratch, contents);
+        return ObjectStore.writeBlob(scratch, base);
+    }
+
+    /** Deletes the repository. */
+    void delete() {
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] entries = file.listFiles();
+        if (entries != null) {
+            for (File entry : entries) {
+                delete(entry);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,174 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** Runs many gitlet commands in one process, for scripts that would otherwise
+ *  start a JVM per command. Commands are read one per line, with the same words as
+ *  on the command line; a word may be double-quoted to include spaces, and a
+ *  backslash takes the next character literally. Blank lines and lines starting
+ *  with # are skipped.
+ *
+ *  Each command prints what it would on its own. A command that fails doesn't
+ *  stop the batch: its error is printed as usual, and also reported on stderr as
+ *  "line N: MESSAGE" so the failures can be picked out. Messages of commands that
+ *  finish early without failing, such as a fast-forward merge, aren't reported.
+ *
+ *  For the whole batch this process holds the staging area lock, so other
+ *  processes' commands that change the staging area or move HEAD wait for it (up
+ *  to the lock timeout). The staging area and the stat cache are kept in memory and
+ *  written only at a line reading "checkpoint" and at the end, rather than being
+ *  rewritten by every add. Everything else is written as usual, and, as in the
+ *  Daemon, the caches are dropped before a command if another process changed the
+ *  repository.
+ *
+ *  Usage: java gitlet.Main --batch < COMMANDS
+ *
+ *  @author Alex Rios
+ */
+class Batch {
+
+    /** The line that writes out the staging area and stat cache. */
+    static final String CHECKPOINT = "checkpoint";
+
+    /** The staging area lock, once a repository exists to take it in. */
+    private static Lock lock;
+    /** The repository's stat data when the last command finished. */
+    private static String stamp;
+
+    /** Runs each command read from INPUT. */
+    static void run(InputStream input) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(input, UTF_8));
+        int number = 0;
+        try {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                number += 1;
+                String[] args;
+                try {
+                    args = split(line);
+                } catch (IllegalArgumentException excp) {
+                    report(number, excp.getMessage());
+                    continue;
+                }
+                if (args.length == 0 || args[0].startsWith("#")) {
+                    continue;
+                } else if (args.length == 1 && args[0].equals(CHECKPOINT)) {
+                    checkpoint();
+                } else {
+                    execute(number, args);
+                }
+            }
+        } finally {
+            end();
+        }
+    }
+
+    /** Runs ARGS, the command on line NUMBER, reporting it if it fails. */
+    private static void execute(int number, String[] args) throws IOException {
+        begin();
+        try {
+            String error = Main.execute(args);
+            if (error != null) {
+                report(number, error);
+            }
+        } catch (IOException | RuntimeException excp) {
+            report(number, excp.toString());
+            excp.printStackTrace();
+            Repository.forgetCaches();
+        }
+        if (lock != null) {
+            stamp = Daemon.stamp();
+        }
+    }
+
+    /** Takes the lock and starts holding the staging area and stat cache, once there's
+     *  a repository, or drops the caches if another process has changed it since the
+     *  last command.
+     */
+    private static void begin() throws IOException {
+        if (lock == null) {
+            if (!Repository.GITLET_DIR.isDirectory()) {
+                return;
+            }
+            lock = StagingArea.lock();
+            Repository.forgetCaches();
+            StagingArea.hold();
+            StatCache.hold();
+        } else if (!Daemon.stamp().equals(stamp)) {
+            Repository.forgetCaches();
+        }
+    }
+
+    /** Writes out the staging area and stat cache. */
+    private static void checkpoint() throws IOException {
+        if (lock != null) {
+            StagingArea.flush();
+            StatCache.flush();
+            stamp = Daemon.stamp();
+        }
+    }
+
+    /** Writes out the staging area and stat cache, and releases the lock. */
+    private static void end() throws IOException {
+        if (lock == null) {
+            return;
+        }
+        try {
+            StagingArea.release();
+            StatCache.release();
+        } finally {
+            lock.close();
+            lock = null;
+        }
+    }
+
+    /** Reports on stderr that line NUMBER failed with MSG. */
+    private static void report(int number, String msg) {
+        System.out.flush();
+        System.err.println("line " + number + ": " + msg);
+        System.err.flush();
+    }
+
+    /** Returns the words of LINE, split at runs of whitespace outside double quotes,
+     *  with quotes removed and each character after a backslash taken literally.
+     */
+    static String[] split(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c) && !quoted) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+                continue;
+            }
+            if (word == null) {
+                word = new StringBuilder();
+            }
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == '\\' && i + 1 < line.length()) {
+                i += 1;
+                word.append(line.charAt(i));
+            } else {
+                word.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quote.");
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,530 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/** Reachability bitmaps: for selected commits, the set of every commit, tree and blob
+ *  reachable from it, as an Ewah bitmap over an ordered index of objects. Whether one
+ *  commit is an ancestor of another is then a bit lookup after walking back at most a
+ *  few commits to ones with a bitmap, and the objects reachable from several commits
+ *  are the OR of their bitmaps.
+ *
+ *  A commit gets a bitmap when it's saved if its generation is one more than a
+ *  multiple of SPACING (so the initial commit has one), and gc also gives one to every
+ *  branch tip. Any other commit is covered by walking back to its nearest ancestors
+ *  with a bitmap, which is rarely more than SPACING commits.
+ *
+ *  INDEX_FILE lists the objects, 20-byte id, type byte and, for a commit with a
+ *  bitmap, the offset of its record in BITMAPS_FILE, in the order their bits are
+ *  numbered, after a table of their positions sorted by id, so an id's position is
+ *  found by binary search. BITMAPS_FILE holds one checksummed record per bitmap, its
+ *  commit's id and the bitmap, checked only when it's read. Both are only appended
+ *  to: a new commit's bitmap is the OR of those of its nearest ancestors that have
+ *  one, plus the trees and blobs of the commits in between and itself, giving any new
+ *  object the next position. Objects appended since the sorted table was written are
+ *  kept in a hash table instead, until there are TAIL_LIMIT of them and the table is
+ *  written again. A partly written entry at the end of the index is ignored and later
+ *  overwritten, and a record is only appended before the entry that points to it.
+ *  Repositories made before bitmaps existed, or with bitmaps in an older format, have
+ *  none until gc rebuilds them, in the order of the CommitGraph, so each commit's
+ *  objects sit next to those of its ancestors and the bitmaps compress well. Every
+ *  writer holds the staging area lock.
+ *
+ *  @author Alex Rios
+ */
+public class Bitmaps {
+
+    /** File that stores the object index. */
+    public static final File INDEX_FILE = join(Repository.GITLET_DIR, ".bitmap-index");
+    /** File that stores the bitmaps. */
+    public static final File BITMAPS_FILE = join(Repository.GITLET_DIR, ".bitmaps");
+
+    /** Generations between commits given a bitmap when they're saved. */
+    static final int SPACING = 16;
+    /** Most commits walked to reach ones with a bitmap before giving up. */
+    static final int WALK_LIMIT = 4 * SPACING;
+
+    private static final int INDEX_MAGIC = 0x474c4249;
+    private static final int BITMAPS_MAGIC = 0x474c424d;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 8;
+    /** Magic, version and the number of positions in the sorted table. */
+    private static final int INDEX_HEADER = 12;
+    private static final int ID_BYTES = 20;
+    /** Id, type and record offset. */
+    private static final int ENTRY_BYTES = ID_BYTES + 1 + 4;
+    /** Length and checksum of the payload. */
+    private static final int RECORD_HEADER = 8;
+    /** Number of entries past the sorted table at which it is written again. */
+    private static final int TAIL_LIMIT = 4096;
+
+    /** The bitmaps loaded by this process. */
+    private static Bitmaps bitmaps;
+
+    /** The mapped object index, or null if there are no bitmaps. */
+    private MappedByteBuffer index;
+    /** Number of complete entries in the index. */
+    private int size;
+    /** Number of positions in the sorted table: those of the first entries. */
+    private int sorted;
+    /** Position of each entry after the sorted ones, and of each pending entry. */
+    private final HashMap<String, Integer> tail = new HashMap<>();
+    /** Entries given positions since the index was mapped, not yet written. */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private int pendingSize;
+    /** Record offset of each pending entry that has a bitmap, by position. */
+    private final HashMap<Integer, Integer> pendingRecords = new HashMap<>();
+
+    /** The mapped bitmap records. */
+    private MappedByteBuffer records;
+
+    /** Returns the bitmaps of this repository, which has none if neither file exists. */
+    public static Bitmaps readBitmaps() {
+        if (bitmaps == null) {
+            bitmaps = new Bitmaps();
+            try {
+                bitmaps.map();
+            } catch (IOException excp) {
+                throw error("Unable to read the reachability bitmaps.");
+            }
+        }
+        return bitmaps;
+    }
+
+    /** Drops the bitmaps loaded by this process, so the next read maps them again. */
+    static void forget() {
+        bitmaps = null;
+    }
+
+    /** Maps both files, if they exist in this format, and reads the positions of the
+     *  entries after the sorted table.
+     */
+    private void map() throws IOException {
+        remap();
+        tail.clear();
+        for (int i = sorted; i < size; i += 1) {
+            tail.put(id(i), i);
+        }
+    }
+
+    /** Maps both files again, ignoring a partly written entry, without reading any
+     *  entries or records.
+     */
+    private void remap() throws IOException {
+        index = null;
+        records = null;
+        sorted = 0;
+        size = 0;
+        if (!INDEX_FILE.isFile() || !BITMAPS_FILE.isFile()) {
+            return;
+        }
+        MappedByteBuffer mapped = mapFile(INDEX_FILE, INDEX_MAGIC, INDEX_HEADER);
+        records = mapFile(BITMAPS_FILE, BITMAPS_MAGIC, HEADER_BYTES);
+        if (mapped == null || records == null) {
+            records = null;
+            return;
+        }
+        index = mapped;
+        sorted = index.getInt(HEADER_BYTES);
+        size = (index.capacity() - entries()) / ENTRY_BYTES;
+    }
+
+    /** Maps FILE, checking it starts with MAGIC and that its header of HEADER bytes is
+     *  complete. Returns null if it's in another version's format.
+     */
+    private static MappedByteBuffer mapFile(File file, int magic, int header)
+            throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (buf.capacity() < header || buf.getInt(0) != magic) {
+            throw error("Corrupt reachability bitmaps.");
+        }
+        return buf.getInt(4) == VERSION ? buf : null;
+    }
+
+    /** Returns the number of objects in the index. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the number of commits with a bitmap. This reads every entry. */
+    public int commits() {
+        int count = 0;
+        for (int pos = 0; pos < size; pos += 1) {
+            if (recordOffset(pos) != 0) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Returns true if there is a bitmap for the commit with the given uid. */
+    public boolean covers(String uid) {
+        int pos = position(uid);
+        return pos >= 0 && pos < size && recordOffset(pos) != 0;
+    }
+
+    /** Returns the bitmap of the objects reachable from the commit with the given uid,
+     *  or null if it has none or its record is damaged.
+     */
+    public Ewah reachable(String uid) {
+        int pos = position(uid);
+        int offset = pos >= 0 && pos < size ? recordOffset(pos) : 0;
+        if (offset == 0 || offset + RECORD_HEADER > records.capacity()) {
+            return null;
+        }
+        int length = records.getInt(offset);
+        int checksum = records.getInt(offset + 4);
+        int start = offset + RECORD_HEADER;
+        if (length < ID_BYTES || start + length > records.capacity()
+                || !ObjectStore.toHex(records, start).equals(uid)) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(records.slice(start, length));
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        ByteBuffer buf = records.duplicate();
+        buf.position(start + ID_BYTES);
+        return Ewah.read(buf);
+    }
+
+    /** Returns whether the object ID is reachable from the commit FROM, from the
+     *  bitmaps of FROM's nearest ancestors that have one and the commits in between,
+     *  or null if that would walk more than WALK_LIMIT commits. A commit reaches
+     *  itself.
+     */
+    public Boolean reaches(String from, String id) {
+        if (index == null) {
+            return null;
+        }
+        int pos = position(id);
+        CommitGraph graph = CommitGraph.readCommitGraph();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(graph.add(from));
+        Set<Integer> seen = new HashSet<>();
+        while (!stack.isEmpty()) {
+            int curr = stack.pop();
+            if (curr < 0 || !seen.add(curr)) {
+                continue;
+            }
+            String uid = graph.id(curr);
+            Ewah bits = reachable(uid);
+            if (uid.equals(id) || bits != null && pos >= 0 && bits.get(pos)) {
+                return true;
+            } else if (bits == null) {
+                if (seen.size() > WALK_LIMIT) {
+                    return null;
+                }
+                stack.push(graph.parent(curr));
+                stack.push(graph.secParent(curr));
+            }
+        }
+        return false;
+    }
+
+    /** Returns the position of the object with the given id, or -1 if it isn't in the
+     *  index.
+     */
+    public int position(String id) {
+        Integer found = tail.get(id);
+        if (found != null) {
+            return found;
+        }
+        byte[] key = ObjectStore.toBytes(id);
+        int lo = 0;
+        int hi = sorted;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int pos = index.getInt(INDEX_HEADER + mid * 4);
+            int cmp = compare(pos, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid;
+            } else {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the id of the object at POS to KEY. */
+    private int compare(int pos, byte[] key) {
+        int offset = entries() + pos * ENTRY_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = Byte.compareUnsigned(index.get(offset + i), key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the id of the object at POS. */
+    public String id(int pos) {
+        return ObjectStore.toHex(index, entries() + pos * ENTRY_BYTES);
+    }
+
+    /** Returns the type of the object at POS, as an ObjectStore type tag. */
+    public byte type(int pos) {
+        return index.get(entries() + pos * ENTRY_BYTES + ID_BYTES);
+    }
+
+    /** Returns the offset in BITMAPS_FILE of the record of the object at POS, or 0 if
+     *  it has none.
+     */
+    private int recordOffset(int pos) {
+        return index.getInt(entries() + pos * ENTRY_BYTES + ID_BYTES + 1);
+    }
+
+    /** Returns the offset of the first entry in the index. */
+    private int entries() {
+        return INDEX_HEADER + sorted * 4;
+    }
+
+    /** Returns true if the commit at POS in GRAPH gets a bitmap when it's saved. */
+    private static boolean selected(CommitGraph graph, int pos) {
+        return (graph.generation(pos) - 1) % SPACING == 0;
+    }
+
+    /** Records the bitmap of the newly saved COMMIT, if it's selected for one. This is
+     *  skipped, leaving the commit uncovered until the next rebuild, if there are no
+     *  bitmaps yet or more than WALK_LIMIT commits lie between it and the ancestors
+     *  that have one; the bitmaps are started by the initial commit.
+     */
+    public void add(Commit commit) {
+        String uid = commit.getUID();
+        if (position(uid) >= 0 || index == null && commit.getParent() != null) {
+            return;
+        }
+        CommitGraph graph = CommitGraph.readCommitGraph();
+        int pos = graph.add(commit);
+        if (!selected(graph, pos)) {
+            return;
+        }
+        try {
+            if (index == null) {
+                writeIndex(new byte[0]);
+                ObjectStore.writeAtomically(BITMAPS_FILE, (Object) header(BITMAPS_MAGIC));
+                map();
+            }
+            BitSet bits = new BitSet();
+            if (!collect(graph, pos, p -> reachable(graph.id(p)), bits, WALK_LIMIT)) {
+                return;
+            }
+            int offset = (int) BITMAPS_FILE.length();
+            pendingRecords.put(position(uid), offset);
+            append(BITMAPS_FILE, offset, record(uid, Ewah.of(bits)));
+            append(INDEX_FILE, entries() + (long) size * ENTRY_BYTES, pendingEntries());
+            pending.reset();
+            pendingSize = 0;
+            pendingRecords.clear();
+            remap();
+            if (size - sorted >= TAIL_LIMIT) {
+                byte[] all = new byte[size * ENTRY_BYTES];
+                index.get(entries(), all);
+                writeIndex(all);
+                map();
+            }
+        } catch (IOException excp) {
+            throw error("Unable to update the reachability bitmaps.");
+        }
+    }
+
+    /** Writes bitmaps for the selected commits in the CommitGraph and every branch tip,
+     *  replacing any there were, and returns them.
+     */
+    public static Bitmaps rebuild() {
+        CommitGraph graph = CommitGraph.readCommitGraph();
+        CommitInfo info = CommitInfo.readCommitInfo();
+        Set<Integer> tips = new HashSet<>();
+        for (String branch : info.sortedBranches()) {
+            tips.add(graph.add(info.branchUID(branch)));
+        }
+        Bitmaps built = new Bitmaps();
+        HashMap<Integer, Ewah> reachable = new HashMap<>();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        try {
+            records.write(header(BITMAPS_MAGIC));
+            for (int pos = 0; pos < graph.size(); pos += 1) {
+                if (!selected(graph, pos) && !tips.contains(pos)) {
+                    continue;
+                }
+                BitSet bits = new BitSet();
+                built.collect(graph, pos, reachable::get, bits, Integer.MAX_VALUE);
+                reachable.put(pos, Ewah.of(bits));
+                built.pendingRecords.put(built.position(graph.id(pos)), records.size());
+                records.write(record(graph.id(pos), reachable.get(pos)));
+            }
+        } catch (IOException excp) {
+            throw error("Unable to rebuild the reachability bitmaps.");
+        }
+        writeIndex(built.pendingEntries());
+        ObjectStore.writeAtomically(BITMAPS_FILE, (Object) records.toByteArray());
+        forget();
+        return readBitmaps();
+    }
+
+    /** Sets in BITS everything reachable from the commit at POS in GRAPH, which has no
+     *  bitmap: the OR of the BITMAPs of its nearest ancestors that have one, and the
+     *  objects of the commits between them and it, including itself, marked oldest
+     *  first. Returns false, marking nothing, if more than LIMIT commits lie between.
+     */
+    private boolean collect(CommitGraph graph, int pos, IntFunction<Ewah> bitmap, BitSet bits,
+                            int limit) {
+        List<Integer> walked = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(pos);
+        while (!stack.isEmpty()) {
+            int curr = stack.pop();
+            if (curr < 0 || !seen.add(curr)) {
+                continue;
+            }
+            Ewah reachable = curr == pos ? null : bitmap.apply(curr);
+            if (reachable != null) {
+                bits.or(reachable.toBitSet());
+            } else if (walked.size() == limit) {
+                return false;
+            } else {
+                walked.add(curr);
+                stack.push(graph.parent(curr));
+                stack.push(graph.secParent(curr));
+            }
+        }
+        Collections.sort(walked);
+        for (int curr : walked) {
+            mark(Commit.readCommit(graph.id(curr)), bits);
+        }
+        return true;
+    }
+
+    /** Sets the bits in BITS of COMMIT and of every tree and blob it refers to. */
+    private void mark(Commit commit, BitSet bits) {
+        bits.set(assign(commit.getUID(), ObjectStore.COMMIT));
+        if (commit.hasInlineFiles()) {
+            for (String blob : commit.getBlobMap().values()) {
+                bits.set(assign(blob, ObjectStore.BLOB));
+            }
+        } else {
+            markTree(commit.getTree(), bits);
+        }
+    }
+
+    /** Sets the bits of the tree ID and of its blobs and subtrees, stopping at trees
+     *  whose bit is already set: everything under them is too.
+     */
+    private void markTree(String id, BitSet bits) {
+        int pos = assign(id, ObjectStore.TREE);
+        if (bits.get(pos)) {
+            return;
+        }
+        bits.set(pos);
+        Tree tree = Tree.readTree(id);
+        for (String blob : tree.ids(Tree.FILE)) {
+            bits.set(assign(blob, ObjectStore.BLOB));
+        }
+        for (String subtree : tree.ids(Tree.DIR)) {
+            markTree(subtree, bits);
+        }
+    }
+
+    /** Returns the position of the object ID, giving it the next one if it has none. */
+    private int assign(String id, byte type) {
+        int pos = position(id);
+        if (pos < 0) {
+            pos = size + pendingSize;
+            tail.put(id, pos);
+            pending.writeBytes(ObjectStore.toBytes(id));
+            pending.write(type);
+            pending.writeBytes(new byte[4]);
+            pendingSize += 1;
+        }
+        return pos;
+    }
+
+    /** Returns the pending entries, with the offsets of their records filled in. */
+    private byte[] pendingEntries() {
+        byte[] entries = pending.toByteArray();
+        ByteBuffer buf = ByteBuffer.wrap(entries);
+        for (Map.Entry<Integer, Integer> entry : pendingRecords.entrySet()) {
+            buf.putInt((entry.getKey() - size) * ENTRY_BYTES + ID_BYTES + 1,
+                    entry.getValue());
+        }
+        return entries;
+    }
+
+    /** Writes INDEX_FILE holding ENTRIES, in order, and the sorted table of their
+     *  positions.
+     */
+    private static void writeIndex(byte[] entries) {
+        int count = entries.length / ENTRY_BYTES;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(
+                entries, a * ENTRY_BYTES, a * ENTRY_BYTES + ID_BYTES,
+                entries, b * ENTRY_BYTES, b * ENTRY_BYTES + ID_BYTES));
+        ByteBuffer table = ByteBuffer.allocate(INDEX_HEADER + count * 4);
+        table.putInt(INDEX_MAGIC).putInt(VERSION).putInt(count);
+        for (int pos : order) {
+            table.putInt(pos);
+        }
+        ObjectStore.writeAtomically(INDEX_FILE, table.array(), entries);
+    }
+
+    private static byte[] header(int magic) {
+        return ByteBuffer.allocate(HEADER_BYTES).putInt(magic).putInt(VERSION).array();
+    }
+
+    /** Returns the record holding the bitmap BITS of the commit UID. */
+    private static byte[] record(String uid, Ewah bits) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(ID_BYTES + bits.byteSize());
+        payload.write(ObjectStore.toBytes(uid));
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            bits.write(out);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+        return ByteBuffer.allocate(RECORD_HEADER + payload.size()).putInt(payload.size())
+                .putInt((int) crc.getValue()).put(payload.toByteArray()).array();
+    }
+
+    /** Writes BYTES to FILE at LENGTH, discarding whatever was written past it. */
+    private static void append(File file, long length, byte[] bytes) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            ch.truncate(length);
+            ch.position(length);
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        }
+    }
+}
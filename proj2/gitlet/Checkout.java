@@ -0,0 +1,195 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static gitlet.Repository.gitletError;
+import static gitlet.Utils.*;
+
+/** Moves the working directory from one commit to another, for checkout and reset.
+ *  The two commits' trees are diffed first, and only the paths whose blobs differ
+ *  between them are touched: files only in the current commit are deleted, and the
+ *  rest are written from the target unless the working copy already has the target's
+ *  contents (checked through the StatCache). Files that are the same in both commits
+ *  are left alone, as in git, so the cost depends on the size of the difference
+ *  rather than the size of the tree. Files are written on a small pool of worker
+ *  threads.
+ *
+ *  @author Alex Rios
+ */
+public class Checkout {
+
+    /** Number of worker threads. */
+    private static final int THREADS =
+            Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    /** Number of files each worker task handles. */
+    private static final int BATCH_SIZE = 256;
+
+    private final Commit current;
+    private final Commit target;
+    /** Paths whose blobs differ between the two commits. */
+    private final Set<String> changed = new HashSet<>();
+
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private int deleted;
+
+    /** Prepares to move the working directory from CURRENT to TARGET. */
+    @SuppressWarnings("try")
+    public Checkout(Commit current, Commit target) {
+        this.current = current;
+        this.target = target;
+        try (Trace.Span span = Trace.span("checkout.diff")) {
+            Tree.diff(current.getTree(), target.getTree(), changed);
+        }
+    }
+
+    /** Exits with an error if a file not tracked by the current commit is in the way
+     *  of a file in the target. Only files that differ between the two can be.
+     */
+    public void checkUntracked() {
+        for (String path : changed) {
+            if (!current.isTracked(path) && target.isTracked(path)
+                    && join(Repository.CWD, path).isFile()) {
+                gitletError("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+            }
+        }
+    }
+
+    /** Deletes the files tracked by the current commit but not the target, then
+     *  writes every other file that differs between them.
+     */
+    @SuppressWarnings("try")
+    public void run() throws IOException {
+        if (changed.isEmpty()) {
+            return;
+        }
+        try (Trace.Span span = Trace.span("checkout.write")) {
+            write();
+        }
+        Trace.count("checkout.written", written());
+        Trace.count("checkout.skipped", skipped());
+        Trace.count("checkout.deleted", deleted());
+    }
+
+    private void write() throws IOException {
+        StatCache cache = StatCache.readStatCache();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        List<String[]> batch = new ArrayList<>();
+        for (String path : changed) {
+            String blob = target.getBlobUID(path);
+            if (blob != null) {
+                batch.add(new String[] {path, blob});
+                if (batch.size() == BATCH_SIZE) {
+                    tasks.add(task(batch, cache));
+                    batch = new ArrayList<>();
+                }
+                continue;
+            }
+            File file = join(Repository.CWD, path);
+            if (file.isFile()) {
+                Repository.deleteFile(file, Repository.CWD);
+                deleted += 1;
+            }
+            cache.remove(path);
+        }
+        if (!batch.isEmpty()) {
+            tasks.add(task(batch, cache));
+        }
+        runAll(tasks);
+        cache.saveStatCache();
+    }
+
+    /** Returns a task that writes each of FILES, pairs of a path and blob id, unless
+     *  it's already up to date.
+     */
+    private Callable<Void> task(List<String[]> files, StatCache cache) {
+        return () -> {
+            for (String[] entry : files) {
+                String path = entry[0];
+                String blob = entry[1];
+                File file = join(Repository.CWD, path);
+                if (file.isFile() && blob.equals(cache.hash(path, file))) {
+                    skipped.incrementAndGet();
+                    continue;
+                }
+                file.getParentFile().mkdirs();
+                ObjectStore.copyTo(blob, file);
+                cache.update(path, file, blob);
+                written.incrementAndGet();
+            }
+            return null;
+        };
+    }
+
+    /** Runs TASKS on the worker pool, rethrowing the first failure. */
+    private static void runAll(List<Callable<Void>> tasks) throws IOException {
+        if (tasks.size() <= 1) {
+            for (Callable<Void> task : tasks) {
+                call(task);
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(THREADS, tasks.size()));
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted while checking out files.");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw error("Unable to check out files.");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void call(Callable<Void> task) throws IOException {
+        try {
+            task.call();
+        } catch (IOException | RuntimeException excp) {
+            throw excp;
+        } catch (Exception excp) {
+            throw error("Unable to check out files.");
+        }
+    }
+
+    /** Returns the number of files written. */
+    public int written() {
+        return written.get();
+    }
+
+    /** Returns the number of files that were already up to date. */
+    public int skipped() {
+        return skipped.get();
+    }
+
+    /** Returns the number of files deleted. */
+    public int deleted() {
+        return deleted;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d written, %d skipped, %d deleted", written(), skipped(),
+                deleted());
+    }
+}
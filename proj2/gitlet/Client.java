@@ -0,0 +1,84 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** Runs a gitlet command through the Daemon serving the repository in the CWD,
+ *  printing exactly what Main would and exiting with the same status. If no daemon
+ *  is running, the command is run in this process instead.
+ *
+ *  Usage: java gitlet.Client ARGS, with the same ARGS as gitlet.Main.
+ *
+ *  @author Alex Rios
+ */
+public class Client {
+
+    public static void main(String[] args) throws IOException {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(Daemon.SOCKET.toPath()));
+        } catch (IOException excp) {
+            Main.main(args);
+            return;
+        }
+        int status;
+        try (channel) {
+            sendArgs(channel, args);
+            status = readOutput(new DataInputStream(Channels.newInputStream(channel)));
+        } catch (EOFException excp) {
+            System.out.flush();
+            System.err.println("Lost the connection to the gitlet daemon.");
+            status = 1;
+        }
+        System.out.flush();
+        System.err.flush();
+        System.exit(status);
+    }
+
+    /** Sends ARGS as their number, then each one's length and UTF-8 bytes. */
+    private static void sendArgs(SocketChannel channel, String[] args) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(args.length);
+        for (String arg : args) {
+            byte[] data = arg.getBytes(UTF_8);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    /** Copies output frames to stdout and stderr until the exit status arrives, and
+     *  returns it.
+     */
+    private static int readOutput(DataInputStream in) throws IOException {
+        byte[] buf = new byte[1 << 16];
+        while (true) {
+            byte type = in.readByte();
+            int length = in.readInt();
+            if (type == Daemon.EXIT) {
+                return length;
+            }
+            while (length > 0) {
+                int n = in.read(buf, 0, Math.min(length, buf.length));
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                (type == Daemon.OUT ? System.out : System.err).write(buf, 0, n);
+                length -= n;
+            }
+        }
+    }
+}
@@ -3,29 +3,43 @@ package gitlet;
 import static gitlet.Repository.gitletError;
 import static gitlet.Utils.*;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.io.Serializable;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.Date;
-import java.util.List;
-import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 
 /** Represents a gitlet commit object.
  *  Consists of a log message, timestamp, mapping of file names to blob references,
  *  parent reference, & second parent reference (for merges).
  *
+ *  Commits are stored in a versioned binary encoding (see encode), and a commit's
+ *  UID is the sha1 hash of that encoding. The tracked files aren't stored in the
+ *  commit itself but in a Tree, so a commit only names the root of its tree and
+ *  shares every unchanged subtree with its parent. Commits written by older
+ *  versions of gitlet list their files inline instead: version 1 of the encoding
+ *  sorted by file name, and before that with Java serialization. Both are still
+ *  read, and keep the UIDs they were given; serialized commits are recognized by the
+ *  serialization stream magic, which is the only reason this class is still
+ *  Serializable.
+ *
  *  @author Alex Rios
  *
  * @Source: https://stackoverflow.com/questions/10378855
  * Defined a private static final long SerialVersionUID to fix InvalidClassException.
  * @Source: https://stackoverflow.com/questions/46898
- * Used ideas from this post in the checkoutCommit method to iterate over each entry in the blobMap.
+ * Used ideas from this post in Checkout to iterate over each entry in the blobMap.
  */
 public class Commit implements Serializable {
 
@@ -41,98 +55,257 @@ public class Commit implements Serializable {
     private String secParent;
     /** Sha1 hash of the current commit. */
     private String UID;
-    /** Hashmap of all the blobs tracked by the commit. */
+    /** Hashmap of all the blobs tracked by the commit, for older commits that list
+     *  their files inline; null for commits stored with a tree.
+     */
     private HashMap<String, String> blobMap;
+    /** Id of the tree of files tracked by the commit; null for older commits until
+     *  one is written for them.
+     */
+    private String tree;
 
     @Serial
     private static final long serialVersionUID = -1729364433321816610L;
 
+    /** First bytes of an encoded commit. */
+    private static final int MAGIC = 0x474c434f;
+    private static final int VERSION = 2;
+    /** Version of the encoding that lists every file inline. */
+    private static final int INLINE_VERSION = 1;
+    /** First two bytes of a Java serialization stream. */
+    private static final int LEGACY_MAGIC = 0xaced;
+
+    /** Total estimated size of the commits kept in memory. */
+    private static final long CACHE_SIZE = 16L << 20;
+    /** Recently read commits, by uid. A commit never changes once it's written, so
+     *  repeated reads of the same one (HEAD, or ancestors during a merge) are served
+     *  from here.
+     */
+    static final LruCache<String, Commit> COMMITS =
+            new LruCache<>("commit", CACHE_SIZE, Commit::weight);
+
     public Commit() throws IOException {
         this.message = "initial commit";
         Date epoch = new Date(0);
         this.timestamp = FORMAT.format(epoch);
-        this.blobMap = new HashMap<>();
-        this.UID = sha1(serialize(this));
+        this.tree = Tree.write(new HashMap<>());
+        this.UID = sha1(encode());
         saveCommit();
+        CommitGraph.readCommitGraph().add(this);
+        CommitTable.update();
+        UidIndex.readUidIndex().add(UID);
+        Bitmaps.readBitmaps().add(this);
     }
 
-    public Commit(String message, String parent, String secParent) throws IOException {
+    /** Creates and saves a commit of everything in STAGE on top of PARENT. */
+    public Commit(String message, String parent, String secParent, StagingArea stage)
+            throws IOException {
         this.message = message;
         Date currDate = new Date();
         this.timestamp = FORMAT.format(currDate);
         this.parent = parent;
         this.secParent = secParent;
-        this.blobMap = createBlobMap();
-        this.UID = sha1(serialize(this));
-        CommitInfo.readCommitInfo().updateHead(UID);
+        this.tree = createTree(stage);
+        this.UID = sha1(encode());
         saveCommit();
+        CommitGraph.readCommitGraph().add(this);
+        CommitTable.update();
+        UidIndex.readUidIndex().add(UID);
+        Bitmaps.readBitmaps().add(this);
+        CommitInfo.readCommitInfo().updateHead(parent, UID,
+                (secParent == null ? "commit: " : "commit (merge): ") + message);
+    }
+
+    /** Creates a commit from decoded fields, without saving it. */
+    Commit(String message, String timestamp, String parent, String secParent, String tree,
+           HashMap<String, String> blobMap, String uid) {
+        this.message = message;
+        this.timestamp = timestamp;
+        this.parent = parent;
+        this.secParent = secParent;
+        this.tree = tree;
+        this.blobMap = blobMap;
+        this.UID = uid;
     }
 
-    /** Creates a HashMap w/ the file names as the key, and their hash as the value
-     *  Inherits from parent commit's map. If an untracked file or new version of a file
-     *  exists in the staging area, it's added to the blobMap, overwriting any old versions.
-     *  This file is also added to the .blobs directory, w/ it's sha1 hash as its name.
+    /** Returns the id of the tree for this commit: the parent commit's tree, with
+     *  every file in STAGE for addition added or replaced, and every file staged for
+     *  removal removed. The staged blobs were already stored by add, so no file is
+     *  read here; only the trees along the changed paths are written.
      */
-    private HashMap<String, String> createBlobMap() throws IOException {
-        HashMap<String, String> parentBlobMap = readCommit(parent).blobMap;
-        HashMap<String, String> newBlobMap = new HashMap<>(parentBlobMap);
-        List<String> addList = plainFilenamesIn(Repository.STAGING_ADD);
-        List<String> rmList = plainFilenamesIn(Repository.STAGING_RM);
-        if (addList == null || rmList == null) {
-            gitletError("No changes added to the commit.");
+    private String createTree(StagingArea stage) {
+        Commit parentCommit = readCommit(parent);
+        HashMap<String, String> changes = new HashMap<>(stage.added());
+        for (String curr : stage.removed()) {
+            changes.put(curr, null);
         }
-        for (String curr:addList) {
-            File currAdd = join(Repository.STAGING_ADD, curr);
-            String currHash = sha1(readContents(currAdd));
-            newBlobMap.put(curr, currHash);
-            File blob = join(Repository.BLOBS_DIR, currHash);
-            Files.copy(currAdd.toPath(), blob.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        }
-        for (String curr:rmList) {
-            newBlobMap.remove(curr);
-        }
-        return newBlobMap;
+        return Tree.update(parentCommit.getTree(), changes);
     }
 
-    /** Reads in a commit from a file with the given uid. */
+    /** Reads in a commit with the given uid from the object store, or from the
+     *  cache of recently read commits.
+     */
     public static Commit readCommit(String uid) {
-        File targetCommit = join(Repository.GITLET_DIR, uid);
-        if (!targetCommit.exists()) {
+        Commit commit = uid == null ? null : COMMITS.get(uid);
+        if (commit != null) {
+            return commit;
+        }
+        byte[] data = ObjectStore.read(uid, ObjectStore.COMMIT);
+        if (data == null) {
             gitletError("No commit with that id exists.");
         }
-        return readObject(targetCommit, Commit.class);
+        try {
+            commit = decode(uid, data);
+            Trace.count("commits.decoded", 1);
+        } catch (IOException | ClassNotFoundException | BufferUnderflowException excp) {
+            throw error("Corrupt commit %s.", uid);
+        }
+        COMMITS.put(uid, commit);
+        return commit;
+    }
+
+    /** Drops every commit read by this process. */
+    static void forget() {
+        COMMITS.clear();
+    }
+
+    /** Returns a rough estimate of the memory this commit takes, in bytes. */
+    private long weight() {
+        long size = 256 + 2L * (message.length() + timestamp.length());
+        if (blobMap != null) {
+            for (String fileName : blobMap.keySet()) {
+                size += 2L * fileName.length() + 2 * UID_LENGTH + 128;
+            }
+        }
+        return size;
+    }
+
+    /** Returns the commit with the given uid stored as DATA, in either the current
+     *  encoding or the Java serialization used by older repositories.
+     */
+    static Commit decode(String uid, byte[] data) throws IOException, ClassNotFoundException {
+        if (data.length >= 2 && ((data[0] & 0xff) << 8 | data[1] & 0xff) == LEGACY_MAGIC) {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                return (Commit) in.readObject();
+            }
+        }
+        ByteBuffer in = ByteBuffer.wrap(data);
+        int version = in.getInt() == MAGIC ? in.get() & 0xff : -1;
+        if (version != VERSION && version != INLINE_VERSION) {
+            throw new IOException("Unknown commit encoding.");
+        }
+        String message = readString(in);
+        String timestamp = readString(in);
+        int parents = in.get() & 0xff;
+        String parent = parents > 0 ? readId(in) : null;
+        String secParent = parents > 1 ? readId(in) : null;
+        if (version == VERSION) {
+            return new Commit(message, timestamp, parent, secParent, readId(in), null, uid);
+        }
+        int count = in.getInt();
+        HashMap<String, String> blobMap = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i += 1) {
+            String fileName = readString(in);
+            blobMap.put(fileName, readId(in));
+        }
+        return new Commit(message, timestamp, parent, secParent, null, blobMap, uid);
+    }
+
+    /** Returns the encoding of this commit: a magic number and version, the message,
+     *  timestamp, number of parents and their ids, then the id of its tree. Strings
+     *  are length-prefixed UTF-8 and ids are raw 20-byte hashes. (In version 1, the
+     *  tree id was instead the number of tracked files followed by each file name and
+     *  blob id, sorted by file name.)
+     */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            writeString(out, message);
+            writeString(out, timestamp);
+            out.writeByte(parent == null ? 0 : secParent == null ? 1 : 2);
+            if (parent != null) {
+                out.write(ObjectStore.toBytes(parent));
+            }
+            if (secParent != null) {
+                out.write(ObjectStore.toBytes(secParent));
+            }
+            out.write(ObjectStore.toBytes(getTree()));
+        } catch (IOException excp) {
+            throw error("Unable to encode commit.");
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Truncated commit.");
+        }
+        String str = new String(in.array(), in.position(), length, UTF_8);
+        in.position(in.position() + length);
+        return str;
+    }
+
+    private static String readId(ByteBuffer in) throws IOException {
+        if (in.remaining() < 20) {
+            throw new IOException("Truncated commit.");
+        }
+        String id = ObjectStore.toHex(in, in.position());
+        in.position(in.position() + 20);
+        return id;
     }
 
-    /** Saves a commit to a file w/ it's sha1 hash as its name. */
-    private void saveCommit() throws IOException {
-        File savedCommit = new File(Repository.GITLET_DIR, this.UID);
-        savedCommit.createNewFile();
-        writeObject(savedCommit, this);
+    /** Saves a commit to the object store w/ it's sha1 hash as its id. */
+    private void saveCommit() {
+        ObjectStore.writeCommit(this.UID, encode());
+        COMMITS.put(UID, this);
     }
 
-    /** Copies all files being tracked in the current commit into the CWD,
-     *  overwriting any older versions if they exist.
+    /** Returns the id of the tree of files tracked by this commit, first writing one
+     *  if this commit lists its files inline.
      */
-    public void checkoutCommit() throws IOException {
-        for (Map.Entry<String, String> blob : blobMap.entrySet()) {
-            File trackFile = join(Repository.BLOBS_DIR, blob.getValue());
-            File tgtFile = join(Repository.CWD, blob.getKey());
-            Files.copy(trackFile.toPath(), tgtFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    public synchronized String getTree() {
+        if (tree == null) {
+            tree = Tree.write(blobMap);
         }
+        return tree;
     }
 
-    /** Returns the blobMap of the current commit. */
+    /** Returns the blobMap of the current commit. For commits stored with a tree,
+     *  this is built from the tree on every call rather than kept, so commits in the
+     *  cache stay small.
+     */
     public HashMap<String, String> getBlobMap() {
-        return blobMap;
+        if (blobMap != null) {
+            return blobMap;
+        }
+        HashMap<String, String> files = new HashMap<>();
+        Tree.flatten(tree, files);
+        return files;
+    }
+
+    /** Returns true if this commit lists its files inline rather than naming a tree,
+     *  as commits written by older versions of gitlet do.
+     */
+    boolean hasInlineFiles() {
+        return blobMap != null;
     }
 
     /** Returns the UID of the blob from the blobMap that corresponds w/ the given fileName. */
     public String getBlobUID(String fileName) {
-        return blobMap.get(fileName);
+        return blobMap != null ? blobMap.get(fileName) : Tree.lookup(tree, fileName);
     }
 
     public boolean isTracked(String fileName) {
-        return blobMap.containsKey(fileName);
+        return getBlobUID(fileName) != null;
     }
 
     public String getMessage() {
@@ -141,6 +314,14 @@ public class Commit implements Serializable {
     public String getTimestamp() {
         return this.timestamp;
     }
+    /** Returns the time this commit was made, in milliseconds since the epoch. */
+    public long getTime() {
+        try {
+            return FORMAT.parse(this.timestamp).getTime();
+        } catch (ParseException excp) {
+            throw error("Corrupt timestamp in commit %s.", UID);
+        }
+    }
     public String getParent() {
         return this.parent;
     }
@@ -0,0 +1,254 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** A compact, memory-mapped table of the commit history, so that walks over the
+ *  graph don't need to deserialize whole commits just to find their parents.
+ *  After a small header, the file holds one fixed-width record per commit: its id,
+ *  the positions of its parents (-1 if absent), its timestamp, and its generation
+ *  number (1 for the initial commit, otherwise one more than its highest parent).
+ *  Parents always come before their children, so new commits are simply appended.
+ *
+ *  @author Alex Rios
+ */
+public class CommitGraph implements MergeBase.Graph {
+
+    /** File that stores the commit graph. */
+    public static final File GRAPH_FILE = join(Repository.GITLET_DIR, ".commit-graph");
+
+    private static final int MAGIC = 0x474c4347;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int ID_BYTES = 20;
+    /** Id, two parent positions, timestamp and generation number. */
+    private static final int RECORD_BYTES = ID_BYTES + 4 + 4 + 8 + 4;
+
+    /** The graph loaded by this process. */
+    private static CommitGraph graph;
+
+    /** The mapped records. */
+    private MappedByteBuffer records;
+    /** Number of complete records. */
+    private int size;
+    /** Positions of each commit id, built the first time one is looked up. */
+    private HashMap<String, Integer> positions;
+
+    /** Returns the commit graph, building it from every stored commit if this
+     *  repository doesn't have one yet.
+     */
+    public static CommitGraph readCommitGraph() {
+        if (graph == null) {
+            try {
+                if (!GRAPH_FILE.isFile()) {
+                    build();
+                }
+                graph = new CommitGraph();
+                graph.map();
+            } catch (IOException excp) {
+                throw error("Unable to read the commit graph.");
+            }
+        }
+        return graph;
+    }
+
+    /** Drops the graph loaded by this process, so the next read maps it again. */
+    static void forget() {
+        graph = null;
+    }
+
+    /** Writes a graph holding every commit in the object store, unless another
+     *  process wrote one while this one waited for the lock.
+     */
+    @SuppressWarnings("try")
+    private static void build() throws IOException {
+        try (Lock lock = StagingArea.lock()) {
+            if (GRAPH_FILE.isFile()) {
+                return;
+            }
+            ObjectStore.writeAtomically(GRAPH_FILE, (Object) header());
+            CommitGraph partial = new CommitGraph();
+            partial.map();
+            for (String uid : ObjectStore.commitIds()) {
+                partial.add(uid);
+            }
+        }
+    }
+
+    private static byte[] header() {
+        return ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).array();
+    }
+
+    /** Maps GRAPH_FILE, ignoring a partially written trailing record. */
+    private void map() throws IOException {
+        try (FileChannel ch = FileChannel.open(GRAPH_FILE.toPath(), StandardOpenOption.READ)) {
+            records = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (records.capacity() < HEADER_BYTES || records.getInt(0) != MAGIC
+                || records.getInt(4) != VERSION) {
+            throw error("Corrupt commit graph.");
+        }
+        size = (records.capacity() - HEADER_BYTES) / RECORD_BYTES;
+        if (positions != null) {
+            for (int i = positions.size(); i < size; i += 1) {
+                positions.put(id(i), i);
+            }
+        }
+    }
+
+    /** Adds the commit with the given uid and any of its missing ancestors to the
+     *  graph, returning its position.
+     */
+    public int add(String uid) {
+        int existing = position(uid);
+        return existing >= 0 ? existing : add(Commit.readCommit(uid));
+    }
+
+    /** Adds COMMIT and any of its missing ancestors to the graph, returning its
+     *  position. The records are appended holding the staging area lock, which every
+     *  command that commits holds too, so a reader such as log that finds HEAD missing
+     *  can't write over a commit being made. If another process has appended to the
+     *  graph since it was mapped, it's mapped again first, so its records aren't
+     *  overwritten.
+     */
+    @SuppressWarnings("try")
+    public int add(Commit commit) {
+        String uid = commit.getUID();
+        int existing = position(uid);
+        if (existing >= 0) {
+            return existing;
+        }
+        List<Commit> pending = new ArrayList<>();
+        HashMap<String, Integer> pendingPos = new HashMap<>();
+        Deque<Commit> stack = new ArrayDeque<>();
+        stack.push(commit);
+        while (!stack.isEmpty()) {
+            Commit curr = stack.peek();
+            Commit missing = null;
+            for (String parent : new String[] {curr.getParent(), curr.getSecParent()}) {
+                if (parent != null && position(parent) < 0 && !pendingPos.containsKey(parent)) {
+                    missing = Commit.readCommit(parent);
+                    break;
+                }
+            }
+            if (missing != null) {
+                stack.push(missing);
+                continue;
+            }
+            stack.pop();
+            if (!pendingPos.containsKey(curr.getUID())) {
+                pendingPos.put(curr.getUID(), size + pending.size());
+                pending.add(curr);
+            }
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(pending.size() * RECORD_BYTES);
+        int[] generations = new int[pending.size()];
+        for (int i = 0; i < pending.size(); i += 1) {
+            Commit curr = pending.get(i);
+            int parent = lookup(curr.getParent(), pendingPos);
+            int secParent = lookup(curr.getSecParent(), pendingPos);
+            int generation = 1 + Math.max(generationOf(parent, generations),
+                    generationOf(secParent, generations));
+            generations[i] = generation;
+            buf.put(ObjectStore.toBytes(curr.getUID()));
+            buf.putInt(parent).putInt(secParent).putLong(curr.getTime()).putInt(generation);
+        }
+        buf.flip();
+        try (Lock lock = StagingArea.lock();
+             FileChannel ch = FileChannel.open(GRAPH_FILE.toPath(), StandardOpenOption.WRITE)) {
+            if (ch.size() >= HEADER_BYTES + (long) (size + 1) * RECORD_BYTES) {
+                map();
+                return add(commit);
+            }
+            ch.position(HEADER_BYTES + (long) size * RECORD_BYTES);
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            ch.truncate(ch.position());
+            map();
+        } catch (IOException excp) {
+            throw error("Unable to update the commit graph.");
+        }
+        return position(uid);
+    }
+
+    private int lookup(String uid, HashMap<String, Integer> pending) {
+        if (uid == null) {
+            return -1;
+        }
+        Integer pos = pending.get(uid);
+        return pos != null ? pos : position(uid);
+    }
+
+    private int generationOf(int pos, int[] pending) {
+        if (pos < 0) {
+            return 0;
+        }
+        return pos < size ? generation(pos) : pending[pos - size];
+    }
+
+    /** Returns the number of commits in the graph. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the position of the commit with the given uid, or -1 if it isn't in
+     *  the graph.
+     */
+    public int position(String uid) {
+        if (positions == null) {
+            positions = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i += 1) {
+                positions.put(id(i), i);
+            }
+        }
+        Integer pos = positions.get(uid);
+        return pos == null ? -1 : pos;
+    }
+
+    /** Returns the uid of the commit at POS. */
+    @Override
+    public String id(int pos) {
+        return ObjectStore.toHex(records, offset(pos));
+    }
+
+    /** Returns the position of the first parent of the commit at POS, or -1. */
+    @Override
+    public int parent(int pos) {
+        return records.getInt(offset(pos) + ID_BYTES);
+    }
+
+    /** Returns the position of the second parent of the commit at POS, or -1. */
+    @Override
+    public int secParent(int pos) {
+        return records.getInt(offset(pos) + ID_BYTES + 4);
+    }
+
+    /** Returns the time the commit at POS was made, in milliseconds since the epoch. */
+    @Override
+    public long time(int pos) {
+        return records.getLong(offset(pos) + ID_BYTES + 8);
+    }
+
+    /** Returns the generation number of the commit at POS. */
+    @Override
+    public int generation(int pos) {
+        return records.getInt(offset(pos) + ID_BYTES + 16);
+    }
+
+    private int offset(int pos) {
+        return HEADER_BYTES + pos * RECORD_BYTES;
+    }
+}
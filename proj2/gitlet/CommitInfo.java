@@ -1,90 +1,201 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.io.Serializable;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Set;
 
 import static gitlet.Repository.gitletError;
 import static gitlet.Utils.*;
 
+/** The branches of a repository and the branch HEAD points to. They're stored as
+ *  refs (see Refs); this is the view of them the commands use, and each change it
+ *  makes is a transaction that also records why in the reflog.
+ *
+ *  Older repositories kept all of this in the single file COMMIT_INFO: a magic
+ *  number and version, the HEAD branch, then the number of branches followed by each
+ *  name and commit id, sorted by name, or before that a Java serialized object.
+ *  Either form is still read, and is moved into refs the first time it is.
+ *
+ *  @author Alex Rios
+ */
 public class CommitInfo implements Serializable {
 
     @Serial
     private static final long serialVersionUID = -2496762734957454755L;
 
-    /** The sha1 hash of the head commit. */
+    private static final int MAGIC = 0x474c4349;
+    private static final int VERSION = 1;
+    /** First two bytes of a Java serialization stream. */
+    private static final int LEGACY_MAGIC = 0xaced;
+
+    /** The refs last read by this process. Every change made through them is also
+     *  written to disk right away, so the cached copy always matches the files.
+     */
+    static final LruCache<File, CommitInfo> CACHE =
+            new LruCache<>("branch info", 1 << 20, CommitInfo::weight);
+
+    /** The branch HEAD points to, in the older encoding. */
     private String HEAD;
+    /** Branches and their commit ids, in the older encoding. */
     private HashMap<String, String> branchMap = new HashMap<>();
+    /** The refs this reads and changes. */
+    private transient Refs refs;
 
-    /** Creates a new CommitInfo object that stores itself in a file for later use. */
+    /** Creates the refs of a new repository, with the single branch HEAD pointing at
+     *  the commit UID.
+     */
     public CommitInfo(String head, String uid) throws IOException {
-        Repository.COMMIT_INFO.createNewFile();
-        branchMap.put(head, uid);
-        this.HEAD = head;
-        saveCommitInfo();
+        refs = Refs.readRefs();
+        refs.begin().update(head, null, uid, "branch: Created from initial commit")
+                .setHead(head, null, "init").commit();
+        CACHE.put(Refs.REFS_DIR, this);
     }
 
     /** Creates a new branch w/ the given name. */
     public void addBranch(String name) {
-        if (branchMap.containsKey(name)) {
+        if (branchUID(name) != null) {
             gitletError("A branch with that name already exists.");
         }
-        branchMap.put(name, getHeadCommit());
-        saveCommitInfo();
+        commit(refs.begin().update(name, null, getHeadCommit(),
+                "branch: Created from " + getHEAD()));
     }
 
     /** Removes the branch with the given name. */
     public void removeBranch(String name) {
-        if (!branchMap.containsKey(name)) {
+        if (branchUID(name) == null) {
             gitletError("A branch with that name does not exist.");
         }
-        if (name.equals(this.HEAD)) {
+        if (name.equals(getHEAD())) {
             gitletError("Cannot remove the current branch.");
         }
-        branchMap.remove(name);
-        saveCommitInfo();
+        commit(refs.begin().delete(name, branchUID(name)));
     }
 
     /** Returns the head branch. */
     public String getHEAD() {
-        return this.HEAD;
+        return refs.head();
     }
     /** Returns the UID of the head commit. */
     public String getHeadCommit() {
-        return branchUID(this.HEAD);
+        return branchUID(getHEAD());
     }
     /** Changes the head branch to the given branch. */
     public void changeHead(String branch) {
-        this.HEAD = branch;
-        saveCommitInfo();
+        commit(refs.begin().setHead(branch, getHEAD(),
+                "checkout: moving from " + getHEAD() + " to " + branch));
     }
-    /** Updates the commit HEAD is pointing at. */
-    public void updateHead(String uid) {
-        branchMap.put(HEAD, uid);
-        saveCommitInfo();
+    /** Moves the head branch from the commit OLD to the commit UID, recording MESSAGE
+     *  in the reflog. Fails if another process has moved it from OLD since.
+     */
+    public void updateHead(String old, String uid, String message) {
+        commit(refs.begin().update(getHEAD(), old, uid, message));
     }
     /** Returns the uid of the commit for the given branch */
     public String branchUID(String branch) {
-        return branchMap.get(branch);
+        return refs.get(branch);
     }
 
     /** Returns an array of all the branches in lexicographic order. */
     public String[] sortedBranches() {
-        Set<String> branchSet = branchMap.keySet();
-        String[] branchArray = branchSet.toArray(new String[0]);
-        Arrays.sort(branchArray);
-        return branchArray;
+        return refs.names().toArray(new String[0]);
+    }
+
+    /** Returns the reflog of BRANCH, or of HEAD if BRANCH is null, newest first. */
+    public List<String[]> reflog(String branch) {
+        return refs.log(branch);
     }
 
-    /** Writes the CommitInfo object into our file. */
-    public void saveCommitInfo()  {
-        writeObject(Repository.COMMIT_INFO, this);
+    /** Returns every commit id recorded in the reflogs. */
+    public Set<String> reflogIds() {
+        return refs.loggedIds();
     }
+
+    /** Returns the branch information, from the cache if this process has already
+     *  read it, moving it into refs first if it's still stored the older way.
+     */
+    @SuppressWarnings("try")
     public static CommitInfo readCommitInfo() {
-        return readObject(Repository.COMMIT_INFO, CommitInfo.class);
+        CommitInfo cached = CACHE.get(Refs.REFS_DIR);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            if (!Refs.exists() && Repository.COMMIT_INFO.isFile()) {
+                migrate();
+            }
+            CommitInfo info = new CommitInfo();
+            try (Trace.Span span = Trace.span("refs.load")) {
+                info.refs = Refs.readRefs();
+            }
+            CACHE.put(Refs.REFS_DIR, info);
+            return info;
+        } catch (IOException | ClassNotFoundException excp) {
+            throw error("Corrupt branch information.");
+        }
+    }
+
+    /** Drops the branch information read by this process. */
+    static void forget() {
+        CACHE.clear();
+    }
+
+    /** Moves the branch information in COMMIT_INFO into refs, then deletes it. */
+    private static void migrate() throws IOException, ClassNotFoundException {
+        byte[] data = readContents(Repository.COMMIT_INFO);
+        CommitInfo old;
+        if (data.length >= 2 && ((data[0] & 0xff) << 8 | data[1] & 0xff) == LEGACY_MAGIC) {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                old = (CommitInfo) in.readObject();
+            }
+        } else {
+            old = decode(data);
+        }
+        Refs.create(old.HEAD, old.branchMap);
+        Repository.COMMIT_INFO.delete();
+    }
+
+    /** Commits TRANSACTION, reporting a failure as an internal error. */
+    private static void commit(Refs.Transaction transaction) {
+        try {
+            transaction.commit();
+        } catch (IOException excp) {
+            throw error("Unable to update branch information.");
+        }
+    }
+
+    /** Returns a rough estimate of the memory this takes, in bytes. */
+    private long weight() {
+        return refs.weight();
+    }
+
+    /** Private constructor used when decoding. */
+    private CommitInfo() {
+    }
+
+    /** Returns the branch information stored in the older binary encoding. */
+    private static CommitInfo decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+            throw new IOException("Unknown branch information encoding.");
+        }
+        CommitInfo info = new CommitInfo();
+        info.HEAD = in.readUTF();
+        int count = in.readInt();
+        byte[] id = new byte[20];
+        for (int i = 0; i < count; i += 1) {
+            String branch = in.readUTF();
+            in.readFully(id);
+            info.branchMap.put(branch, ObjectStore.toHex(ByteBuffer.wrap(id), 0));
+        }
+        return info;
     }
 
 }
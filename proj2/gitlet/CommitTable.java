@@ -0,0 +1,241 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static gitlet.Utils.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** An append-only table of the timestamp and message of every commit, so commands
+ *  that only print or search those don't need to deserialize whole commits. Record
+ *  i of TABLE_FILE describes the commit at position i of the CommitGraph (which
+ *  already holds its id and parents): the offset of its entry in HEAP_FILE, and the
+ *  lengths of the timestamp and message stored back to back there. Records are
+ *  appended in commit order, so the heap can also be read straight through.
+ *
+ *  @author Alex Rios
+ */
+public class CommitTable {
+
+    /** File that stores the fixed-width records. */
+    public static final File TABLE_FILE = join(Repository.GITLET_DIR, ".commit-table");
+    /** File that stores timestamps and messages. */
+    public static final File HEAP_FILE = join(Repository.GITLET_DIR, ".commit-messages");
+
+    private static final int MAGIC = 0x474c4354;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    /** Heap offset, timestamp length and message length. */
+    private static final int RECORD_BYTES = 8 + 4 + 4;
+
+    /** The table loaded by this process. */
+    private static CommitTable table;
+
+    private final CommitGraph graph;
+    private int size;
+    /** Channels used for random access, opened on first use. */
+    private FileChannel recordsChannel;
+    private FileChannel heapChannel;
+
+    private CommitTable(CommitGraph graph) {
+        this.graph = graph;
+    }
+
+    /** Returns the table, first appending any commits in the commit graph that it
+     *  doesn't cover yet.
+     */
+    public static CommitTable readCommitTable() {
+        update();
+        return table;
+    }
+
+    /** Brings the table up to date with the commit graph, appending records for
+     *  commits saved since it was last written.
+     */
+    public static void update() {
+        if (table == null) {
+            table = new CommitTable(CommitGraph.readCommitGraph());
+        }
+        table.catchUp();
+    }
+
+    /** Appends records for every commit in the graph past the end of the table. A
+     *  partially written trailing record, or heap bytes past the last complete record,
+     *  are discarded first. Records another process has appended for commits past the
+     *  end of this process's graph are left out of SIZE, so positions are never
+     *  handed out that the graph doesn't have.
+     *
+     *  The files are only written holding the staging area lock, which committers
+     *  hold while they append. A read-only command whose table is already as long as
+     *  its graph takes no lock and writes nothing.
+     */
+    @SuppressWarnings("try")
+    private void catchUp() {
+        size = Math.min(complete(TABLE_FILE.length()), graph.size());
+        if (size == graph.size()) {
+            return;
+        }
+        try (Lock lock = StagingArea.lock();
+             FileChannel records = FileChannel.open(TABLE_FILE.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel heap = FileChannel.open(HEAP_FILE.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (records.size() < HEADER_BYTES) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                records.truncate(0);
+                records.write(header, 0);
+            }
+            size = Math.min(complete(records.size()), graph.size());
+            if (size == graph.size()) {
+                return;
+            }
+            long heapEnd = 0;
+            if (size > 0) {
+                ByteBuffer last = read(records, HEADER_BYTES + (long) (size - 1) * RECORD_BYTES,
+                        RECORD_BYTES);
+                heapEnd = last.getLong() + last.getInt() + last.getInt();
+            }
+            heap.truncate(heapEnd);
+            records.truncate(HEADER_BYTES + (long) size * RECORD_BYTES);
+            for (int pos = size; pos < graph.size(); pos += 1) {
+                Commit commit = Commit.readCommit(graph.id(pos));
+                byte[] timestamp = commit.getTimestamp().getBytes(UTF_8);
+                byte[] message = commit.getMessage().getBytes(UTF_8);
+                heap.write(ByteBuffer.wrap(timestamp), heapEnd);
+                heap.write(ByteBuffer.wrap(message), heapEnd + timestamp.length);
+                ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+                record.putLong(heapEnd).putInt(timestamp.length).putInt(message.length).flip();
+                records.write(record, HEADER_BYTES + (long) pos * RECORD_BYTES);
+                heapEnd += timestamp.length + message.length;
+            }
+            size = graph.size();
+        } catch (IOException excp) {
+            throw error("Unable to update the commit table.");
+        }
+    }
+
+    /** Returns the number of complete records in a table file of LENGTH bytes. */
+    private static int complete(long length) {
+        return (int) Math.max(0, (length - HEADER_BYTES) / RECORD_BYTES);
+    }
+
+    /** Closes and drops the table loaded by this process, so the next read opens it
+     *  again.
+     */
+    static void forget() {
+        if (table != null) {
+            try {
+                if (table.recordsChannel != null) {
+                    table.recordsChannel.close();
+                    table.heapChannel.close();
+                }
+            } catch (IOException excp) {
+                // Nothing more to release.
+            }
+            table = null;
+        }
+    }
+
+    /** Returns the number of commits in the table, which is never more than in its
+     *  graph.
+     */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the commit graph the table is aligned with. */
+    public CommitGraph graph() {
+        return graph;
+    }
+
+    /** Returns the message of the commit at position POS. */
+    public String message(int pos) {
+        try {
+            if (recordsChannel == null) {
+                recordsChannel = FileChannel.open(TABLE_FILE.toPath(), StandardOpenOption.READ);
+                heapChannel = FileChannel.open(HEAP_FILE.toPath(), StandardOpenOption.READ);
+            }
+            ByteBuffer record = read(recordsChannel, HEADER_BYTES + (long) pos * RECORD_BYTES,
+                    RECORD_BYTES);
+            long offset = record.getLong();
+            int timestampLength = record.getInt();
+            int messageLength = record.getInt();
+            return new String(read(heapChannel, offset + timestampLength, messageLength).array(),
+                    UTF_8);
+        } catch (IOException excp) {
+            throw error("Unable to read the commit table.");
+        }
+    }
+
+    /** Returns a cursor that reads every entry in commit order. */
+    public Cursor cursor() throws IOException {
+        return new Cursor();
+    }
+
+    private static ByteBuffer read(FileChannel ch, long pos, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("Truncated commit table.");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /** Reads the table and heap sequentially, one commit at a time. */
+    public class Cursor implements AutoCloseable {
+        private final DataInputStream records;
+        private final InputStream heap;
+        private int pos = -1;
+        private String timestamp;
+        private String message;
+
+        private Cursor() throws IOException {
+            records = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(TABLE_FILE), 1 << 16));
+            heap = new BufferedInputStream(new FileInputStream(HEAP_FILE), 1 << 16);
+            records.skipNBytes(HEADER_BYTES);
+        }
+
+        /** Moves to the next commit, returning false if there are none left. */
+        public boolean next() throws IOException {
+            if (pos + 1 >= size) {
+                return false;
+            }
+            pos += 1;
+            records.readLong();
+            int timestampLength = records.readInt();
+            int messageLength = records.readInt();
+            timestamp = new String(heap.readNBytes(timestampLength), UTF_8);
+            message = new String(heap.readNBytes(messageLength), UTF_8);
+            return true;
+        }
+
+        public int position() {
+            return pos;
+        }
+
+        public String timestamp() {
+            return timestamp;
+        }
+
+        public String message() {
+            return message;
+        }
+
+        @Override
+        public void close() throws IOException {
+            records.close();
+            heap.close();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.Arrays;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** A long-running gitlet server for the repository in the CWD, so commands run by
+ *  Client skip JVM startup and find the commit graph, indexes, packs and trees
+ *  already loaded. It listens on a Unix domain socket in .gitlet and runs one
+ *  command at a time through Main, sending back what the command writes to stdout
+ *  and stderr and the status it exits with.
+ *
+ *  Other processes may change the repository between commands. Before each one, the
+ *  daemon compares the stat data of the .gitlet directory, its subdirectories and
+ *  its metadata files against what they were when its last command finished; if
+ *  anything differs, everything it has cached is dropped. Loose objects are never
+ *  rewritten in place, so adding or removing one shows up in its directory's stat.
+ *
+ *  Usage: java gitlet.Daemon, from the repository's working directory. The daemon
+ *  exits when its socket is deleted, when it has been idle for the number of
+ *  seconds in the gitlet.daemon.idle system property (30 minutes by default), or
+ *  when it is killed.
+ *
+ *  @author Alex Rios
+ */
+public class Daemon {
+
+    /** The socket the daemon listens on. */
+    static final File SOCKET = join(Repository.GITLET_DIR, ".daemon");
+
+    /** Frame types sent back to the client. Each frame is a type byte and a length,
+     *  followed by that many bytes of output, or by the exit status for EXIT.
+     */
+    static final byte OUT = 1;
+    static final byte ERR = 2;
+    static final byte EXIT = 3;
+
+    private static final long IDLE_MILLIS = Long.getLong("gitlet.daemon.idle", 30 * 60) * 1000;
+    /** How often the daemon checks whether it should exit, in milliseconds. */
+    private static final long WATCH_MILLIS = 1000;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Held while a command runs. */
+    private static final Object LOCK = new Object();
+    /** When the last command finished. */
+    private static long lastUsed;
+    /** The repository's stat data when the last command finished. */
+    private static String stamp;
+
+    @SuppressWarnings("try")
+    public static void main(String[] args) throws IOException {
+        if (!Repository.GITLET_DIR.isDirectory()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(SOCKET.toPath());
+        if (SOCKET.exists()) {
+            try (SocketChannel existing = SocketChannel.open(address)) {
+                System.out.println("A gitlet daemon is already running.");
+                return;
+            } catch (IOException excp) {
+                Files.delete(SOCKET.toPath());
+            }
+        }
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(address);
+        Runtime.getRuntime().addShutdownHook(new Thread(SOCKET::delete));
+        lastUsed = System.currentTimeMillis();
+        stamp = stamp();
+        Thread watcher = new Thread(Daemon::watch, "gitlet-daemon-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        while (true) {
+            try (SocketChannel client = server.accept()) {
+                synchronized (LOCK) {
+                    serve(client);
+                    lastUsed = System.currentTimeMillis();
+                }
+            } catch (IOException excp) {
+                // The client went away; wait for the next one.
+            }
+        }
+    }
+
+    /** Exits once the socket is gone or the daemon has been idle too long. */
+    private static void watch() {
+        while (true) {
+            try {
+                Thread.sleep(WATCH_MILLIS);
+            } catch (InterruptedException excp) {
+                return;
+            }
+            synchronized (LOCK) {
+                if (!SOCKET.exists()
+                        || System.currentTimeMillis() - lastUsed > IDLE_MILLIS) {
+                    System.exit(0);
+                }
+            }
+        }
+    }
+
+    /** Reads one command from CLIENT, runs it and sends back its output and status. */
+    private static void serve(SocketChannel client) throws IOException {
+        String[] args = readArgs(new DataInputStream(Channels.newInputStream(client)));
+        String current = stamp();
+        if (!current.equals(stamp)) {
+            Repository.forgetCaches();
+        }
+        Charset charset = Charset.defaultCharset();
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                new FrameStream(client, OUT), BUFFER_SIZE), false, charset);
+        PrintStream err = new PrintStream(new BufferedOutputStream(
+                new FrameStream(client, ERR), BUFFER_SIZE), false, charset);
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(out);
+        System.setErr(err);
+        int status = 0;
+        try {
+            Main.main(args);
+        } catch (Throwable excp) {
+            err.print("Exception in thread \"main\" ");
+            excp.printStackTrace(err);
+            Repository.forgetCaches();
+            status = 1;
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+            out.flush();
+            err.flush();
+        }
+        stamp = stamp();
+        if (out.checkError() || err.checkError()) {
+            throw new IOException("Unable to send output.");
+        }
+        writeFully(client, ByteBuffer.allocate(5).put(EXIT).putInt(status).flip());
+    }
+
+    /** Reads a command sent by Client: the number of arguments, then each one as a
+     *  length and that many bytes of UTF-8.
+     */
+    private static String[] readArgs(DataInputStream in) throws IOException {
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            byte[] arg = new byte[in.readInt()];
+            in.readFully(arg);
+            args[i] = new String(arg, UTF_8);
+        }
+        return args;
+    }
+
+    /** Returns the stat data of the .gitlet directory, each of its subdirectories
+     *  other than the staging area, and each of its metadata files (those named with a
+     *  leading dot), which together change whenever the repository does.
+     */
+    static String stamp() {
+        StringBuilder result = new StringBuilder(stat(Repository.GITLET_DIR));
+        File[] entries = Repository.GITLET_DIR.listFiles();
+        if (entries == null) {
+            return "";
+        }
+        Arrays.sort(entries);
+        for (File entry : entries) {
+            if (entry.getName().startsWith(".") && !entry.equals(SOCKET)
+                    && !entry.equals(StagingArea.STAGE)) {
+                result.append(entry.getName()).append(stat(entry));
+            }
+        }
+        return result.toString();
+    }
+
+    private static String stat(File file) {
+        try {
+            Map<String, Object> attrs = Files.readAttributes(file.toPath(),
+                    "unix:size,lastModifiedTime,ctime,ino", LinkOption.NOFOLLOW_LINKS);
+            return " " + attrs.get("size") + " " + attrs.get("lastModifiedTime") + " "
+                    + attrs.get("ctime") + " " + attrs.get("ino") + "\n";
+        } catch (IOException excp) {
+            return " missing\n";
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    /** Sends everything written to it to the client as frames of one type. */
+    private static class FrameStream extends OutputStream {
+        private final SocketChannel channel;
+        private final byte type;
+
+        FrameStream(SocketChannel channel, byte type) {
+            this.channel = channel;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (channel) {
+                writeFully(channel, ByteBuffer.allocate(5).put(type).putInt(len).flip());
+                writeFully(channel, ByteBuffer.wrap(b, off, len));
+            }
+        }
+    }
+}
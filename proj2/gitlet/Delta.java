@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+import static gitlet.Utils.*;
+
+/** Binary deltas between two versions of a file, in the style of git's pack deltas.
+ *  A delta starts with the base and target sizes, followed by a sequence of
+ *  instructions that either copy a run of bytes out of the base or insert new
+ *  bytes literally. A copy instruction is the value 128 followed by the base offset
+ *  and run length; an insert instruction is its length (1-127) followed by that
+ *  many bytes. All integers are unsigned varints.
+ *
+ *  @author Alex Rios
+ */
+public class Delta {
+
+    /** Size of the base blocks indexed when searching for matches. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+    /** Longest literal run a single insert instruction can hold. */
+    private static final int MAX_INSERT = 127;
+    private static final int COPY = 0x80;
+
+    /** Returns a delta that turns BASE into TARGET. */
+    public static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        HashMap<Integer, Integer> blocks = indexBlocks(base);
+        int power = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            power *= PRIME;
+        }
+
+        int insertStart = 0;
+        int i = 0;
+        int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            Integer match = blocks.get(hash);
+            if (match != null && equalRange(base, match, target, i, BLOCK)) {
+                int start = match;
+                int length = BLOCK;
+                while (start + length < base.length && i + length < target.length
+                        && base[start + length] == target[i + length]) {
+                    length += 1;
+                }
+                int back = 0;
+                while (start - back > 0 && i - back > insertStart
+                        && base[start - back - 1] == target[i - back - 1]) {
+                    back += 1;
+                }
+                writeInsert(out, target, insertStart, i - back);
+                writeVarint(out, COPY);
+                writeVarint(out, start - back);
+                writeVarint(out, length + back);
+                i += length;
+                insertStart = i;
+                if (i + BLOCK <= target.length) {
+                    hash = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    hash = (hash - target[i] * power) * PRIME + target[i + BLOCK];
+                }
+                i += 1;
+            }
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseSize = readVarint(delta, pos);
+        int targetSize = readVarint(delta, pos);
+        if (baseSize != base.length) {
+            throw error("Delta does not match its base.");
+        }
+        byte[] result = new byte[targetSize];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int cmd = readVarint(delta, pos);
+            if (cmd == COPY) {
+                int offset = readVarint(delta, pos);
+                int length = readVarint(delta, pos);
+                System.arraycopy(base, offset, result, written, length);
+                written += length;
+            } else {
+                System.arraycopy(delta, pos[0], result, written, cmd);
+                pos[0] += cmd;
+                written += cmd;
+            }
+        }
+        if (written != targetSize) {
+            throw error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Maps the hash of every aligned block of BASE to the first offset it occurs at. */
+    private static HashMap<Integer, Integer> indexBlocks(byte[] base) {
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        return blocks;
+    }
+
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+
+    private static boolean equalRange(byte[] a, int aStart, byte[] b, int bStart, int length) {
+        for (int i = 0; i < length; i += 1) {
+            if (a[aStart + i] != b[bStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes the bytes of DATA in [START, END) as insert instructions. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int start, int end) {
+        while (start < end) {
+            int length = Math.min(MAX_INSERT, end - start);
+            writeVarint(out, length);
+            out.write(data, start, length);
+            start += length;
+        }
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Reads a varint from DATA at POS[0], advancing POS[0] past it. */
+    static int readVarint(byte[] data, int[] pos) {
+        int result = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Line-level differences between two sequences. Common prefixes and suffixes are
+ *  stripped first. Large regions are then split, as in patience diff, at lines that
+ *  appear exactly once on each side: the longest run of those that are in the same
+ *  order on both sides is matched, and the gaps between them are compared on their
+ *  own. What's left is compared with Myers' O(ND) algorithm in its linear-space
+ *  form: the middle snake of the shortest edit script is found by searching forward
+ *  from the start and backward from the end at once, and the two halves on either
+ *  side of it are compared recursively. Lines are compared by id, so each distinct
+ *  line is only compared as bytes once, when it's given an id.
+ *
+ *  Regions whose edit distance exceeds a limit that grows with their size are
+ *  treated as having nothing in common rather than searched exhaustively, so pairs
+ *  of large, completely different files can't take quadratic time. That only
+ *  makes a three-way merge more cautious: lines that aren't matched are reported as
+ *  changed.
+ *
+ *  @author Alex Rios
+ */
+public class Diff {
+
+    /** Edit distance searched in every region, however small. */
+    private static final int MIN_COST_LIMIT = 256;
+    /** Regions with at least this many lines in all are split at unique lines. */
+    private static final int ANCHOR_SIZE = 256;
+
+    private final int[] a;
+    private final int[] b;
+    /** For each line of A, the line of B it's matched with, or -1. */
+    private final int[] matches;
+    /** Scratch space for anchor, indexed by line id: the number of times each id
+     *  appears on either side of the region, and where it last appeared in A. Every
+     *  entry is zero between calls.
+     */
+    private final int[] countA;
+    private final int[] countB;
+    private final int[] lastA;
+
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        this.matches = new int[a.length];
+        Arrays.fill(matches, -1);
+        int ids = 0;
+        for (int id : a) {
+            ids = Math.max(ids, id + 1);
+        }
+        for (int id : b) {
+            ids = Math.max(ids, id + 1);
+        }
+        countA = new int[ids];
+        countB = new int[ids];
+        lastA = new int[ids];
+    }
+
+    /** Returns, for each line id in A, the index of the line of B it's paired with
+     *  in an edit script from A to B, or -1 if it's deleted. Paired indices increase
+     *  along A. Ids must be non-negative, and should be numbered densely from zero.
+     */
+    public static int[] match(int[] a, int[] b) {
+        Diff diff = new Diff(a, b);
+        diff.compare(0, a.length, 0, b.length);
+        return diff.matches;
+    }
+
+    /** Matches the lines of A[ALO, AHI) with those of B[BLO, BHI). */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            matches[aLo] = bLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+            matches[aHi] = bHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        if (aHi - aLo + bHi - bLo >= ANCHOR_SIZE && anchor(aLo, aHi, bLo, bHi)) {
+            return;
+        }
+        int[] split = middleSnake(aLo, aHi, bLo, bHi);
+        if (split != null) {
+            compare(aLo, split[0], bLo, split[1]);
+            compare(split[0], aHi, split[1], bHi);
+        }
+    }
+
+    /** Matches the lines that appear exactly once in each of A[ALO, AHI) and
+     *  B[BLO, BHI) and are in the longest run that has the same order on both sides,
+     *  then compares the gaps between them. Returns false, having matched nothing, if
+     *  there are no such lines.
+     */
+    private boolean anchor(int aLo, int aHi, int bLo, int bHi) {
+        for (int i = aLo; i < aHi; i += 1) {
+            countA[a[i]] += 1;
+            lastA[a[i]] = i;
+        }
+        for (int j = bLo; j < bHi; j += 1) {
+            countB[b[j]] += 1;
+        }
+        int[] unique = new int[aHi - aLo];
+        Arrays.fill(unique, -1);
+        int pairs = 0;
+        for (int j = bLo; j < bHi; j += 1) {
+            if (countA[b[j]] == 1 && countB[b[j]] == 1) {
+                unique[lastA[b[j]] - aLo] = j;
+                pairs += 1;
+            }
+        }
+        for (int i = aLo; i < aHi; i += 1) {
+            countA[a[i]] = 0;
+        }
+        for (int j = bLo; j < bHi; j += 1) {
+            countB[b[j]] = 0;
+        }
+        if (pairs == 0) {
+            return false;
+        }
+        int[] anchors = longestIncreasing(unique, aLo);
+        int prevA = aLo;
+        int prevB = bLo;
+        for (int x : anchors) {
+            int y = unique[x - aLo];
+            compare(prevA, x, prevB, y);
+            matches[x] = y;
+            prevA = x + 1;
+            prevB = y + 1;
+        }
+        compare(prevA, aHi, prevB, bHi);
+        return true;
+    }
+
+    /** Returns the indices (plus BASE) of a longest strictly increasing subsequence
+     *  of the values in VALUES that aren't -1, in order, by patience sorting.
+     */
+    private static int[] longestIncreasing(int[] values, int base) {
+        int[] tails = new int[values.length];
+        int[] previous = new int[values.length];
+        int piles = 0;
+        for (int i = 0; i < values.length; i += 1) {
+            if (values[i] < 0) {
+                continue;
+            }
+            int lo = 0;
+            int hi = piles;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == piles) {
+                piles += 1;
+            }
+        }
+        int[] result = new int[piles];
+        int i = piles > 0 ? tails[piles - 1] : -1;
+        for (int k = piles - 1; k >= 0; k -= 1) {
+            result[k] = i + base;
+            i = previous[i];
+        }
+        return result;
+    }
+
+    /** Returns a point {x, y} on a shortest edit path from (ALO, BLO) to (AHI, BHI)
+     *  that splits it roughly in half, or null if every path is longer than the cost
+     *  limit for a region this size.
+     */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int limit = Math.min(maxD, Math.max(MIN_COST_LIMIT, (int) Math.sqrt(n + m) * 4));
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int kStart1 = 0;
+        int kEnd1 = 0;
+        int kStart2 = 0;
+        int kEnd2 = 0;
+        for (int d = 0; d < limit; d += 1) {
+            for (int k = -d + kStart1; k <= d - kEnd1; k += 2) {
+                int i = offset + k;
+                int x = k == -d || (k != d && forward[i - 1] < forward[i + 1])
+                        ? forward[i + 1] : forward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[i] = x;
+                if (x > n) {
+                    kEnd1 += 2;
+                } else if (y > m) {
+                    kStart1 += 2;
+                } else if (odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j < length && backward[j] != -1 && x >= n - backward[j]) {
+                        return new int[] {aLo + x, bLo + y};
+                    }
+                }
+            }
+            for (int k = -d + kStart2; k <= d - kEnd2; k += 2) {
+                int i = offset + k;
+                int x = k == -d || (k != d && backward[i - 1] < backward[i + 1])
+                        ? backward[i + 1] : backward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aHi - x - 1] == b[bHi - y - 1]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[i] = x;
+                if (x > n) {
+                    kEnd2 += 2;
+                } else if (y > m) {
+                    kStart2 += 2;
+                } else if (!odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j < length && forward[j] != -1) {
+                        int fx = forward[j];
+                        int fy = fx - (j - offset);
+                        if (fx >= n - x) {
+                            return new int[] {aLo + fx, bLo + fy};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns true if DATA looks like a binary file, which isn't compared by line. */
+    public static boolean isBinary(byte[] data) {
+        int end = Math.min(data.length, 8000);
+        for (int i = 0; i < end; i += 1) {
+            if (data[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The lines of a file, each with an id shared by every equal line in the files
+     *  that are split with the same map of ids.
+     */
+    static class Lines {
+        private final byte[] data;
+        /** Start of each line, followed by the end of the last. */
+        private final int[] starts;
+        /** The id of each line. */
+        final int[] ids;
+
+        Lines(byte[] data, HashMap<Line, Integer> idMap) {
+            this.data = data;
+            int count = 0;
+            for (byte c : data) {
+                if (c == '\n') {
+                    count += 1;
+                }
+            }
+            if (data.length > 0 && data[data.length - 1] != '\n') {
+                count += 1;
+            }
+            starts = new int[count + 1];
+            ids = new int[count];
+            int line = 0;
+            int start = 0;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n' || i == data.length - 1) {
+                    starts[line] = start;
+                    Line key = new Line(data, start, i + 1);
+                    Integer id = idMap.get(key);
+                    if (id == null) {
+                        id = idMap.size();
+                        idMap.put(key, id);
+                    }
+                    ids[line] = id;
+                    line += 1;
+                    start = i + 1;
+                }
+            }
+            starts[count] = data.length;
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /** Returns true if line I ends with a newline; only the last may not. */
+        boolean hasNewline(int i) {
+            return data[starts[i + 1] - 1] == '\n';
+        }
+
+        /** Writes lines [LO, HI) to OUT. */
+        void write(int lo, int hi, OutputStream out) throws IOException {
+            if (lo < hi) {
+                out.write(data, starts[lo], starts[hi] - starts[lo]);
+            }
+        }
+    }
+
+    /** One line's bytes, compared by content. */
+    static class Line {
+        private final byte[] data;
+        private final int start;
+        private final int end;
+        private final int hash;
+
+        Line(byte[] data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            int h = 1;
+            for (int i = start; i < end; i += 1) {
+                h = 31 * h + data[i];
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Line)) {
+                return false;
+            }
+            Line other = (Line) obj;
+            return hash == other.hash
+                    && Arrays.equals(data, start, end, other.data, other.start, other.end);
+        }
+    }
+}
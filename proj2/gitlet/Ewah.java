@@ -0,0 +1,326 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+/** An immutable compressed bitmap in the EWAH format (Lemire et al., "Sorting
+ *  improves word-aligned bitmap indexes"). The bits are taken 64 at a time; a run of
+ *  words that are all zeros or all ones is stored as a count, and every other word
+ *  is stored as is. The stored words form groups, each a marker word followed by
+ *  literal words: the marker holds the bit a run of words is filled with (bit 0),
+ *  the number of words in that run (bits 1-32), and the number of literal words
+ *  that follow it (bits 33-63).
+ *
+ *  or() and and() walk the groups of both bitmaps at once, skipping over a whole
+ *  run in one step, so they take time proportional to the compressed sizes rather
+ *  than to the number of bits.
+ *
+ *  @author Alex Rios
+ */
+public class Ewah {
+
+    private static final long MAX_RUN = (1L << 32) - 1;
+    private static final long MAX_LITERALS = (1L << 31) - 1;
+    private static final int RUN_SHIFT = 1;
+    private static final int LITERALS_SHIFT = 33;
+
+    /** The groups, in WORDS[0 .. LENGTH). */
+    private final long[] words;
+    private final int length;
+
+    private Ewah(long[] words, int length) {
+        this.words = words;
+        this.length = length;
+    }
+
+    /** Returns a bitmap with the same bits set as BITS. */
+    public static Ewah of(BitSet bits) {
+        Builder builder = new Builder();
+        for (long word : bits.toLongArray()) {
+            builder.add(word);
+        }
+        return builder.build();
+    }
+
+    /** Returns the bitmap stored at the current position of BUF by write, leaving BUF
+     *  positioned after it.
+     */
+    public static Ewah read(ByteBuffer buf) {
+        int length = buf.getInt();
+        long[] words = new long[length];
+        buf.asLongBuffer().get(words);
+        buf.position(buf.position() + length * 8);
+        return new Ewah(words, length);
+    }
+
+    /** Writes this bitmap to OUT. */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(length);
+        for (int i = 0; i < length; i += 1) {
+            out.writeLong(words[i]);
+        }
+    }
+
+    /** Returns the number of bytes write produces. */
+    public int byteSize() {
+        return 4 + length * 8;
+    }
+
+    /** Returns true if bit I is set. */
+    public boolean get(int i) {
+        long word = i >>> 6;
+        long pos = 0;
+        int at = 0;
+        while (at < length) {
+            long marker = words[at];
+            long run = runLength(marker);
+            if (word < pos + run) {
+                return runBit(marker);
+            }
+            pos += run;
+            long literals = literals(marker);
+            if (word < pos + literals) {
+                return (words[at + 1 + (int) (word - pos)] >>> (i & 63) & 1) != 0;
+            }
+            pos += literals;
+            at += 1 + (int) literals;
+        }
+        return false;
+    }
+
+    /** Returns a bitmap of the bits set in this or in OTHER. */
+    public Ewah or(Ewah other) {
+        return combine(this, other, true);
+    }
+
+    /** Returns a bitmap of the bits set in both this and OTHER. */
+    public Ewah and(Ewah other) {
+        return combine(this, other, false);
+    }
+
+    /** Returns the number of bits set. */
+    public int cardinality() {
+        int[] count = new int[1];
+        forEachWord((index, word) -> count[0] += Long.bitCount(word),
+            (index, run) -> count[0] += (int) (run * 64));
+        return count[0];
+    }
+
+    /** Calls ACTION with the index of every bit set, in increasing order. */
+    public void forEach(IntConsumer action) {
+        forEachWord((index, word) -> {
+            while (word != 0) {
+                action.accept((int) (index * 64 + Long.numberOfTrailingZeros(word)));
+                word &= word - 1;
+            }
+        }, (index, run) -> {
+            for (long i = index * 64; i < (index + run) * 64; i += 1) {
+                action.accept((int) i);
+            }
+        });
+    }
+
+    /** Returns the bits of this bitmap, uncompressed. */
+    public BitSet toBitSet() {
+        long total = 0;
+        for (int at = 0; at < length; at += 1 + (int) literals(words[at])) {
+            total += runLength(words[at]) + literals(words[at]);
+        }
+        long[] plain = new long[(int) total];
+        forEachWord((index, word) -> plain[(int) index] = word,
+            (index, run) -> Arrays.fill(plain, (int) index, (int) (index + run), -1L));
+        return BitSet.valueOf(plain);
+    }
+
+    /** Calls LITERAL with the index and value of every word that isn't part of a run,
+     *  and ONES with the index and length of every run of words of ones.
+     */
+    private void forEachWord(WordAction literal, WordAction ones) {
+        long pos = 0;
+        int at = 0;
+        while (at < length) {
+            long marker = words[at];
+            long run = runLength(marker);
+            if (runBit(marker) && run > 0) {
+                ones.accept(pos, run);
+            }
+            pos += run;
+            long literals = literals(marker);
+            for (int i = 0; i < literals; i += 1) {
+                literal.accept(pos + i, words[at + 1 + i]);
+            }
+            pos += literals;
+            at += 1 + (int) literals;
+        }
+    }
+
+    /** Returns the bitwise OR of A and B if OR, otherwise their AND. */
+    private static Ewah combine(Ewah a, Ewah b, boolean or) {
+        Builder out = new Builder();
+        Cursor x = a.new Cursor();
+        Cursor y = b.new Cursor();
+        while (!x.done() && !y.done()) {
+            if (x.run > 0 && y.run > 0) {
+                long n = Math.min(x.run, y.run);
+                out.addRun(or ? x.bit | y.bit : x.bit & y.bit, n);
+                x.run -= n;
+                y.run -= n;
+            } else if (x.run > 0 || y.run > 0) {
+                Cursor run = x.run > 0 ? x : y;
+                Cursor literals = x.run > 0 ? y : x;
+                long n = Math.min(run.run, literals.literals);
+                if (run.bit == or) {
+                    out.addRun(run.bit, n);
+                    literals.skip(n);
+                } else {
+                    for (long i = 0; i < n; i += 1) {
+                        out.add(literals.next());
+                    }
+                }
+                run.run -= n;
+            } else {
+                long xw = x.next();
+                long yw = y.next();
+                out.add(or ? xw | yw : xw & yw);
+            }
+        }
+        if (or) {
+            Cursor rest = x.done() ? y : x;
+            while (!rest.done()) {
+                if (rest.run > 0) {
+                    out.addRun(rest.bit, rest.run);
+                    rest.run = 0;
+                } else {
+                    out.add(rest.next());
+                }
+            }
+        }
+        return out.build();
+    }
+
+    private static boolean runBit(long marker) {
+        return (marker & 1) != 0;
+    }
+
+    private static long runLength(long marker) {
+        return marker >>> RUN_SHIFT & MAX_RUN;
+    }
+
+    private static long literals(long marker) {
+        return marker >>> LITERALS_SHIFT;
+    }
+
+    private static long marker(boolean bit, long run, long literals) {
+        return (bit ? 1 : 0) | run << RUN_SHIFT | literals << LITERALS_SHIFT;
+    }
+
+    /** Something done with a word, or a run of words, at an index. */
+    private interface WordAction {
+        void accept(long index, long value);
+    }
+
+    /** A position within the groups of a bitmap: the words left in the current run,
+     *  then the literal words left after it.
+     */
+    private class Cursor {
+        /** Index of the next group's marker. */
+        private int next;
+        /** Index of the next literal word. */
+        private int literal;
+        private boolean bit;
+        private long run;
+        private long literals;
+
+        /** Returns true if every word has been consumed, moving on to the next
+         *  nonempty group first.
+         */
+        boolean done() {
+            while (run == 0 && literals == 0) {
+                if (next >= length) {
+                    return true;
+                }
+                long marker = words[next];
+                bit = runBit(marker);
+                run = runLength(marker);
+                literals = literals(marker);
+                literal = next + 1;
+                next = literal + (int) literals;
+            }
+            return false;
+        }
+
+        /** Consumes and returns the next literal word. */
+        long next() {
+            literals -= 1;
+            return words[literal++];
+        }
+
+        /** Consumes the next N literal words. */
+        void skip(long n) {
+            literals -= n;
+            literal += (int) n;
+        }
+    }
+
+    /** Builds a bitmap a word at a time. */
+    static class Builder {
+        private long[] buf = new long[4];
+        private int length;
+        /** Index of the current group's marker, or -1. */
+        private int marker = -1;
+
+        /** Appends the 64 bits of WORD. */
+        void add(long word) {
+            if (word == 0 || word == -1L) {
+                addRun(word != 0, 1);
+                return;
+            }
+            if (marker < 0 || literals(buf[marker]) == MAX_LITERALS) {
+                startGroup(false, 0);
+            }
+            buf[marker] += 1L << LITERALS_SHIFT;
+            push(word);
+        }
+
+        /** Appends COUNT words whose bits are all BIT. */
+        void addRun(boolean bit, long count) {
+            if (count == 0) {
+                return;
+            }
+            if (marker >= 0 && literals(buf[marker]) == 0) {
+                long run = runLength(buf[marker]);
+                if (run == 0 || runBit(buf[marker]) == bit) {
+                    long n = Math.min(MAX_RUN - run, count);
+                    buf[marker] = marker(bit, run + n, 0);
+                    count -= n;
+                }
+            }
+            while (count > 0) {
+                long n = Math.min(MAX_RUN, count);
+                startGroup(bit, n);
+                count -= n;
+            }
+        }
+
+        Ewah build() {
+            return new Ewah(buf, length);
+        }
+
+        private void startGroup(boolean bit, long run) {
+            marker = length;
+            push(marker(bit, run, 0));
+        }
+
+        private void push(long word) {
+            if (length == buf.length) {
+                buf = Arrays.copyOf(buf, length * 2);
+            }
+            buf[length] = word;
+            length += 1;
+        }
+    }
+}
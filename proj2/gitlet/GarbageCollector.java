@@ -0,0 +1,378 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serial;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Deletes the objects nothing refers to any more: commits left behind by reset and
+ *  rm-branch, and the trees and blobs only they used, or blobs staged and then
+ *  replaced before they were committed.
+ *
+ *  Objects are marked reachable starting from every branch, the staging area and,
+ *  if asked, every commit in the reflogs. Everything reachable from a root with a
+ *  reachability bitmap (see Bitmaps) is marked at once from the OR of the bitmaps.
+ *  The other commits are found by walking the CommitGraph, and then their trees are
+ *  walked by a ForkJoinPool, one task per commit and subtree, with each object
+ *  claimed by whichever task reaches it first.
+ *  Everything is then repacked (see ObjectStore.repack) without the unmarked
+ *  objects, commits first and then trees and blobs, newest commit first, so the
+ *  objects a checkout of a recent commit reads lie together. The bitmaps are then
+ *  rebuilt for the commits that remain.
+ *
+ *  Unmarked objects stored less than the grace period ago are kept, along with
+ *  everything they refer to, as are temporary files that young: they may belong to
+ *  a command that's still running. The staging area stays locked throughout, so no
+ *  other process adds or commits while this runs.
+ *
+ *  @author Alex Rios
+ */
+public class GarbageCollector {
+
+    /** Default grace period, in seconds. */
+    public static final long DEFAULT_GRACE = 14 * 24 * 60 * 60;
+
+    /** True if commits in the reflogs are kept. */
+    private final boolean keepReflog;
+    /** Unmarked objects and temporary files modified before this are deleted. */
+    private final long cutoff;
+    /** Every marked object, mapped to its position in the pack layout. */
+    private final ConcurrentHashMap<String, Integer> marked = new ConcurrentHashMap<>();
+    /** Marked commits, newest first. */
+    private final List<String> commits = new ArrayList<>();
+
+    /** Prepares to collect garbage, keeping the commits in the reflogs too if
+     *  KEEPREFLOG, and every object stored within the last GRACE seconds.
+     */
+    public GarbageCollector(boolean keepReflog, long grace) {
+        this.keepReflog = keepReflog;
+        this.cutoff = System.currentTimeMillis() - grace * 1000;
+    }
+
+    /** Runs every phase, printing what each did and how long it took, and then how
+     *  many bytes were reclaimed, if any, and the size of .gitlet before and after.
+     */
+    @SuppressWarnings("try")
+    public void run() throws IOException {
+        try (Lock lock = StagingArea.lock()) {
+            long[] before = usage(Repository.GITLET_DIR);
+
+            long start = System.nanoTime();
+            mark();
+            report(start, "mark: %d objects kept, %d of them commits", marked.size(),
+                    commits.size());
+
+            start = System.nanoTime();
+            int commitsBefore = ObjectStore.commitIds().size();
+            List<String> dropped = ObjectStore.repack(marked.keySet(), cutoff, layout());
+            int commitsDropped = commitsBefore - ObjectStore.commitIds().size();
+            report(start, "repack: %d objects pruned, including %d commits",
+                    dropped.size(), commitsDropped);
+
+            start = System.nanoTime();
+            int removed = removeTemporaryFiles(Repository.GITLET_DIR);
+            report(start, "clean: %d temporary files deleted", removed);
+
+            start = System.nanoTime();
+            int branches = Refs.readRefs().pack();
+            report(start, "refs: %d branches packed", branches);
+
+            Repository.forgetCaches();
+            if (commitsDropped > 0) {
+                start = System.nanoTime();
+                rebuildIndexes();
+                report(start, "indexes: rebuilt for %d commits",
+                        CommitGraph.readCommitGraph().size());
+            }
+
+            start = System.nanoTime();
+            Bitmaps bitmaps = Bitmaps.rebuild();
+            report(start, "bitmaps: %d commits over %d objects", bitmaps.commits(),
+                    bitmaps.size());
+
+            long[] after = usage(Repository.GITLET_DIR);
+            System.out.printf("Reclaimed %d bytes; .gitlet went from %d bytes in %d files to"
+                    + " %d bytes in %d files.%n", Math.max(0, before[0] - after[0]),
+                    before[0], before[1], after[0], after[1]);
+        }
+    }
+
+    /** Marks every object reachable from the branches, the staging area, the
+     *  reflogs if they're kept, and the commits and trees stored within the grace
+     *  period.
+     */
+    private void mark() throws IOException {
+        CommitInfo info = CommitInfo.readCommitInfo();
+        Set<String> roots = new HashSet<>();
+        for (String branch : info.sortedBranches()) {
+            roots.add(info.branchUID(branch));
+        }
+        if (keepReflog) {
+            for (String uid : info.reflogIds()) {
+                if (ObjectStore.read(uid, ObjectStore.COMMIT) != null) {
+                    roots.add(uid);
+                }
+            }
+        }
+        roots.addAll(ObjectStore.recentIds(ObjectStore.COMMIT, cutoff));
+        Set<String> covered = markCovered(roots);
+        Set<String> walked = walkCommits(roots);
+        rankCommits(covered, walked);
+
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (int i = 0; i < commits.size(); i += 1) {
+                if (walked.contains(commits.get(i))) {
+                    tasks.add(new MarkCommit(commits.get(i), commits.size() + i));
+                }
+            }
+            int last = 2 * commits.size();
+            for (String tree : ObjectStore.recentIds(ObjectStore.TREE, cutoff)) {
+                tasks.add(new MarkTree(tree, last));
+            }
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdownNow();
+        }
+        for (String blob : StagingArea.readStagingArea().added().values()) {
+            marked.putIfAbsent(blob, commits.size());
+        }
+    }
+
+    /** Marks every object reachable from the ROOTS and their nearest ancestors that
+     *  have a reachability bitmap, the OR of their bitmaps, and removes those ROOTS.
+     *  The commits in between are left for walkCommits, which stops at the marked ones.
+     *  Trees and blobs are ranked after those of walked commits, newest first. Returns
+     *  the commits marked.
+     */
+    private Set<String> markCovered(Set<String> roots) {
+        Bitmaps bitmaps = Bitmaps.readBitmaps();
+        CommitGraph graph = CommitGraph.readCommitGraph();
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (String root : roots) {
+            stack.push(graph.add(root));
+        }
+        boolean[] seen = new boolean[graph.size()];
+        Ewah reachable = null;
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (pos < 0 || seen[pos]) {
+                continue;
+            }
+            seen[pos] = true;
+            String uid = graph.id(pos);
+            Ewah bits = bitmaps.reachable(uid);
+            if (bits != null) {
+                reachable = reachable == null ? bits : reachable.or(bits);
+                roots.remove(uid);
+            } else {
+                stack.push(graph.parent(pos));
+                stack.push(graph.secParent(pos));
+            }
+        }
+        Set<String> covered = new HashSet<>();
+        if (reachable != null) {
+            reachable.forEach(pos -> {
+                String id = bitmaps.id(pos);
+                if (bitmaps.type(pos) == ObjectStore.COMMIT) {
+                    covered.add(id);
+                }
+                marked.put(id, Integer.MAX_VALUE - 1 - pos);
+            });
+        }
+        return covered;
+    }
+
+    /** Returns ROOTS and all their ancestors that aren't marked already. */
+    private Set<String> walkCommits(Set<String> roots) {
+        CommitGraph graph = CommitGraph.readCommitGraph();
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (String root : roots) {
+            stack.push(graph.add(root));
+        }
+        boolean[] seen = new boolean[graph.size()];
+        Set<String> reached = new HashSet<>();
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (pos < 0 || seen[pos]) {
+                continue;
+            }
+            seen[pos] = true;
+            String uid = graph.id(pos);
+            if (marked.containsKey(uid)) {
+                continue;
+            }
+            reached.add(uid);
+            stack.push(graph.parent(pos));
+            stack.push(graph.secParent(pos));
+        }
+        return reached;
+    }
+
+    /** Records the COVERED and WALKED commits in COMMITS newest first, and marks each
+     *  with its position there.
+     */
+    private void rankCommits(Set<String> covered, Set<String> walked) {
+        CommitGraph graph = CommitGraph.readCommitGraph();
+        List<Integer> positions = new ArrayList<>();
+        for (String uid : covered) {
+            positions.add(graph.add(uid));
+        }
+        for (String uid : walked) {
+            positions.add(graph.add(uid));
+        }
+        positions.sort(Comparator.<Integer>comparingLong(graph::time).reversed()
+                .thenComparing(graph::id));
+        for (int pos : positions) {
+            String uid = graph.id(pos);
+            marked.put(uid, commits.size());
+            commits.add(uid);
+        }
+    }
+
+    /** Returns the order objects are written to the pack in: by the position they
+     *  were marked with, then by id, with unmarked objects last.
+     */
+    private Comparator<String> layout() {
+        return Comparator.<String>comparingInt(id -> marked.getOrDefault(id, Integer.MAX_VALUE))
+                .thenComparing(Comparator.naturalOrder());
+    }
+
+    /** Deletes the index files built from the set of stored commits, then builds
+     *  them again, so they don't list commits that have been pruned.
+     */
+    private static void rebuildIndexes() {
+        CommitGraph.GRAPH_FILE.delete();
+        CommitTable.TABLE_FILE.delete();
+        CommitTable.HEAP_FILE.delete();
+        MessageIndex.INDEX_FILE.delete();
+        UidIndex.INDEX_FILE.delete();
+        UidIndex.JOURNAL_FILE.delete();
+        UidIndex.readUidIndex();
+        MessageIndex.readMessageIndex(CommitTable.readCommitTable());
+    }
+
+    /** Deletes the temporary files under DIR, left by commands that were interrupted,
+     *  that were last modified before the cutoff, returning how many there were.
+     */
+    private int removeTemporaryFiles(File dir) {
+        int count = 0;
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return 0;
+        }
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                count += removeTemporaryFiles(entry);
+            } else if ((entry.getName().endsWith(".tmp") || entry.getName().endsWith(".stale"))
+                    && entry.lastModified() < cutoff && entry.delete()) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Returns the total size, in bytes, and the number of the files under DIR. */
+    private static long[] usage(File dir) {
+        long[] total = new long[2];
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return total;
+        }
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                long[] sub = usage(entry);
+                total[0] += sub[0];
+                total[1] += sub[1];
+            } else {
+                total[0] += entry.length();
+                total[1] += 1;
+            }
+        }
+        return total;
+    }
+
+    /** Prints MSG, formatted with ARGS, followed by the milliseconds since START, and
+     *  traces that time as a span named for the phase MSG begins with.
+     */
+    private static void report(long start, String msg, Object... args) {
+        long nanos = System.nanoTime() - start;
+        Trace.record("gc." + msg.substring(0, msg.indexOf(':')), nanos);
+        System.out.println(String.format(msg, args) + " (" + nanos / 1_000_000 + " ms)");
+    }
+
+    /** Marks the tree or inline files of one commit. */
+    private class MarkCommit extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 2522031260002816640L;
+
+        private final String uid;
+        private final int rank;
+
+        MarkCommit(String uid, int rank) {
+            this.uid = uid;
+            this.rank = rank;
+        }
+
+        @Override
+        protected void compute() {
+            Commit commit = Commit.readCommit(uid);
+            if (commit.hasInlineFiles()) {
+                for (String blob : commit.getBlobMap().values()) {
+                    marked.putIfAbsent(blob, rank);
+                }
+            } else {
+                new MarkTree(commit.getTree(), rank).compute();
+            }
+        }
+    }
+
+    /** Marks a tree and, unless another task has already claimed them, its blobs and
+     *  subtrees, forking a task for each subtree.
+     */
+    private class MarkTree extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1316204699264118480L;
+
+        private final String id;
+        private final int rank;
+
+        MarkTree(String id, int rank) {
+            this.id = id;
+            this.rank = rank;
+        }
+
+        @Override
+        protected void compute() {
+            if (marked.putIfAbsent(id, rank) != null) {
+                return;
+            }
+            Tree tree = Tree.readTree(id);
+            for (String blob : tree.ids(Tree.FILE)) {
+                marked.putIfAbsent(blob, rank);
+            }
+            List<MarkTree> subtrees = new ArrayList<>();
+            for (String subtree : tree.ids(Tree.DIR)) {
+                if (!marked.containsKey(subtree)) {
+                    subtrees.add(new MarkTree(subtree, rank));
+                }
+            }
+            invokeAll(subtrees);
+        }
+    }
+}
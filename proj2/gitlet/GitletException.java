@@ -1,11 +1,15 @@
 package gitlet;
 
+import java.io.Serial;
+
 /** General exception indicating a Gitlet error.  For fatal errors, the
  *  result of .getMessage() is the error message to be printed.
  *  @author P. N. Hilfinger
  */
 class GitletException extends RuntimeException {
 
+    @Serial
+    private static final long serialVersionUID = -1679980020093532642L;
 
     /** A GitletException with no message. */
     GitletException() {
@@ -0,0 +1,177 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import static gitlet.Utils.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** An exclusive lock on a file shared by gitlet processes, held by creating
+ *  FILE.lock, which only one process can do at a time, and released by deleting it.
+ *  The lock file holds the id of the process that made it, so a lock left behind
+ *  by a process that died is broken rather than waited on forever. A process that
+ *  already holds a lock may take it again; it's released when every holder has
+ *  closed it.
+ *
+ *  A process that can't take a lock waits for it, for up to the number of
+ *  milliseconds in the gitlet.lock.timeout system property (10 seconds by
+ *  default), and then gives up with an error.
+ *
+ *  @author Alex Rios
+ */
+public class Lock implements AutoCloseable {
+
+    private static final long DEFAULT_TIMEOUT = 10_000;
+    private static final long MAX_SLEEP = 50;
+
+    /** Locks this process holds, and how many times each has been taken. */
+    private static final HashMap<File, Integer> HELD = new HashMap<>();
+
+    private final File file;
+
+    private Lock(File file) {
+        this.file = file;
+    }
+
+    /** Returns a lock on TARGET, waiting for another process to release it if needed. */
+    public static Lock acquire(File target) {
+        File file = new File(target.getPath() + ".lock");
+        synchronized (HELD) {
+            Integer count = HELD.get(file);
+            if (count != null) {
+                HELD.put(file, count + 1);
+                return new Lock(file);
+            }
+        }
+        long timeout = Long.getLong("gitlet.lock.timeout", DEFAULT_TIMEOUT);
+        long deadline = System.currentTimeMillis() + timeout;
+        long sleep = 1;
+        String pid = Long.toString(ProcessHandle.current().pid());
+        while (true) {
+            try {
+                Files.write(file.toPath(), pid.getBytes(UTF_8), StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE);
+                synchronized (HELD) {
+                    HELD.put(file, 1);
+                }
+                return new Lock(file);
+            } catch (FileAlreadyExistsException excp) {
+                if (breakStale(file, timeout)) {
+                    continue;
+                }
+            } catch (IOException excp) {
+                throw error("Unable to create %s.", file.getName());
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                Repository.gitletError("Unable to lock " + target.getName()
+                        + ": another gitlet process is using it.");
+            }
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw error("Interrupted while waiting for %s.", file.getName());
+            }
+            sleep = Math.min(MAX_SLEEP, sleep * 2);
+        }
+    }
+
+    /** Removes the lock FILE and returns true if it was left by a process that's no
+     *  longer running, or has had no owner for longer than TIMEOUT milliseconds (its
+     *  owner died between creating and writing it). The lock is first renamed aside,
+     *  which only one process can do, and put back if it turns out another process
+     *  took it in the meantime.
+     */
+    private static boolean breakStale(File file, long timeout) {
+        String owner = owner(file);
+        if (!isStale(file, owner, timeout)) {
+            return false;
+        }
+        File aside = new File(file.getPath() + "." + ProcessHandle.current().pid() + ".stale");
+        try {
+            Files.move(file.toPath(), aside.toPath());
+        } catch (IOException excp) {
+            return false;
+        }
+        if (owner != null && !owner.equals(owner(aside))) {
+            restore(aside, file, timeout);
+            return false;
+        }
+        aside.delete();
+        return true;
+    }
+
+    /** Returns true if the lock FILE, whose process id reads as OWNER, is stale. */
+    private static boolean isStale(File file, String owner, long timeout) {
+        if (owner == null) {
+            return file.exists() && System.currentTimeMillis() - file.lastModified() > timeout;
+        }
+        long pid = parsePid(owner);
+        return pid < 0 || ProcessHandle.of(pid).isEmpty();
+    }
+
+    /** Puts back ASIDE, a live lock renamed aside from FILE by mistake. If yet another
+     *  process has created FILE since, this waits for it to be released, so the lock
+     *  isn't lost while its owner still holds it, unless the owner of ASIDE has died
+     *  meanwhile, in which case ASIDE is deleted.
+     */
+    private static void restore(File aside, File file, long timeout) {
+        long sleep = 1;
+        while (true) {
+            try {
+                Files.move(aside.toPath(), file.toPath());
+                return;
+            } catch (IOException excp) {
+                if (!aside.exists() || isStale(aside, owner(aside), timeout)) {
+                    aside.delete();
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw error("Interrupted while waiting for %s.", file.getName());
+            }
+            sleep = Math.min(MAX_SLEEP, sleep * 2);
+        }
+    }
+
+    /** Returns the process id written in the lock FILE, or null if it's empty or
+     *  can't be read.
+     */
+    private static String owner(File file) {
+        try {
+            String owner = new String(Files.readAllBytes(file.toPath()), UTF_8).trim();
+            return owner.isEmpty() ? null : owner;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    private static long parsePid(String owner) {
+        try {
+            return Long.parseLong(owner);
+        } catch (NumberFormatException excp) {
+            return -1;
+        }
+    }
+
+    /** Releases this hold on the lock, deleting the lock file if it was the last. */
+    @Override
+    public void close() {
+        synchronized (HELD) {
+            int count = HELD.get(file);
+            if (count > 1) {
+                HELD.put(file, count - 1);
+                return;
+            }
+            HELD.remove(file);
+        }
+        file.delete();
+    }
+}
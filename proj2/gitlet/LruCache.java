@@ -0,0 +1,112 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.ToLongFunction;
+
+/** An in-memory cache holding values up to a total estimated size in bytes, which
+ *  evicts the least recently used values to stay within it. Values estimated at
+ *  more than a quarter of the budget aren't cached at all, so one huge object can't
+ *  flush everything else. It may be used from several threads at once, and counts
+ *  its hits, misses and evictions so they can be reported.
+ *
+ *  Only values that can't go stale belong here: objects named by the hash of their
+ *  contents, or state that this process rewrites on disk whenever it changes it.
+ *
+ *  @author Alex Rios
+ */
+public class LruCache<K, V> {
+
+    private final String name;
+    private final long capacity;
+    private final ToLongFunction<V> weigher;
+    /** Cached values and their estimated sizes, least recently used first. */
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /** A cache called NAME, holding up to CAPACITY bytes of values as estimated by
+     *  WEIGHER.
+     */
+    public LruCache(String name, long capacity, ToLongFunction<V> weigher) {
+        this.name = name;
+        this.capacity = capacity;
+        this.weigher = weigher;
+    }
+
+    /** Returns the value cached for KEY, or null, counting a hit or a miss. */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return entry.value;
+    }
+
+    /** Caches VALUE for KEY, evicting the least recently used values if needed. */
+    public void put(K key, V value) {
+        long size = weigher.applyAsLong(value);
+        if (size > capacity / 4) {
+            return;
+        }
+        synchronized (this) {
+            Entry<V> old = entries.put(key, new Entry<>(value, size));
+            weight += size - (old == null ? 0 : old.size);
+            Iterator<Entry<V>> it = entries.values().iterator();
+            while (weight > capacity && it.hasNext()) {
+                weight -= it.next().size;
+                it.remove();
+                evictions += 1;
+            }
+        }
+    }
+
+    /** Drops every cached value. The counters are kept. */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /** Returns the estimated size of the cached values, in bytes. */
+    public synchronized long weight() {
+        return weight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s cache: %d hits, %d misses, %d evictions, %d entries, %d KB",
+                name, hits, misses, evictions, entries.size(), weight >> 10);
+    }
+
+    /** A cached value and its estimated size. */
+    private static class Entry<V> {
+        private final V value;
+        private final long size;
+
+        Entry(V value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
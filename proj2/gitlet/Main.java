@@ -11,8 +11,42 @@ public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ...
+     *  or java gitlet.Main --batch, to run commands read from stdin (see Batch).
      */
     public static void main(String[] args) throws IOException {
+        if (args.length == 1 && args[0].equals("--batch")) {
+            Batch.run(System.in);
+        } else {
+            execute(args);
+        }
+    }
+
+    /** Runs the command in ARGS, printing the message of any UserError, and returns
+     *  that message if the command failed, or null if it succeeded.
+     */
+    static String execute(String[] args) throws IOException {
+        Trace.start(args);
+        try {
+            run(args);
+            return null;
+        } catch (UserError excp) {
+            System.out.println(excp.getMessage());
+            if (!excp.isFailure()) {
+                return null;
+            }
+            Trace.error(excp.getMessage());
+            return excp.getMessage();
+        } catch (IOException | RuntimeException excp) {
+            Trace.error(excp.toString());
+            throw excp;
+        } finally {
+            Repository.reportCaches();
+            Trace.finish();
+        }
+    }
+
+    /** Runs the command in ARGS, throwing a UserError if it can't be carried out. */
+    static void run(String[] args) throws IOException {
         if (args.length == 0) {
             gitletError("Please enter a command.");
         }
@@ -50,13 +84,28 @@ public class Main {
                 break;
             case "find":
                 Repository.repoExists();
-                String findMsg = args[1];
-                Repository.find(findMsg);
+                if (args.length == 3) {
+                    Repository.find(args[2], args[1]);
+                } else {
+                    Repository.find(args[1], null);
+                }
                 break;
             case "status":
                 Repository.repoExists();
                 Repository.status();
                 break;
+            case "diff":
+                Repository.repoExists();
+                if (args.length == 1) {
+                    Repository.diff();
+                } else if (args.length == 2 && args[1].equals("--staged")) {
+                    Repository.diffStaged();
+                } else if (args.length == 3) {
+                    Repository.diff(args[1], args[2]);
+                } else {
+                    gitletError("Incorrect operands.");
+                }
+                break;
             case "checkout":
                 Repository.repoExists();
                 if (args.length == 3) {
@@ -86,11 +135,39 @@ public class Main {
                 String rmBranchName = args[1];
                 Repository.rmBranch(rmBranchName);
                 break;
+            case "reflog":
+                Repository.repoExists();
+                if (args.length > 2) {
+                    gitletError("Incorrect operands.");
+                }
+                Repository.reflog(args.length == 2 ? args[1] : null);
+                break;
             case "reset":
                 Repository.repoExists();
                 String commitUID = args[1];
                 Repository.reset(commitUID);
                 break;
+            case "repack":
+                Repository.repoExists();
+                Repository.repack();
+                break;
+            case "gc":
+                Repository.repoExists();
+                boolean keepReflog = false;
+                long grace = GarbageCollector.DEFAULT_GRACE;
+                for (int i = 1; i < args.length; i += 1) {
+                    if (args[i].equals("--reflog")) {
+                        keepReflog = true;
+                    } else if (args[i].equals("--prune=now")) {
+                        grace = 0;
+                    } else if (args[i].matches("--prune=\\d+")) {
+                        grace = Long.parseLong(args[i].substring("--prune=".length()));
+                    } else {
+                        gitletError("Incorrect operands.");
+                    }
+                }
+                Repository.gc(keepReflog, grace);
+                break;
             case "merge":
                 String branch = args[1];
                 Repository.merge(branch);
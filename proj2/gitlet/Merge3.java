@@ -0,0 +1,117 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** A line-level three-way merge (diff3) of the two versions of a file changed on
+ *  both sides of a merge. Each side is diffed against the split point's version
+ *  with Diff. Base lines matched on both sides are stable and copied through; each
+ *  run of lines between them was changed on one side, on both sides in the same
+ *  way, or on both sides differently. Only the last is a conflict, and only its
+ *  lines are placed between conflict markers. Lines keep their exact bytes,
+ *  including a missing newline at the end of a file, and the result is written
+ *  straight to the output rather than assembled in memory.
+ *
+ *  @author Alex Rios
+ */
+public class Merge3 {
+
+    private static final byte[] HEAD_MARKER = "<<<<<<< HEAD\n".getBytes(UTF_8);
+    private static final byte[] MIDDLE_MARKER = "=======\n".getBytes(UTF_8);
+    private static final byte[] END_MARKER = ">>>>>>>\n".getBytes(UTF_8);
+
+    private final Diff.Lines base;
+    private final Diff.Lines ours;
+    private final Diff.Lines theirs;
+    private final OutputStream out;
+    private int conflicts;
+
+    private Merge3(byte[] base, byte[] ours, byte[] theirs, OutputStream out) {
+        HashMap<Diff.Line, Integer> ids = new HashMap<>();
+        this.base = new Diff.Lines(base, ids);
+        this.ours = new Diff.Lines(ours, ids);
+        this.theirs = new Diff.Lines(theirs, ids);
+        this.out = out;
+    }
+
+    /** Writes the merge of OURS and THEIRS, two versions of BASE, to OUT, and returns
+     *  the number of conflicting regions in it.
+     */
+    public static int merge(byte[] base, byte[] ours, byte[] theirs, OutputStream out)
+            throws IOException {
+        Merge3 merge = new Merge3(base, ours, theirs, out);
+        merge.run();
+        return merge.conflicts;
+    }
+
+    private void run() throws IOException {
+        int[] oursMatch = Diff.match(base.ids, ours.ids);
+        int[] theirsMatch = Diff.match(base.ids, theirs.ids);
+        int o = 0;
+        int a = 0;
+        int b = 0;
+        int n = base.size();
+        while (true) {
+            int next = o;
+            while (next < n && (oursMatch[next] < 0 || theirsMatch[next] < 0)) {
+                next += 1;
+            }
+            if (next == n) {
+                chunk(o, n, a, ours.size(), b, theirs.size());
+                return;
+            }
+            if (next == o && oursMatch[o] == a && theirsMatch[o] == b) {
+                base.write(o, o + 1, out);
+                o += 1;
+                a += 1;
+                b += 1;
+                continue;
+            }
+            chunk(o, next, a, oursMatch[next], b, theirsMatch[next]);
+            o = next;
+            a = oursMatch[next];
+            b = theirsMatch[next];
+        }
+    }
+
+    /** Writes the merge of the base lines [OLO, OHI), which became [ALO, AHI) on our
+     *  side and [BLO, BHI) on theirs.
+     */
+    private void chunk(int oLo, int oHi, int aLo, int aHi, int bLo, int bHi)
+            throws IOException {
+        boolean oursChanged = !same(base, oLo, oHi, ours, aLo, aHi);
+        boolean theirsChanged = !same(base, oLo, oHi, theirs, bLo, bHi);
+        if (!theirsChanged) {
+            ours.write(aLo, aHi, out);
+        } else if (!oursChanged || same(ours, aLo, aHi, theirs, bLo, bHi)) {
+            theirs.write(bLo, bHi, out);
+        } else {
+            out.write(HEAD_MARKER);
+            side(ours, aLo, aHi);
+            out.write(MIDDLE_MARKER);
+            side(theirs, bLo, bHi);
+            out.write(END_MARKER);
+            conflicts += 1;
+        }
+    }
+
+    /** Writes lines [LO, HI) of SIDE of a conflict, ending them with a newline if
+     *  the last is the end of a file that has none, so the next marker starts a line.
+     */
+    private void side(Diff.Lines side, int lo, int hi) throws IOException {
+        side.write(lo, hi, out);
+        if (lo < hi && !side.hasNewline(hi - 1)) {
+            out.write('\n');
+        }
+    }
+
+    /** Returns true if lines [XLO, XHI) of X are the same as [YLO, YHI) of Y. */
+    private static boolean same(Diff.Lines x, int xLo, int xHi, Diff.Lines y, int yLo,
+                                int yHi) {
+        return Arrays.equals(x.ids, xLo, xHi, y.ids, yLo, yHi);
+    }
+}
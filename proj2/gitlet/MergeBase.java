@@ -0,0 +1,130 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Finds the best common ancestors of two commits, in the manner of git's
+ *  merge-base. Both commits are walked at once, newest generation first, painting
+ *  every ancestor with the side(s) it was reached from. A commit reached from both
+ *  sides is a merge base, and everything below it is marked stale; the walk stops as
+ *  soon as only stale commits are left, so it never goes further back in history
+ *  than the merge bases themselves.
+ *
+ *  Since a parent's generation is always lower than its child's, every commit is
+ *  taken off the queue only after all of its descendants in the walk, so its paint
+ *  is final by then and no merge base can be an ancestor of another. In criss-cross
+ *  histories there can be several merge bases; they are ordered by highest
+ *  generation, then latest timestamp, then lowest id, so the choice is deterministic.
+ *
+ *  @author Alex Rios
+ */
+public class MergeBase {
+
+    /** Read access to a commit DAG whose commits are identified by position. */
+    public interface Graph {
+        /** Returns the position of the first parent of POS, or -1. */
+        int parent(int pos);
+        /** Returns the position of the second parent of POS, or -1. */
+        int secParent(int pos);
+        /** Returns the generation number of POS. */
+        int generation(int pos);
+        /** Returns the commit time of POS. */
+        long time(int pos);
+        /** Returns the uid of POS. */
+        String id(int pos);
+    }
+
+    private static final int PARENT1 = 1;
+    private static final int PARENT2 = 2;
+    private static final int STALE = 4;
+
+    private final Graph graph;
+    /** Number of commits the last search visited. */
+    private int visited;
+
+    public MergeBase(Graph graph) {
+        this.graph = graph;
+    }
+
+    /** Returns the position of the best merge base of A and B, or -1 if they have no
+     *  common ancestor.
+     */
+    public int best(int a, int b) {
+        List<Integer> bases = bases(a, b);
+        return bases.isEmpty() ? -1 : bases.get(0);
+    }
+
+    /** Returns every merge base of A and B, best first. */
+    public List<Integer> bases(int a, int b) {
+        visited = 0;
+        List<Integer> candidates = new ArrayList<>();
+        if (a == b) {
+            candidates.add(a);
+            return candidates;
+        }
+        HashMap<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(newestFirst());
+        flags.put(a, PARENT1);
+        flags.put(b, PARENT2);
+        queue.add(a);
+        queue.add(b);
+        int nonStale = 2;
+
+        while (nonStale > 0) {
+            int curr = queue.remove();
+            int currFlags = flags.get(curr);
+            if ((currFlags & STALE) == 0) {
+                nonStale -= 1;
+            }
+            visited += 1;
+            int paint = currFlags & (PARENT1 | PARENT2 | STALE);
+            if (paint == (PARENT1 | PARENT2)) {
+                candidates.add(curr);
+                paint |= STALE;
+            }
+            for (int parent : new int[] {graph.parent(curr), graph.secParent(curr)}) {
+                if (parent < 0) {
+                    continue;
+                }
+                int old = flags.getOrDefault(parent, 0);
+                int updated = old | paint;
+                if (updated == old) {
+                    continue;
+                }
+                flags.put(parent, updated);
+                if (old == 0) {
+                    queue.add(parent);
+                    if ((updated & STALE) == 0) {
+                        nonStale += 1;
+                    }
+                } else if ((old & STALE) == 0 && (updated & STALE) != 0) {
+                    nonStale -= 1;
+                }
+            }
+        }
+        candidates.sort(best());
+        return candidates;
+    }
+
+    /** Returns the number of commits the last search visited. */
+    public int visited() {
+        return visited;
+    }
+
+    /** Orders commits by descending generation, then descending time. */
+    private Comparator<Integer> newestFirst() {
+        return Comparator.<Integer>comparingInt(graph::generation).reversed()
+                .thenComparing(Comparator.<Integer>comparingLong(graph::time).reversed())
+                .thenComparing(Comparator.<Integer>reverseOrder());
+    }
+
+    /** Orders merge bases from best to worst. */
+    private Comparator<Integer> best() {
+        return Comparator.<Integer>comparingInt(graph::generation).reversed()
+                .thenComparing(Comparator.<Integer>comparingLong(graph::time).reversed())
+                .thenComparing(graph::id);
+    }
+}
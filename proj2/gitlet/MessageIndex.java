@@ -0,0 +1,301 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** An inverted index from the words in commit messages to the CommitTable positions
+ *  of the commits whose messages contain them. A word is a run of letters and digits,
+ *  lowercased. The index file holds the words in sorted order, each followed by its
+ *  position list as delta-encoded varints, with an array of word offsets in front so
+ *  a word is found by binary search over the memory-mapped file.
+ *
+ *  The index covers a prefix of the table; commits made since it was written are
+ *  searched by reading their messages directly, and the index is rewritten once more
+ *  than TAIL_LIMIT commits are uncovered.
+ *
+ *  @author Alex Rios
+ */
+public class MessageIndex {
+
+    /** File that stores the index. */
+    public static final File INDEX_FILE = join(Repository.GITLET_DIR, ".find-index");
+
+    private static final int MAGIC = 0x474c4649;
+    private static final int VERSION = 1;
+    /** Magic, version, covered commits and word count. */
+    private static final int HEADER_BYTES = 16;
+    /** Number of uncovered commits at which the index is rewritten. */
+    private static final int TAIL_LIMIT = 4096;
+
+    private final CommitTable table;
+    private MappedByteBuffer data;
+    /** Number of table positions the index covers. */
+    private int covered;
+    private int words;
+
+    private MessageIndex(CommitTable table) {
+        this.table = table;
+    }
+
+    /** Returns the index of TABLE, rewriting it first if it is missing or too far
+     *  behind. The rewrite holds the staging area lock, as every other write to the
+     *  commit history does, and is skipped if another process rewrote the index while
+     *  this one waited for the lock.
+     */
+    @SuppressWarnings("try")
+    public static MessageIndex readMessageIndex(CommitTable table) {
+        MessageIndex index = new MessageIndex(table);
+        try {
+            if (!index.current()) {
+                try (Lock lock = StagingArea.lock()) {
+                    if (!index.current()) {
+                        index.write();
+                        index.load();
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Unable to read the message index.");
+        }
+        return index;
+    }
+
+    /** Maps INDEX_FILE, returning true if it is usable and no more than TAIL_LIMIT
+     *  commits behind the table.
+     */
+    private boolean current() throws IOException {
+        return load() && table.size() - covered <= TAIL_LIMIT;
+    }
+
+    /** Maps INDEX_FILE, returning false if it is missing or unusable. */
+    private boolean load() throws IOException {
+        if (!INDEX_FILE.isFile()) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(INDEX_FILE.toPath(), StandardOpenOption.READ)) {
+            data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (data.capacity() < HEADER_BYTES || data.getInt(0) != MAGIC
+                || data.getInt(4) != VERSION) {
+            return false;
+        }
+        covered = data.getInt(8);
+        words = data.getInt(12);
+        return true;
+    }
+
+    /** Atomically rewrites INDEX_FILE to cover the whole table. */
+    private void write() throws IOException {
+        TreeMap<String, ByteArrayOutputStream> postings = new TreeMap<>();
+        HashMap<String, Integer> last = new HashMap<>();
+        try (CommitTable.Cursor cursor = table.cursor()) {
+            while (cursor.next()) {
+                int pos = cursor.position();
+                for (String word : words(cursor.message())) {
+                    Integer prev = last.put(word, pos);
+                    ByteArrayOutputStream list = postings.get(word);
+                    if (list == null) {
+                        list = new ByteArrayOutputStream();
+                        postings.put(word, list);
+                    }
+                    Delta.writeVarint(list, prev == null ? pos : pos - prev);
+                }
+            }
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int[] offsets = new int[postings.size()];
+        int i = 0;
+        for (Map.Entry<String, ByteArrayOutputStream> e : postings.entrySet()) {
+            offsets[i] = body.size();
+            byte[] word = e.getKey().getBytes(UTF_8);
+            Delta.writeVarint(body, word.length);
+            body.write(word);
+            Delta.writeVarint(body, e.getValue().size());
+            e.getValue().writeTo(body);
+            i += 1;
+        }
+        int start = HEADER_BYTES + offsets.length * 4;
+        ByteBuffer head = ByteBuffer.allocate(start);
+        head.putInt(MAGIC).putInt(VERSION).putInt(table.size()).putInt(offsets.length);
+        for (int offset : offsets) {
+            head.putInt(start + offset);
+        }
+        File tmp = File.createTempFile(".find-index", ".tmp", Repository.GITLET_DIR);
+        try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            head.flip();
+            ByteBuffer rest = ByteBuffer.wrap(body.toByteArray());
+            while (head.hasRemaining() || rest.hasRemaining()) {
+                ch.write(new ByteBuffer[] {head, rest});
+            }
+        }
+        Files.move(tmp.toPath(), INDEX_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Returns the table positions, in increasing order, of every commit whose
+     *  message might contain all of WORDS: those in the index that contain every
+     *  one, followed by every uncovered position. WORDS must not be empty. An index
+     *  written by another process may cover commits past the end of TABLE; those
+     *  positions are left out.
+     */
+    public int[] candidates(List<String> words) {
+        int[] result = null;
+        for (String word : words) {
+            int[] list = postings(word);
+            result = result == null ? list : intersect(result, list);
+            if (result.length == 0) {
+                break;
+            }
+        }
+        int end = 0;
+        while (end < result.length && result[end] < table.size()) {
+            end += 1;
+        }
+        int[] all = Arrays.copyOf(result, end + Math.max(0, table.size() - covered));
+        for (int pos = covered; pos < table.size(); pos += 1) {
+            all[end + pos - covered] = pos;
+        }
+        return all;
+    }
+
+    /** Returns the positions listed for WORD, or an empty array. */
+    private int[] postings(String word) {
+        int lo = 0;
+        int hi = words - 1;
+        int[] pos = new int[1];
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            pos[0] = data.getInt(HEADER_BYTES + mid * 4);
+            int length = readVarint(pos);
+            int cmp = word(pos[0], length).compareTo(word);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                pos[0] += length;
+                int end = readVarint(pos);
+                end += pos[0];
+                int[] list = new int[16];
+                int count = 0;
+                int prev = 0;
+                while (pos[0] < end) {
+                    prev += readVarint(pos);
+                    if (count == list.length) {
+                        list = Arrays.copyOf(list, count * 2);
+                    }
+                    list[count] = prev;
+                    count += 1;
+                }
+                return Arrays.copyOf(list, count);
+            }
+        }
+        return new int[0];
+    }
+
+    /** Returns the word stored in the LENGTH bytes of the file at OFFSET. */
+    private String word(int offset, int length) {
+        byte[] bytes = new byte[length];
+        data.get(offset, bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private int readVarint(int[] pos) {
+        int result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data.get(pos[0]) & 0xff;
+            pos[0] += 1;
+            result |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[count] = a[i];
+                count += 1;
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /** Returns the distinct words of TEXT, in order of first appearance. */
+    public static List<String> words(String text) {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        int i = 0;
+        while (i < text.length()) {
+            if (!isWordChar(text.charAt(i))) {
+                i += 1;
+                continue;
+            }
+            int start = i;
+            while (i < text.length() && isWordChar(text.charAt(i))) {
+                i += 1;
+            }
+            result.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the words of PATTERN that any message containing PATTERN must have as
+     *  whole words: those with a non-word character on both sides within PATTERN.
+     */
+    public static List<String> wholeWords(String pattern) {
+        List<String> result = words(pattern);
+        Iterator<String> iter = result.iterator();
+        String lower = pattern.toLowerCase(Locale.ROOT);
+        while (iter.hasNext()) {
+            String word = iter.next();
+            boolean bounded = false;
+            int at = lower.indexOf(word);
+            while (at >= 0 && !bounded) {
+                int end = at + word.length();
+                bounded = at > 0 && !isWordChar(lower.charAt(at - 1))
+                        && end < lower.length() && !isWordChar(lower.charAt(end));
+                at = lower.indexOf(word, at + 1);
+            }
+            if (!bounded) {
+                iter.remove();
+            }
+        }
+        return result;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+}
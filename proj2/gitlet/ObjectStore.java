@@ -0,0 +1,1128 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/** Content-addressed storage for every commit, tree and blob in the repository.
+ *  An object is either loose (blobs in BLOBS_DIR, trees in TREES_DIR, commits in
+ *  GITLET_DIR, one file each, named by their sha1 hash) or consolidated into a pack
+ *  file in PACKS_DIR.
+ *  A blob may also be stored as a delta against an earlier version of the same
+ *  file, in DELTAS_DIR or a pack, and is rebuilt from its base chain when read.
+ *  Whole blobs are deflated and streamed through a fixed-size buffer, so writing or
+ *  checking out a large file never holds it in memory. Loose blobs written before
+ *  compression was added are stored raw, without the ".z" suffix, and are still read.
+ *  Every pack has an index holding a 256-entry fan-out table followed by its sorted
+ *  ids, which is memory-mapped and binary searched, so a lookup never lists or opens
+ *  more than the pack it lands in. Blobs may be read and copied out from several
+ *  threads at once.
+ *  Next to each pack, a .mtimes file records when each object in it was first
+ *  stored, carried over from its loose file or earlier pack, so repacking doesn't
+ *  make old objects look new to gc's grace period.
+ *
+ *  @author Alex Rios
+ */
+public class ObjectStore {
+
+    /** Directory holding all pack files and their indexes. */
+    public static final File PACKS_DIR = join(Repository.GITLET_DIR, ".packs");
+    /** Directory holding loose blobs stored as deltas. */
+    public static final File DELTAS_DIR = join(Repository.GITLET_DIR, ".deltas");
+    /** Directory holding loose trees. */
+    public static final File TREES_DIR = join(Repository.GITLET_DIR, ".trees");
+
+    /** Object type tags stored in the pack index. */
+    public static final byte COMMIT = 1;
+    public static final byte BLOB = 2;
+    public static final byte DELTA = 3;
+    public static final byte TREE = 4;
+    /** Set on a pack entry's type if its contents are deflated. */
+    private static final byte COMPRESSED = 0x40;
+    private static final byte TYPE_MASK = 0x3f;
+    /** Suffix of deflated loose blobs. */
+    private static final String COMPRESSED_SUFFIX = ".z";
+    /** Size of the buffer every blob is streamed through. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Packs are capped so that each one can be mapped with a single buffer. */
+    private static final long MAX_PACK_SIZE = 1L << 30;
+    private static final int PACK_MAGIC = 0x474c504b;
+    private static final int IDX_MAGIC = 0x474c4958;
+    private static final int MTIMES_MAGIC = 0x474c4d54;
+    private static final int VERSION = 1;
+    private static final int ID_BYTES = 20;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int FANOUT_BYTES = 256 * 4;
+    private static final int HEADER_BYTES = 8;
+
+    /** Longest chain of deltas a blob may sit at the end of. */
+    private static final int MAX_DELTA_DEPTH = 10;
+    /** Files larger than this are always stored whole. */
+    private static final long MAX_DELTA_SIZE = 64L << 20;
+    /** Total size of the reconstructed blobs kept in memory. */
+    private static final long BLOB_CACHE_SIZE = 64L << 20;
+    /** Recently read blobs, so rebuilding a delta chain doesn't rebuild its bases. */
+    static final LruCache<String, byte[]> BLOBS =
+            new LruCache<>("blob", BLOB_CACHE_SIZE, contents -> contents.length);
+
+    /** Packs currently known to this process, loaded lazily. */
+    private static List<Pack> packs;
+
+    /** Returns true if an object with the given id is stored, loose or packed. */
+    public static boolean contains(String id) {
+        return isObjectId(id) && (looseFile(id) != null || findPacked(id) != null);
+    }
+
+    /** Returns the contents of the object with the given id and type, or null. */
+    public static byte[] read(String id, byte type) {
+        if (!isObjectId(id)) {
+            return null;
+        }
+        byte[] contents = type == BLOB ? readBlob(id) : readObject(id, type);
+        if (contents != null) {
+            Trace.count("objects.read", 1);
+            Trace.count("objects.read.bytes", contents.length);
+        }
+        return contents;
+    }
+
+    /** Returns the contents of the commit or tree with the given id and type, or null. */
+    private static byte[] readObject(String id, byte type) {
+        File loose = looseFile(id, type);
+        if (loose.isFile()) {
+            return readContents(loose);
+        }
+        Location loc = findPacked(id);
+        if (loc == null || loc.pack.type(loc.index) != type) {
+            return null;
+        }
+        return loc.pack.contents(loc.index);
+    }
+
+    /** Returns the contents of the blob with the given id, resolving deltas, or null. */
+    private static byte[] readBlob(String id) {
+        byte[] cached = BLOBS.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] contents;
+        File loose = join(Repository.BLOBS_DIR, id);
+        File compressed = join(Repository.BLOBS_DIR, id + COMPRESSED_SUFFIX);
+        File looseDelta = join(DELTAS_DIR, id);
+        if (compressed.isFile()) {
+            try (InputStream in = new InflaterInputStream(new FileInputStream(compressed))) {
+                contents = in.readAllBytes();
+            } catch (IOException excp) {
+                throw error("Unable to read blob %s.", id);
+            }
+        } else if (loose.isFile()) {
+            contents = readContents(loose);
+        } else if (looseDelta.isFile()) {
+            contents = resolve(id, readContents(looseDelta));
+        } else {
+            Location loc = findPacked(id);
+            if (loc == null) {
+                return null;
+            } else if (loc.pack.type(loc.index) == DELTA) {
+                contents = resolve(id, loc.pack.contents(loc.index));
+            } else if (loc.pack.type(loc.index) == BLOB) {
+                contents = loc.pack.contents(loc.index);
+            } else {
+                return null;
+            }
+        }
+        BLOBS.put(id, contents);
+        return contents;
+    }
+
+    /** Rebuilds the blob ID from its stored DELTA and the base that delta names. */
+    private static byte[] resolve(String id, byte[] delta) {
+        byte[] base = readBlob(toHex(ByteBuffer.wrap(delta), 0));
+        if (base == null) {
+            throw error("Missing delta base for %s.", id);
+        }
+        return Delta.apply(base, Arrays.copyOfRange(delta, ID_BYTES + 1, delta.length));
+    }
+
+    /** Returns the stored delta for ID (base id, depth, then the delta itself), or null
+     *  if the blob isn't stored as a delta.
+     */
+    private static byte[] readDelta(String id) {
+        File loose = join(DELTAS_DIR, id);
+        if (loose.isFile()) {
+            return readContents(loose);
+        }
+        Location loc = findPacked(id);
+        if (loc != null && loc.pack.type(loc.index) == DELTA) {
+            return loc.pack.contents(loc.index);
+        }
+        return null;
+    }
+
+    /** Returns how many deltas must be applied to rebuild the blob ID. */
+    private static int deltaDepth(String id) {
+        if (join(Repository.BLOBS_DIR, id + COMPRESSED_SUFFIX).isFile()
+                || join(Repository.BLOBS_DIR, id).isFile()) {
+            return 0;
+        }
+        byte[] delta = readDelta(id);
+        return delta == null ? 0 : delta[ID_BYTES];
+    }
+
+    /** Drops the mapped packs and cached blobs, so objects are looked up afresh. */
+    static synchronized void forget() {
+        closePacks();
+        BLOBS.clear();
+    }
+
+    /** Copies the blob with the given id into TARGET, replacing it if it exists.
+     *  Whole blobs are copied with FileChannel.transferTo or inflated through a fixed
+     *  buffer; only blobs stored as deltas are rebuilt in memory.
+     */
+    public static void copyTo(String id, File target) throws IOException {
+        File compressed = join(Repository.BLOBS_DIR, id + COMPRESSED_SUFFIX);
+        File loose = join(Repository.BLOBS_DIR, id);
+        if (compressed.isFile()) {
+            try (InputStream in = new InflaterInputStream(new FileInputStream(compressed),
+                    new Inflater(), BUFFER_SIZE)) {
+                copy(in, target);
+            }
+            return;
+        }
+        if (loose.isFile()) {
+            try (FileChannel in = FileChannel.open(loose.toPath(), StandardOpenOption.READ);
+                 FileChannel out = openForWrite(target)) {
+                transfer(in, 0, in.size(), out);
+            }
+            return;
+        }
+        Location loc = findPacked(id);
+        if (loc != null && loc.pack.type(loc.index) == BLOB) {
+            loc.pack.copyTo(loc.index, target);
+            return;
+        }
+        byte[] contents = readBlob(id);
+        if (contents == null) {
+            throw error("Missing blob %s.", id);
+        }
+        writeContents(target, contents);
+    }
+
+    /** Returns a stream over the contents of the blob with the given id. */
+    public static InputStream open(String id) throws IOException {
+        File compressed = join(Repository.BLOBS_DIR, id + COMPRESSED_SUFFIX);
+        File loose = join(Repository.BLOBS_DIR, id);
+        if (compressed.isFile()) {
+            return new InflaterInputStream(new FileInputStream(compressed),
+                    new Inflater(), BUFFER_SIZE);
+        } else if (loose.isFile()) {
+            return new BufferedInputStream(new FileInputStream(loose), BUFFER_SIZE);
+        }
+        Location loc = findPacked(id);
+        if (loc != null && loc.pack.type(loc.index) == BLOB) {
+            return loc.pack.open(loc.index);
+        }
+        byte[] contents = readBlob(id);
+        if (contents == null) {
+            throw error("Missing blob %s.", id);
+        }
+        return new ByteArrayInputStream(contents);
+    }
+
+    /** Returns the sha1 hash of FILE's contents, reading it through a fixed buffer. */
+    public static String hashFile(File file) throws IOException {
+        Trace.count("files.hashed", 1);
+        Trace.count("files.hashed.bytes", file.length());
+        MessageDigest md = sha1Digest();
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        }
+        return hex(md.digest());
+    }
+
+    /** Stores SOURCE as a blob unless it's already stored, and returns its id. If BASE,
+     *  the id of an earlier version of the same file, is given and the delta against it
+     *  is less than half the size of SOURCE, only the delta is written. Otherwise the
+     *  file is hashed, deflated and written in a single pass through a fixed buffer.
+     */
+    public static String writeBlob(File source, String base) throws IOException {
+        Trace.count("files.hashed", 1);
+        Trace.count("files.hashed.bytes", source.length());
+        if (base != null && source.length() <= MAX_DELTA_SIZE && contains(base)) {
+            byte[] contents = readContents(source);
+            String id = sha1(contents);
+            if (!contains(id) && !writeDelta(id, contents, base)) {
+                try (InputStream in = new ByteArrayInputStream(contents)) {
+                    writeCompressed(in);
+                }
+            }
+            return id;
+        }
+        try (InputStream in = new FileInputStream(source)) {
+            return writeCompressed(in);
+        }
+    }
+
+    /** Writes CONTENTS as a delta against BASE if that's worthwhile, returning whether
+     *  it did. Blobs whose base is already at the end of a long chain are stored whole.
+     */
+    private static boolean writeDelta(String id, byte[] contents, String base) {
+        if (base.equals(id)) {
+            return false;
+        }
+        int depth = deltaDepth(base);
+        byte[] baseContents = depth < MAX_DELTA_DEPTH ? readBlob(base) : null;
+        if (baseContents == null || baseContents.length > MAX_DELTA_SIZE) {
+            return false;
+        }
+        byte[] delta = Delta.create(baseContents, contents);
+        if (delta.length >= contents.length / 2) {
+            return false;
+        }
+        DELTAS_DIR.mkdir();
+        writeAtomically(join(DELTAS_DIR, id), toBytes(base), new byte[] {(byte) (depth + 1)},
+                delta);
+        written(UID_LENGTH / 2 + 1 + delta.length);
+        BLOBS.put(id, contents);
+        return true;
+    }
+
+    /** Hashes and deflates IN into a temporary file, which is then renamed to the
+     *  resulting id unless that blob already exists. Returns the id.
+     */
+    private static String writeCompressed(InputStream in) throws IOException {
+        MessageDigest md = sha1Digest();
+        File tmp = File.createTempFile("blob", ".tmp", Repository.BLOBS_DIR);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            try (OutputStream out = new DeflaterOutputStream(new FileOutputStream(tmp),
+                    deflater, BUFFER_SIZE)) {
+                byte[] buf = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    md.update(buf, 0, n);
+                    out.write(buf, 0, n);
+                }
+            }
+            String id = hex(md.digest());
+            if (!contains(id)) {
+                File blob = join(Repository.BLOBS_DIR, id + COMPRESSED_SUFFIX);
+                written(tmp.length());
+                Files.move(tmp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            return id;
+        } finally {
+            deflater.end();
+            tmp.delete();
+        }
+    }
+
+    /** Copies all of IN into TARGET through a fixed buffer. */
+    private static void copy(InputStream in, File target) throws IOException {
+        try (OutputStream out = new FileOutputStream(target)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+        }
+    }
+
+    private static FileChannel openForWrite(File target) throws IOException {
+        return FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /** Transfers LENGTH bytes of IN starting at POS to the end of OUT. */
+    private static void transfer(FileChannel in, long pos, long length, FileChannel out)
+            throws IOException {
+        while (length > 0) {
+            long n = in.transferTo(pos, length, out);
+            pos += n;
+            length -= n;
+        }
+    }
+
+    private static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(UID_LENGTH);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /** Stores DATA as a loose commit with the given id. */
+    public static void writeCommit(String id, byte[] data) {
+        writeAtomically(looseFile(id, COMMIT), data);
+        written(data.length);
+    }
+
+    /** Stores DATA as a loose tree with the given id, unless it's already stored. */
+    public static void writeTree(String id, byte[] data) {
+        if (!contains(id)) {
+            TREES_DIR.mkdir();
+            writeAtomically(looseFile(id, TREE), data);
+            written(data.length);
+        }
+    }
+
+    /** Counts an object of SIZE bytes written, for tracing. */
+    private static void written(long size) {
+        Trace.count("objects.written", 1);
+        Trace.count("objects.written.bytes", size);
+    }
+
+    /** Writes CONTENTS to FILE by way of a uniquely named temporary file in the same
+     *  directory that is then renamed over it, so other processes never see FILE
+     *  partly written, and several writing it at once don't interfere. Objects are
+     *  named by their contents, so they need no lock: whichever rename lands last
+     *  leaves the same bytes.
+     */
+    static void writeAtomically(File file, Object... contents) {
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            writeContents(tmp, contents);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw error("Unable to write %s.", file.getName());
+        }
+    }
+
+    /** Returns the ids of every stored commit, loose or packed, in sorted order. */
+    public static List<String> commitIds() {
+        TreeSet<String> ids = new TreeSet<>(looseIds(Repository.GITLET_DIR));
+        for (Pack pack : packs()) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                if (pack.type(i) == COMMIT) {
+                    ids.add(pack.id(i));
+                }
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /** Returns the ids of the objects of the given TYPE (COMMIT or TREE) stored at or
+     *  after CUTOFF, in milliseconds since the epoch.
+     */
+    static List<String> recentIds(byte type, long cutoff) {
+        File dir = type == COMMIT ? Repository.GITLET_DIR : TREES_DIR;
+        List<String> ids = new ArrayList<>();
+        for (String id : looseIds(dir)) {
+            if (looseFile(id, type).lastModified() >= cutoff) {
+                ids.add(id);
+            }
+        }
+        for (Pack pack : packs()) {
+            if (pack.packFile.lastModified() < cutoff) {
+                continue;
+            }
+            for (int i = 0; i < pack.size(); i += 1) {
+                if (pack.type(i) == type && pack.mtime(i) >= cutoff) {
+                    ids.add(pack.id(i));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** Consolidates every loose object and existing pack into as few new packs as
+     *  possible, then removes the loose files and the packs that were replaced.
+     */
+    public static void repack() throws IOException {
+        repack(null, 0, null);
+    }
+
+    /** Repacks like repack(), but drops every object that isn't in LIVE and was
+     *  stored before CUTOFF, in milliseconds since the epoch, unless a blob that's
+     *  kept is stored as a delta against it. Kept
+     *  objects are written in the order given by LAYOUT, so objects read together
+     *  can be stored together; the index stays sorted by id. If LIVE is null,
+     *  every object is kept. Returns the ids of the objects dropped.
+     */
+    static List<String> repack(Set<String> live, long cutoff, Comparator<String> layout)
+            throws IOException {
+        PACKS_DIR.mkdir();
+        TreeMap<String, Source> objects = new TreeMap<>();
+        List<Pack> oldPacks = new ArrayList<>(packs());
+        for (Pack pack : oldPacks) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                objects.put(pack.id(i), new Source(pack, i));
+            }
+        }
+        List<File> loose = new ArrayList<>();
+        for (String id : looseIds(Repository.GITLET_DIR)) {
+            loose.add(join(Repository.GITLET_DIR, id));
+            objects.put(id, new Source(COMMIT, join(Repository.GITLET_DIR, id)));
+        }
+        for (String id : looseIds(Repository.BLOBS_DIR)) {
+            File raw = join(Repository.BLOBS_DIR, id);
+            if (raw.isFile()) {
+                loose.add(raw);
+                objects.put(id, new Source(BLOB, raw));
+            }
+            File compressed = join(Repository.BLOBS_DIR, id + COMPRESSED_SUFFIX);
+            if (compressed.isFile()) {
+                loose.add(compressed);
+                objects.put(id, new Source((byte) (BLOB | COMPRESSED), compressed));
+            }
+        }
+        for (String id : looseIds(DELTAS_DIR)) {
+            loose.add(join(DELTAS_DIR, id));
+            objects.put(id, new Source(DELTA, join(DELTAS_DIR, id)));
+        }
+        for (String id : looseIds(TREES_DIR)) {
+            loose.add(join(TREES_DIR, id));
+            objects.put(id, new Source(TREE, join(TREES_DIR, id)));
+        }
+        List<String> dropped = live == null ? new ArrayList<>() : drop(objects, live, cutoff);
+        if (loose.isEmpty() && oldPacks.size() <= 1 && dropped.isEmpty()) {
+            return dropped;
+        }
+
+        List<String> ids = new ArrayList<>(objects.keySet());
+        if (layout != null) {
+            ids.sort(layout);
+        }
+        List<File> written = new ArrayList<>();
+        TreeMap<String, Source> batch = new TreeMap<>();
+        long batchSize = 0;
+        for (String id : ids) {
+            Source src = objects.get(id);
+            long length = src.length();
+            if (length > MAX_PACK_SIZE - HEADER_BYTES - 4) {
+                if (src.file == null) {
+                    unpack(id, src);
+                } else {
+                    loose.remove(src.file);
+                }
+                continue;
+            }
+            if (batchSize + length > MAX_PACK_SIZE - HEADER_BYTES - 4) {
+                written.add(writePack(batch, layout));
+                batch.clear();
+                batchSize = 0;
+            }
+            batch.put(id, src);
+            batchSize += length;
+        }
+        if (!batch.isEmpty()) {
+            written.add(writePack(batch, layout));
+        }
+
+        for (Pack pack : oldPacks) {
+            pack.close();
+            if (written.contains(pack.idxFile)) {
+                continue;
+            }
+            pack.idxFile.delete();
+            pack.packFile.delete();
+            pack.mtimesFile.delete();
+        }
+        for (File file : loose) {
+            file.delete();
+        }
+        packs = null;
+        return dropped;
+    }
+
+    /** Removes from OBJECTS, and returns, the ids of the objects repack(LIVE, CUTOFF,
+     *  ...) drops. The base of every delta that's kept is kept too.
+     */
+    private static List<String> drop(TreeMap<String, Source> objects, Set<String> live,
+                                     long cutoff) {
+        HashSet<String> kept = new HashSet<>();
+        ArrayDeque<String> deltas = new ArrayDeque<>();
+        for (Map.Entry<String, Source> entry : objects.entrySet()) {
+            String id = entry.getKey();
+            Source src = entry.getValue();
+            if (live.contains(id) || src.lastModified() >= cutoff) {
+                kept.add(id);
+                if ((src.type & TYPE_MASK) == DELTA) {
+                    deltas.add(id);
+                }
+            }
+        }
+        while (!deltas.isEmpty()) {
+            String base = toHex(ByteBuffer.wrap(readDelta(deltas.pop())), 0);
+            Source src = objects.get(base);
+            if (src != null && kept.add(base) && (src.type & TYPE_MASK) == DELTA) {
+                deltas.add(base);
+            }
+        }
+        List<String> dropped = new ArrayList<>();
+        for (String id : objects.keySet()) {
+            if (!kept.contains(id)) {
+                dropped.add(id);
+            }
+        }
+        objects.keySet().removeAll(dropped);
+        return dropped;
+    }
+
+    /** Writes the given objects into a new pack, its mtimes and its index, in the
+     *  order given by LAYOUT, or by id if that's null. The index is renamed into place
+     *  last, so readers never see a partial pack. Returns the index file.
+     */
+    private static File writePack(TreeMap<String, Source> objects, Comparator<String> layout)
+            throws IOException {
+        String name = "pack-" + sha1(String.join("", objects.keySet()));
+        File packFile = join(PACKS_DIR, name + ".pack");
+        File idxFile = join(PACKS_DIR, name + ".idx");
+        if (idxFile.exists()) {
+            return idxFile;
+        }
+        int n = objects.size();
+        HashMap<String, Integer> positions = new HashMap<>(n * 2);
+        for (String id : objects.keySet()) {
+            positions.put(id, positions.size());
+        }
+        List<String> order = new ArrayList<>(objects.keySet());
+        if (layout != null) {
+            order.sort(layout);
+        }
+        long[] offsets = new long[n];
+        long[] lengths = new long[n];
+        try (FileChannel out = FileChannel.open(packFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 4);
+            header.putInt(PACK_MAGIC).putInt(VERSION).putInt(n).flip();
+            out.write(header);
+            for (String id : order) {
+                int i = positions.get(id);
+                offsets[i] = out.position();
+                lengths[i] = objects.get(id).transferTo(out);
+            }
+            out.force(true);
+        }
+
+        int size = HEADER_BYTES + FANOUT_BYTES + n * (ID_BYTES + 1 + 8 + 8);
+        ByteBuffer idx = ByteBuffer.allocate(size);
+        idx.putInt(IDX_MAGIC).putInt(VERSION);
+        int[] fanout = new int[256];
+        for (String id : objects.keySet()) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int count : fanout) {
+            total += count;
+            idx.putInt(total);
+        }
+        for (String id : objects.keySet()) {
+            idx.put(toBytes(id));
+        }
+        for (Source src : objects.values()) {
+            idx.put(src.type);
+        }
+        for (long offset : offsets) {
+            idx.putLong(offset);
+        }
+        for (long length : lengths) {
+            idx.putLong(length);
+        }
+        ByteBuffer mtimes = ByteBuffer.allocate(HEADER_BYTES + n * 8);
+        mtimes.putInt(MTIMES_MAGIC).putInt(VERSION);
+        for (Source src : objects.values()) {
+            mtimes.putLong(src.lastModified());
+        }
+        File tmp = join(PACKS_DIR, name + ".mtimes.tmp");
+        writeContents(tmp, mtimes.array());
+        Files.move(tmp.toPath(), join(PACKS_DIR, name + ".mtimes").toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        tmp = join(PACKS_DIR, name + ".idx.tmp");
+        writeContents(tmp, idx.array());
+        Files.move(tmp.toPath(), idxFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return idxFile;
+    }
+
+    /** Writes a packed object that's too large to repack back out as a loose file. */
+    private static void unpack(String id, Source src) throws IOException {
+        File target = looseFile(id, (byte) (src.type & TYPE_MASK));
+        if ((src.type & COMPRESSED) != 0) {
+            target = join(Repository.BLOBS_DIR, id + COMPRESSED_SUFFIX);
+        }
+        target.getParentFile().mkdir();
+        try (FileChannel out = openForWrite(target)) {
+            src.transferTo(out);
+        }
+        target.setLastModified(src.lastModified());
+    }
+
+    /** Returns the loose file for an object of any type, or null if it isn't loose. */
+    private static File looseFile(String id) {
+        File compressed = join(Repository.BLOBS_DIR, id + COMPRESSED_SUFFIX);
+        if (compressed.isFile()) {
+            return compressed;
+        }
+        File blob = join(Repository.BLOBS_DIR, id);
+        if (blob.isFile()) {
+            return blob;
+        }
+        File delta = join(DELTAS_DIR, id);
+        if (delta.isFile()) {
+            return delta;
+        }
+        File tree = join(TREES_DIR, id);
+        if (tree.isFile()) {
+            return tree;
+        }
+        File commit = join(Repository.GITLET_DIR, id);
+        return commit.isFile() ? commit : null;
+    }
+
+    /** Returns where a loose object of the given type and id lives. */
+    private static File looseFile(String id, byte type) {
+        if (type == COMMIT) {
+            return join(Repository.GITLET_DIR, id);
+        } else if (type == TREE) {
+            return join(TREES_DIR, id);
+        }
+        return join(type == DELTA ? DELTAS_DIR : Repository.BLOBS_DIR, id);
+    }
+
+    /** Returns the ids of all loose objects in DIR, compressed or not. */
+    private static List<String> looseIds(File dir) {
+        TreeSet<String> ids = new TreeSet<>();
+        List<String> files = plainFilenamesIn(dir);
+        if (files != null) {
+            for (String name : files) {
+                if (name.endsWith(COMPRESSED_SUFFIX)) {
+                    name = name.substring(0, name.length() - COMPRESSED_SUFFIX.length());
+                }
+                if (isObjectId(name)) {
+                    ids.add(name);
+                }
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /** Returns true if NAME looks like a full sha1 hash. */
+    public static boolean isObjectId(String name) {
+        if (name == null || name.length() != UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i += 1) {
+            char c = name.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the pack and position holding ID, rescanning PACKS_DIR once on a miss
+     *  in case another process has repacked since the packs were loaded.
+     */
+    private static synchronized Location findPacked(String id) {
+        byte[] key = toBytes(id);
+        Location loc = search(packs(), key);
+        if (loc == null && packs != null && packsChanged()) {
+            closePacks();
+            loc = search(packs(), key);
+        }
+        return loc;
+    }
+
+    private static Location search(List<Pack> candidates, byte[] key) {
+        for (Pack pack : candidates) {
+            int index = pack.find(key);
+            if (index >= 0) {
+                return new Location(pack, index);
+            }
+        }
+        return null;
+    }
+
+    /** Returns the packs in PACKS_DIR, mapping their indexes on first use. */
+    private static synchronized List<Pack> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            for (String name : packNames()) {
+                String base = name.substring(0, name.length() - ".idx".length());
+                packs.add(new Pack(join(PACKS_DIR, base + ".idx"), join(PACKS_DIR, base + ".pack")));
+            }
+        }
+        return packs;
+    }
+
+    private static List<String> packNames() {
+        List<String> names = new ArrayList<>();
+        List<String> files = plainFilenamesIn(PACKS_DIR);
+        if (files != null) {
+            for (String name : files) {
+                if (name.startsWith("pack-") && name.endsWith(".idx")) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    private static boolean packsChanged() {
+        return packNames().size() != packs.size();
+    }
+
+    /** Drops every mapped pack so the next lookup rescans PACKS_DIR. */
+    static synchronized void closePacks() {
+        if (packs != null) {
+            for (Pack pack : packs) {
+                pack.close();
+            }
+        }
+        packs = null;
+    }
+
+    /** Converts a 40-character hex id into its 20 raw bytes. */
+    static byte[] toBytes(String id) {
+        byte[] result = new byte[ID_BYTES];
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            result[i] = (byte) (Character.digit(id.charAt(2 * i), 16) << 4
+                    | Character.digit(id.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /** Converts 20 raw id bytes starting at OFFSET in BUF into a hex string. */
+    static String toHex(ByteBuffer buf, int offset) {
+        char[] hex = new char[UID_LENGTH];
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int b = buf.get(offset + i) & 0xff;
+            hex[2 * i] = HEX_DIGITS[b >> 4];
+            hex[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /** A pack file, its memory-mapped index and its mtimes. */
+    private static class Pack {
+        private final File idxFile;
+        private final File packFile;
+        private final File mtimesFile;
+        private final MappedByteBuffer idx;
+        private final int size;
+        private final int idsStart;
+        private final int typesStart;
+        private final int offsetsStart;
+        private final int lengthsStart;
+        private FileChannel data;
+        /** When each entry was stored, read on first use. */
+        private long[] mtimes;
+
+        Pack(File idxFile, File packFile) {
+            this.idxFile = idxFile;
+            this.packFile = packFile;
+            String path = packFile.getPath();
+            this.mtimesFile = new File(path.substring(0, path.length() - ".pack".length())
+                    + ".mtimes");
+            try (FileChannel ch = FileChannel.open(idxFile.toPath(), StandardOpenOption.READ)) {
+                idx = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            } catch (IOException excp) {
+                throw error("Unable to read pack index %s.", idxFile.getName());
+            }
+            if (idx.getInt(0) != IDX_MAGIC || idx.getInt(4) != VERSION) {
+                throw error("Corrupt pack index %s.", idxFile.getName());
+            }
+            size = idx.getInt(HEADER_BYTES + 255 * 4);
+            idsStart = HEADER_BYTES + FANOUT_BYTES;
+            typesStart = idsStart + size * ID_BYTES;
+            offsetsStart = typesStart + size;
+            lengthsStart = offsetsStart + size * 8;
+        }
+
+        int size() {
+            return size;
+        }
+
+        String id(int i) {
+            return toHex(idx, idsStart + i * ID_BYTES);
+        }
+
+        byte type(int i) {
+            return (byte) (rawType(i) & TYPE_MASK);
+        }
+
+        /** Returns the type of entry I including its COMPRESSED flag. */
+        byte rawType(int i) {
+            return idx.get(typesStart + i);
+        }
+
+        boolean compressed(int i) {
+            return (rawType(i) & COMPRESSED) != 0;
+        }
+
+        /** Returns the position of KEY in this pack, or -1. Only the slice of ids
+         *  sharing KEY's first byte, as given by the fan-out table, is searched.
+         */
+        int find(byte[] key) {
+            int first = key[0] & 0xff;
+            int lo = first == 0 ? 0 : idx.getInt(HEADER_BYTES + (first - 1) * 4);
+            int hi = idx.getInt(HEADER_BYTES + first * 4) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compareId(mid, key);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        private int compareId(int i, byte[] key) {
+            int base = idsStart + i * ID_BYTES;
+            for (int j = 0; j < ID_BYTES; j += 1) {
+                int cmp = Integer.compare(idx.get(base + j) & 0xff, key[j] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+
+        long offset(int i) {
+            return idx.getLong(offsetsStart + i * 8);
+        }
+
+        long length(int i) {
+            return idx.getLong(lengthsStart + i * 8);
+        }
+
+        /** Returns when entry I was stored, in milliseconds since the epoch, or when
+         *  the pack was written if it has no usable mtimes file.
+         */
+        synchronized long mtime(int i) {
+            if (mtimes == null) {
+                mtimes = readMtimes();
+            }
+            return mtimes.length == size ? mtimes[i] : packFile.lastModified();
+        }
+
+        private long[] readMtimes() {
+            if (!mtimesFile.isFile()) {
+                return new long[0];
+            }
+            ByteBuffer buf = ByteBuffer.wrap(readContents(mtimesFile));
+            if (buf.remaining() != HEADER_BYTES + size * 8L
+                    || buf.getInt() != MTIMES_MAGIC || buf.getInt() != VERSION) {
+                return new long[0];
+            }
+            long[] result = new long[size];
+            for (int i = 0; i < size; i += 1) {
+                result[i] = buf.getLong();
+            }
+            return result;
+        }
+
+        byte[] contents(int i) {
+            if (compressed(i)) {
+                try (InputStream in = open(i)) {
+                    return in.readAllBytes();
+                } catch (IOException excp) {
+                    throw error("Unable to read pack %s.", packFile.getName());
+                }
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) length(i));
+            try {
+                FileChannel ch = channel();
+                long pos = offset(i);
+                while (buf.hasRemaining()) {
+                    int n = ch.read(buf, pos + buf.position());
+                    if (n < 0) {
+                        throw error("Truncated pack %s.", packFile.getName());
+                    }
+                }
+            } catch (IOException excp) {
+                throw error("Unable to read pack %s.", packFile.getName());
+            }
+            return buf.array();
+        }
+
+        /** Writes the contents of entry I to TARGET, inflating them if needed. */
+        void copyTo(int i, File target) throws IOException {
+            if (compressed(i)) {
+                try (InputStream in = open(i)) {
+                    copy(in, target);
+                }
+                return;
+            }
+            try (FileChannel out = openForWrite(target)) {
+                transferTo(i, out);
+            }
+        }
+
+        /** Returns a stream over the contents of entry I, inflating them if needed. */
+        InputStream open(int i) throws IOException {
+            InputStream raw = new RegionInputStream(channel(), offset(i), length(i));
+            if (compressed(i)) {
+                return new InflaterInputStream(raw, new Inflater(), BUFFER_SIZE);
+            }
+            return new BufferedInputStream(raw, BUFFER_SIZE);
+        }
+
+        /** Appends the stored bytes of entry I, exactly as packed, to OUT. */
+        long transferTo(int i, FileChannel out) throws IOException {
+            transfer(channel(), offset(i), length(i), out);
+            return length(i);
+        }
+
+        private synchronized FileChannel channel() throws IOException {
+            if (data == null) {
+                data = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+            }
+            return data;
+        }
+
+        synchronized void close() {
+            try {
+                if (data != null) {
+                    data.close();
+                }
+            } catch (IOException excp) {
+                // Nothing left to release.
+            }
+            data = null;
+        }
+    }
+
+    /** A packed object's pack and position within it. */
+    private static class Location {
+        private final Pack pack;
+        private final int index;
+
+        Location(Pack pack, int index) {
+            this.pack = pack;
+            this.index = index;
+        }
+    }
+
+    /** An object being repacked, coming either from a loose file or an old pack. */
+    private static class Source {
+        private final byte type;
+        private final File file;
+        private final Pack pack;
+        private final int index;
+
+        Source(byte type, File file) {
+            this.type = type;
+            this.file = file;
+            this.pack = null;
+            this.index = -1;
+        }
+
+        Source(Pack pack, int index) {
+            this.type = pack.rawType(index);
+            this.file = null;
+            this.pack = pack;
+            this.index = index;
+        }
+
+        long length() {
+            return file != null ? file.length() : pack.length(index);
+        }
+
+        /** Returns when this object was stored: its loose file's modification time,
+         *  or the time recorded for it in its pack.
+         */
+        long lastModified() {
+            return file != null ? file.lastModified() : pack.mtime(index);
+        }
+
+        long transferTo(FileChannel out) throws IOException {
+            if (pack != null) {
+                return pack.transferTo(index, out);
+            }
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                transfer(in, 0, in.size(), out);
+                return in.size();
+            }
+        }
+    }
+
+    /** A stream over LENGTH bytes of a channel starting at an offset. Reads are
+     *  positional, so streams over the same pack don't disturb each other.
+     */
+    private static class RegionInputStream extends InputStream {
+        private final FileChannel channel;
+        private long pos;
+        private long remaining;
+
+        RegionInputStream(FileChannel channel, long pos, long length) {
+            this.channel = channel;
+            this.pos = pos;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            ByteBuffer buf = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+            int n = channel.read(buf, pos);
+            if (n < 0) {
+                return -1;
+            }
+            pos += n;
+            remaining -= n;
+            return n;
+        }
+    }
+}
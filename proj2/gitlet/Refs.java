@@ -0,0 +1,522 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** The branches of a repository and the branch HEAD names, stored much as git
+ *  stores refs. A branch may have a loose file of its own in REFS_DIR holding its
+ *  commit id; branches migrated from older repositories are kept together in
+ *  PACKED_REFS, and a loose file overrides its packed entry.
+ *
+ *  Refs are changed in transactions. Each is appended to JOURNAL as one checksummed
+ *  record and synced once, however many refs it changes, so after a crash every
+ *  ref is either as it was before the whole transaction or as it was after it; a
+ *  torn record at the end is ignored. Transactions are made while holding a Lock on
+ *  the journal, and each change names the value it expects to replace: the refs are
+ *  read again under the lock, and if another process changed any of them first the
+ *  whole transaction fails. Reading needs no lock. The journal is read on top of the
+ *  files, and once it holds JOURNAL_LIMIT records it's folded into them, each written
+ *  to a temporary file, synced and renamed into place, and then deleted. Updating a
+ *  ref therefore costs the same however many branches there are. gc moves every ref
+ *  back into PACKED_REFS (see pack).
+ *
+ *  Every change to a ref, or to the commit HEAD resolves to, is also appended to a
+ *  reflog in LOGS_DIR. Reflogs are written after the journal is synced, and aren't
+ *  synced themselves.
+ *
+ *  @author Alex Rios
+ */
+public class Refs {
+
+    /** File naming the branch HEAD points to. */
+    public static final File HEAD_FILE = join(Repository.GITLET_DIR, ".HEAD");
+    /** Directory holding a file for each loose ref. */
+    public static final File REFS_DIR = join(Repository.GITLET_DIR, ".refs");
+    /** File holding the ids of refs that don't have loose files. */
+    public static final File PACKED_REFS = join(Repository.GITLET_DIR, ".packed-refs");
+    /** File holding the transactions not yet folded into the ref files. */
+    public static final File JOURNAL = join(Repository.GITLET_DIR, ".refs-journal");
+    /** Directory holding the reflogs. */
+    public static final File LOGS_DIR = join(Repository.GITLET_DIR, ".logs");
+    private static final File HEAD_LOG = join(LOGS_DIR, "HEAD");
+    private static final File REF_LOGS = join(LOGS_DIR, "refs");
+
+    /** Journal records at which the journal is folded into the ref files. */
+    private static final int JOURNAL_LIMIT = 256;
+    private static final int RECORD_HEADER = 8;
+    /** The old id logged for a ref that didn't exist. */
+    private static final String NO_COMMIT = "0".repeat(UID_LENGTH);
+
+    /** Operations in a journal record. */
+    private static final byte SET = 1;
+    private static final byte DELETE = 2;
+    private static final byte SET_HEAD = 3;
+
+    /** The branch HEAD names. */
+    private String head;
+    /** Refs changed in the journal, mapped to their ids, or to null if deleted. */
+    private final HashMap<String, String> journaled = new HashMap<>();
+    private int journalRecords;
+    /** Length of the journal's valid records. */
+    private long journalLength;
+    /** Loose refs read so far, mapped to their ids, or to null if they have no file. */
+    private final HashMap<String, String> loose = new HashMap<>();
+    /** Packed refs, read when first needed. */
+    private TreeMap<String, String> packed;
+
+    /** Reads HEAD and the journal. Refs themselves are read as they're asked for. */
+    public static Refs readRefs() throws IOException {
+        Refs refs = new Refs();
+        refs.load();
+        return refs;
+    }
+
+    /** Forgets everything read so far, then reads the journal and HEAD. The journal
+     *  is read first: it's only deleted once everything in it is in the ref files,
+     *  so it's either there to read or already reflected in them.
+     */
+    private void load() throws IOException {
+        head = null;
+        journaled.clear();
+        journalRecords = 0;
+        journalLength = 0;
+        loose.clear();
+        packed = null;
+        readJournal();
+        if (head == null && HEAD_FILE.isFile()) {
+            head = readContentsAsString(HEAD_FILE).trim();
+        }
+    }
+
+    /** Returns true if this repository stores its refs here. */
+    public static boolean exists() {
+        return HEAD_FILE.isFile() || JOURNAL.isFile();
+    }
+
+    /** Stores BRANCHES, mapping names to ids, as packed refs and HEAD as naming the
+     *  branch HEAD, replacing any refs there were. Used to move older repositories'
+     *  branch information here.
+     */
+    @SuppressWarnings("try")
+    public static void create(String head, Map<String, String> branches) throws IOException {
+        try (Lock lock = Lock.acquire(JOURNAL)) {
+            REFS_DIR.mkdir();
+            writePacked(new TreeMap<>(branches));
+            writeAtomic(HEAD_FILE, head + "\n");
+        }
+    }
+
+    /** Returns the branch HEAD names. */
+    public String head() {
+        return head;
+    }
+
+    /** Returns the id of the branch NAME, or null if there's no such branch. */
+    public String get(String name) {
+        if (journaled.containsKey(name)) {
+            return journaled.get(name);
+        }
+        if (!loose.containsKey(name)) {
+            File file = refFile(name);
+            loose.put(name, file.isFile() ? readContentsAsString(file).trim() : null);
+        }
+        String id = loose.get(name);
+        return id != null ? id : packed().get(name);
+    }
+
+    /** Returns the names of every branch, sorted. */
+    public List<String> names() {
+        TreeSet<String> names = new TreeSet<>(packed().keySet());
+        String[] files = REFS_DIR.list();
+        if (files != null) {
+            for (String file : files) {
+                if (!file.endsWith(".tmp")) {
+                    names.add(decode(file));
+                }
+            }
+        }
+        for (Map.Entry<String, String> e : journaled.entrySet()) {
+            if (e.getValue() == null) {
+                names.remove(e.getKey());
+            } else {
+                names.add(e.getKey());
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /** Returns the entries of the reflog of the branch NAME, or of HEAD if NAME is
+     *  null, newest first, each as {old id, new id, time in seconds, message}.
+     */
+    public List<String[]> log(String name) {
+        File file = name == null ? HEAD_LOG : join(REF_LOGS, encode(name));
+        List<String[]> entries = new ArrayList<>();
+        if (!file.isFile()) {
+            return entries;
+        }
+        for (String line : readContentsAsString(file).split("\n")) {
+            String[] fields = line.split(" ", 4);
+            if (fields.length == 4) {
+                entries.add(fields);
+            }
+        }
+        Collections.reverse(entries);
+        return entries;
+    }
+
+    /** Returns every commit id recorded in the reflogs of HEAD and of every branch. */
+    public Set<String> loggedIds() {
+        Set<String> ids = new HashSet<>();
+        List<File> logs = new ArrayList<>();
+        logs.add(HEAD_LOG);
+        File[] refLogs = REF_LOGS.listFiles();
+        if (refLogs != null) {
+            logs.addAll(Arrays.asList(refLogs));
+        }
+        for (File log : logs) {
+            if (!log.isFile()) {
+                continue;
+            }
+            for (String line : readContentsAsString(log).split("\n")) {
+                String[] fields = line.split(" ", 3);
+                for (int i = 0; i < fields.length - 1; i += 1) {
+                    if (!fields[i].equals(NO_COMMIT)) {
+                        ids.add(fields[i]);
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** Moves every branch into PACKED_REFS, then deletes the loose ref files and the
+     *  journal, so reading them all takes a single file. Returns the number of
+     *  branches. Each step leaves the same refs to be read if a crash interrupts it.
+     */
+    @SuppressWarnings("try")
+    public int pack() throws IOException {
+        try (Lock lock = Lock.acquire(JOURNAL)) {
+            load();
+            TreeMap<String, String> all = new TreeMap<>();
+            for (String name : names()) {
+                all.put(name, get(name));
+            }
+            writePacked(all);
+            writeAtomic(HEAD_FILE, head + "\n");
+            File[] files = REFS_DIR.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            JOURNAL.delete();
+            load();
+            return all.size();
+        }
+    }
+
+    /** Returns a new, empty transaction on these refs. */
+    public Transaction begin() {
+        return new Transaction();
+    }
+
+    /** Returns an estimate of the memory used by the refs read so far, in bytes. */
+    long weight() {
+        long entries = journaled.size() + loose.size() + (packed == null ? 0 : packed.size());
+        return 128 + entries * (2L * UID_LENGTH + 160);
+    }
+
+    /** A set of ref changes made all at once. */
+    public class Transaction {
+        private final List<Change> changes = new ArrayList<>();
+
+        /** Points the branch NAME, which must still point at the commit OLD (null if
+         *  it mustn't exist yet), at the commit ID. MESSAGE describes the change in
+         *  the reflog.
+         */
+        public Transaction update(String name, String old, String id, String message) {
+            changes.add(new Change(SET, name, old, id, message));
+            return this;
+        }
+
+        /** Deletes the branch NAME, which must still point at the commit OLD, and its
+         *  reflog.
+         */
+        public Transaction delete(String name, String old) {
+            changes.add(new Change(DELETE, name, old, null, null));
+            return this;
+        }
+
+        /** Points HEAD, which must still name the branch OLD, at the branch NAME. */
+        public Transaction setHead(String name, String old, String message) {
+            changes.add(new Change(SET_HEAD, name, old, null, message));
+            return this;
+        }
+
+        /** Makes every change in this transaction, durably and all at once, or fails
+         *  with an error and makes none of them if another process changed any of
+         *  the refs it expects first.
+         */
+        @SuppressWarnings("try")
+        public void commit() throws IOException {
+            if (changes.isEmpty()) {
+                return;
+            }
+            try (Lock lock = Lock.acquire(JOURNAL)) {
+                load();
+                for (Change change : changes) {
+                    String current = change.op == SET_HEAD ? head : get(change.name);
+                    if (!Objects.equals(current, change.old)) {
+                        Repository.gitletError((change.op == SET_HEAD ? "HEAD" : "Branch "
+                                + change.name) + " was changed by another process.");
+                    }
+                }
+                write();
+            }
+        }
+
+        /** Appends this transaction to the journal and applies it. */
+        private void write() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream ops = new DataOutputStream(bytes)) {
+                for (Change change : changes) {
+                    ops.writeByte(change.op);
+                    ops.writeUTF(change.name);
+                    if (change.op == SET) {
+                        ops.write(ObjectStore.toBytes(change.id));
+                    }
+                }
+            }
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + payload.length);
+            record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+            try (FileChannel ch = FileChannel.open(JOURNAL.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                ch.truncate(journalLength);
+                ch.position(journalLength);
+                while (record.hasRemaining()) {
+                    ch.write(record);
+                }
+                ch.force(true);
+                journalLength = ch.position();
+            }
+            journalRecords += 1;
+            long now = System.currentTimeMillis() / 1000;
+            REF_LOGS.mkdirs();
+            for (Change change : changes) {
+                String name = change.name;
+                if (change.op == SET) {
+                    String old = get(name);
+                    journaled.put(name, change.id);
+                    appendLog(join(REF_LOGS, encode(name)), old, change.id, now, change.message);
+                    if (name.equals(head)) {
+                        appendLog(HEAD_LOG, old, change.id, now, change.message);
+                    }
+                } else if (change.op == DELETE) {
+                    journaled.put(name, null);
+                    join(REF_LOGS, encode(name)).delete();
+                } else {
+                    String old = head == null ? null : get(head);
+                    head = name;
+                    appendLog(HEAD_LOG, old, get(name), now, change.message);
+                }
+            }
+            if (journalRecords >= JOURNAL_LIMIT) {
+                fold();
+            }
+        }
+    }
+
+    /** Reads every complete record in the journal, stopping at the first torn one. */
+    private void readJournal() throws IOException {
+        if (!JOURNAL.isFile()) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(readContents(JOURNAL));
+        int pos = 0;
+        while (pos + RECORD_HEADER <= buf.limit()) {
+            int length = buf.getInt(pos);
+            int checksum = buf.getInt(pos + 4);
+            int start = pos + RECORD_HEADER;
+            if (length < 0 || start + length > buf.limit()) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buf.array(), start, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(buf.array(), start, length));
+            byte[] id = new byte[20];
+            while (in.available() > 0) {
+                byte op = in.readByte();
+                String name = in.readUTF();
+                if (op == SET) {
+                    in.readFully(id);
+                    journaled.put(name, ObjectStore.toHex(ByteBuffer.wrap(id), 0));
+                } else if (op == DELETE) {
+                    journaled.put(name, null);
+                } else {
+                    head = name;
+                }
+            }
+            journalRecords += 1;
+            pos = start + length;
+        }
+        journalLength = pos;
+    }
+
+    /** Writes every ref changed in the journal, and HEAD, to its own file, then
+     *  deletes the journal. A crash part way through leaves the journal to be read
+     *  again, which gives the same refs.
+     */
+    private void fold() throws IOException {
+        REFS_DIR.mkdir();
+        boolean packedChanged = false;
+        for (Map.Entry<String, String> e : journaled.entrySet()) {
+            String name = e.getKey();
+            String id = e.getValue();
+            if (id != null) {
+                writeAtomic(refFile(name), id + "\n");
+            } else {
+                refFile(name).delete();
+                packedChanged |= packed().remove(name) != null;
+            }
+            loose.put(name, id);
+        }
+        if (packedChanged) {
+            writePacked(packed);
+        }
+        writeAtomic(HEAD_FILE, head + "\n");
+        JOURNAL.delete();
+        journaled.clear();
+        journalRecords = 0;
+        journalLength = 0;
+    }
+
+    private TreeMap<String, String> packed() {
+        if (packed == null) {
+            packed = new TreeMap<>();
+            if (PACKED_REFS.isFile()) {
+                for (String line : readContentsAsString(PACKED_REFS).split("\n")) {
+                    int space = line.indexOf(' ');
+                    if (space > 0) {
+                        packed.put(decode(line.substring(space + 1)), line.substring(0, space));
+                    }
+                }
+            }
+        }
+        return packed;
+    }
+
+    /** Writes REFS as the packed refs, one "ID NAME" line each, sorted by name. */
+    private static void writePacked(TreeMap<String, String> refs) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : refs.entrySet()) {
+            sb.append(e.getValue()).append(' ').append(encode(e.getKey())).append('\n');
+        }
+        writeAtomic(PACKED_REFS, sb.toString());
+    }
+
+    /** Replaces FILE with CONTENTS by writing and syncing a temporary file next to it,
+     *  then renaming that over it.
+     */
+    private static void writeAtomic(File file, String contents) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(contents.getBytes(UTF_8));
+            out.getChannel().force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void appendLog(File log, String old, String id, long time, String message)
+            throws IOException {
+        String line = String.format("%s %s %d %s\n", old == null ? NO_COMMIT : old,
+                id == null ? NO_COMMIT : id, time, message.replace('\n', ' '));
+        Files.write(log.toPath(), line.getBytes(UTF_8), StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    private static File refFile(String name) {
+        return join(REFS_DIR, encode(name));
+    }
+
+    /** Returns NAME with every character other than letters, digits, '_' and '-'
+     *  written as %XX escapes of its UTF-8 bytes, so any branch name is a safe file
+     *  name and a single word.
+     */
+    static String encode(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : name.getBytes(UTF_8)) {
+            char c = (char) (b & 0xff);
+            if (c < 0x80 && (Character.isLetterOrDigit(c) || c == '_' || c == '-')) {
+                sb.append(c);
+            } else {
+                sb.append(String.format("%%%02X", b & 0xff));
+            }
+        }
+        return sb.toString();
+    }
+
+    static String decode(String encoded) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < encoded.length(); i += 1) {
+            char c = encoded.charAt(i);
+            if (c == '%' && i + 2 < encoded.length()) {
+                bytes.write(Integer.parseInt(encoded.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                bytes.write(c);
+            }
+        }
+        return bytes.toString(UTF_8);
+    }
+
+    /** One change in a transaction. */
+    private static class Change {
+        private final byte op;
+        private final String name;
+        /** The value the ref is expected to have before the change. */
+        private final String old;
+        private final String id;
+        private final String message;
+
+        Change(byte op, String name, String old, String id, String message) {
+            this.op = op;
+            this.name = name;
+            this.old = old;
+            this.id = id;
+            this.message = message;
+        }
+    }
+}
@@ -1,21 +1,34 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Serial;
 import java.io.Serializable;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Queue;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 
 import static gitlet.Utils.*;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /** Represents a gitlet repository.
  *  Has methods that implement all the gitlet command.
@@ -24,17 +37,22 @@ import static gitlet.Utils.*;
  */
 public class Repository implements Serializable {
 
+    @Serial
+    private static final long serialVersionUID = -7224698922710718469L;
+
     /** The current working directory. */
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** The .gitlet directory. */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
-    /** Directory representing the staging area. Contains add/rm dirs as well. */
+    /** Directory that held the staging area before it was kept in StagingArea.STAGE.
+     *  Only read to migrate older repositories.
+     */
     public static final File STAGING_AREA = join(GITLET_DIR, ".staging");
-    public static final File STAGING_ADD = join(STAGING_AREA, ".add");
-    public static final File STAGING_RM = join(STAGING_AREA, ".rm");
     /** Directory that stores all our blobs. */
     public static final File BLOBS_DIR = join(GITLET_DIR, ".blobs");
-    /** File that stores all our commit info, including branches. */
+    /** File that stored all our commit info, including branches, before they were
+     *  kept as refs. Only read to migrate older repositories.
+     */
     public static final File COMMIT_INFO = join(GITLET_DIR, ".CommitInfo");
 
 
@@ -45,130 +63,201 @@ public class Repository implements Serializable {
             gitletError(msg);
         }
         GITLET_DIR.mkdir();
-        STAGING_AREA.mkdir();
-        STAGING_ADD.mkdir();
-        STAGING_RM.mkdir();
         BLOBS_DIR.mkdir();
-        COMMIT_INFO.createNewFile();
+        new StagingArea().saveStagingArea();
 
         Commit initCommit = new Commit();
         String initUID = initCommit.getUID();
         new CommitInfo("master", initUID);
     }
 
-    /** Stages a file for addition. */
+    /** Stages a file for addition. Its contents are written into the object store
+     *  here, in the same pass that hashes them, so the staging area only records the
+     *  blob id. A file the StatCache knows to be unchanged isn't read at all.
+     */
+    @SuppressWarnings("try")
     public static void add(String name) throws IOException {
-        Commit currCommit = Commit.readCommit(CommitInfo.readCommitInfo().getHeadCommit());
-        String currVersion = currCommit.getBlobUID(name);
-        File addedFile = join(CWD, name);
-        File stageFile = join(STAGING_ADD, name);
-        if (!addedFile.exists()) {
-            gitletError("File does not exist.");
-        }
-        if (sha1(readContents(addedFile)).equals(currVersion)) {
-            stageFile.delete();
-        } else {
-            Files.copy(addedFile.toPath(), stageFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        try (Lock lock = StagingArea.lock()) {
+            name = repoPath(name);
+            Commit currCommit = Commit.readCommit(CommitInfo.readCommitInfo().getHeadCommit());
+            String currVersion = currCommit.getBlobUID(name);
+            File addedFile = join(CWD, name);
+            if (!addedFile.isFile()) {
+                gitletError("File does not exist.");
+            }
+            StagingArea stage = StagingArea.readStagingArea();
+            StatCache cache = StatCache.readStatCache();
+            String blobUID = cache.store(name, addedFile, currVersion);
+            if (blobUID.equals(currVersion)) {
+                stage.unstage(name);
+            } else {
+                stage.add(name, blobUID);
+            }
+            stage.saveStagingArea();
+            cache.saveStatCache();
         }
-        join(STAGING_RM, name).delete();
-
     }
 
     /** Creates a new commit. */
+    @SuppressWarnings("try")
     public static void newCommit(String msg, String secParent) throws IOException {
-        CommitInfo currInfo = CommitInfo.readCommitInfo();
-        List<String> addList = plainFilenamesIn(STAGING_ADD);
-        List<String> rmList = plainFilenamesIn(STAGING_RM);
-        if (addList.isEmpty() && rmList.isEmpty()) {
-            gitletError("No changes added to the commit.");
+        try (Lock lock = StagingArea.lock()) {
+            CommitInfo currInfo = CommitInfo.readCommitInfo();
+            StagingArea stage = StagingArea.readStagingArea();
+            if (stage.isEmpty()) {
+                gitletError("No changes added to the commit.");
+            }
+            new Commit(msg, currInfo.getHeadCommit(), secParent, stage);
+            clearStagingArea();
         }
-        new Commit(msg, currInfo.getHeadCommit(), secParent);
-        clearStagingArea();
     }
 
     /** Stages a file for removal, deleting it from CWD. */
+    @SuppressWarnings("try")
     public static void remove(String name) throws IOException {
-        Commit currCommit = Commit.readCommit(CommitInfo.readCommitInfo().getHeadCommit());
-        File stagedAdd = join(STAGING_ADD, name);
-        File rmFile = join(CWD, name);
-        File stageFile = join(STAGING_RM, name);
+        try (Lock lock = StagingArea.lock()) {
+            name = repoPath(name);
+            Commit currCommit = Commit.readCommit(CommitInfo.readCommitInfo().getHeadCommit());
+            StagingArea stage = StagingArea.readStagingArea();
+            File rmFile = join(CWD, name);
 
-        Boolean isTracked = currCommit.isTracked(name);
-        if (!stagedAdd.exists() && !isTracked) {
-            gitletError("No reason to remove the file.");
-        }
-        stagedAdd.delete();
-        if (isTracked) {
-            stageFile.createNewFile();
-            rmFile.delete();
+            Boolean isTracked = currCommit.isTracked(name);
+            if (stage.blobUID(name) == null && !isTracked) {
+                gitletError("No reason to remove the file.");
+            }
+            if (isTracked) {
+                stage.remove(name);
+                deleteFile(rmFile, CWD);
+            } else {
+                stage.unstage(name);
+            }
+            stage.saveStagingArea();
         }
     }
 
-    /** Prints the log of all commits starting at HEAD. */
+    /** Prints the log of all commits starting at HEAD. Parents are found through the
+     *  commit graph, so each commit is only read to print its message.
+     */
     public static void log() {
         CommitInfo currInfo = CommitInfo.readCommitInfo();
-        Commit currCommit = Commit.readCommit(currInfo.getHeadCommit());
-        while (currCommit.getParent() != null) {
+        CommitGraph graph = CommitGraph.readCommitGraph();
+        int pos = graph.add(currInfo.getHeadCommit());
+        while (pos >= 0) {
+            Commit currCommit = Commit.readCommit(graph.id(pos));
+            int parent = graph.parent(pos);
             System.out.println("===");
             System.out.println("commit " + currCommit.getUID());
             if (currCommit.getSecParent() != null) {
-                String parent = currCommit.getParent().substring(0, 7);
+                String firstParent = currCommit.getParent().substring(0, 7);
                 String secParent = currCommit.getSecParent().substring(0, 7);
-                System.out.println("Merge: " + parent + " " + secParent);
+                System.out.println("Merge: " + firstParent + " " + secParent);
             }
             System.out.println("Date: " + currCommit.getTimestamp());
-            System.out.println(currCommit.getMessage() + "\n");
-            currCommit = Commit.readCommit(currCommit.getParent());
-        }
-        System.out.println("===");
-        System.out.println("commit " + currCommit.getUID());
-        System.out.println("Date: " + currCommit.getTimestamp());
-        System.out.println(currCommit.getMessage());
-    }
-
-    /** Prints log of all commits ever made. */
-    public static void globalLog() {
-        List<String> commitList = plainFilenamesIn(GITLET_DIR);
-        for (String curr : commitList) {
-            if (!curr.equals(".CommitInfo")) {
-                Commit currCommit = Commit.readCommit(curr);
-                System.out.println("===");
-                if (currCommit.getSecParent() != null) {
-                    String parent = currCommit.getParent().substring(0, 6);
-                    String secParent = currCommit.getSecParent().substring(0, 6);
-                    System.out.println("Merge: " + parent + secParent);
+            System.out.println(currCommit.getMessage() + (parent >= 0 ? "\n" : ""));
+            pos = parent;
+        }
+    }
+
+    /** Prints log of all commits ever made, streamed in commit order from the
+     *  commit table.
+     */
+    public static void globalLog() throws IOException {
+        CommitTable table = CommitTable.readCommitTable();
+        CommitGraph graph = table.graph();
+        PrintWriter out = bufferedOut();
+        try (CommitTable.Cursor cursor = table.cursor()) {
+            while (cursor.next()) {
+                int pos = cursor.position();
+                out.println("===");
+                if (graph.secParent(pos) >= 0) {
+                    String parent = graph.id(graph.parent(pos)).substring(0, 6);
+                    String secParent = graph.id(graph.secParent(pos)).substring(0, 6);
+                    out.println("Merge: " + parent + secParent);
                 }
-                System.out.println("commit " + currCommit.getUID());
-                System.out.println("Date: " + currCommit.getTimestamp());
-                System.out.println(currCommit.getMessage() + "\n");
+                out.println("commit " + graph.id(pos));
+                out.println("Date: " + cursor.timestamp());
+                out.println(cursor.message() + "\n");
             }
         }
+        out.flush();
     }
 
-    /** Prints the ids of all commits with the given message. */
-    public static void find(String msg) {
-        List<String> commitList = plainFilenamesIn(GITLET_DIR);
-        Boolean commitExists = false;
-        for (String curr : commitList) {
-            if (!curr.equals(".CommitInfo")) {
-                Commit currCommit = Commit.readCommit(curr);
-                if (currCommit.getMessage().equals(msg)) {
-                    System.out.println(currCommit.getUID());
-                    commitExists = true;
+    /** Prints the ids of all commits with the given message, in sorted order.
+     *  MODE is null to match the whole message, "--substring" to match messages
+     *  containing MSG, or "--regex" to match messages in which the regular expression
+     *  MSG can be found. Candidates are narrowed down with the message index where
+     *  MSG has whole words to look up, and read from the commit table otherwise.
+     */
+    public static void find(String msg, String mode) throws IOException {
+        CommitTable table = CommitTable.readCommitTable();
+        List<String> words;
+        Pattern regex = null;
+        if (mode == null) {
+            words = MessageIndex.words(msg);
+        } else if (mode.equals("--substring")) {
+            words = MessageIndex.wholeWords(msg);
+        } else if (mode.equals("--regex")) {
+            words = Collections.emptyList();
+            try {
+                regex = Pattern.compile(msg);
+            } catch (PatternSyntaxException excp) {
+                gitletError("Invalid regular expression.");
+            }
+        } else {
+            gitletError("Incorrect operands.");
+            return;
+        }
+
+        List<String> found = new ArrayList<>();
+        if (words.isEmpty()) {
+            try (CommitTable.Cursor cursor = table.cursor()) {
+                while (cursor.next()) {
+                    if (matches(cursor.message(), msg, mode, regex)) {
+                        found.add(table.graph().id(cursor.position()));
+                    }
+                }
+            }
+        } else {
+            MessageIndex index = MessageIndex.readMessageIndex(table);
+            for (int pos : index.candidates(words)) {
+                if (matches(table.message(pos), msg, mode, regex)) {
+                    found.add(table.graph().id(pos));
                 }
             }
         }
-        if (!commitExists) {
+        if (found.isEmpty()) {
             gitletError("Found no commit with that message.");
         }
+        Collections.sort(found);
+        PrintWriter out = bufferedOut();
+        for (String uid : found) {
+            out.println(uid);
+        }
+        out.flush();
+    }
+
+    private static boolean matches(String message, String msg, String mode, Pattern regex) {
+        if (regex != null) {
+            return regex.matcher(message).find();
+        }
+        return mode == null ? message.equals(msg) : message.contains(msg);
+    }
+
+    /** Returns a writer over System.out that only flushes when asked to, for
+     *  commands that print many lines.
+     */
+    private static PrintWriter bufferedOut() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, UTF_8),
+                1 << 16), false);
     }
 
     /** Prints existing branches, files staged for addition/removal, modifications
      *  not staged for commit, and current files that are untracked.
      */
-    public static void status() {
+    public static void status() throws IOException {
         CommitInfo currInfo = CommitInfo.readCommitInfo();
-        Commit currComit = Commit.readCommit(currInfo.getHeadCommit());
+        Status status = new Status(Commit.readCommit(currInfo.getHeadCommit()));
+        status.scan();
         System.out.println("=== Branches ===");
         String[] branches = currInfo.sortedBranches();
         for (String branch : branches) {
@@ -178,48 +267,25 @@ public class Repository implements Serializable {
             System.out.println(branch);
         }
         System.out.println("\n" + "=== Staged Files ===");
-        printFiles(plainFilenamesIn(STAGING_ADD));
+        printFiles(status.staged());
         System.out.println("=== Removed Files ===");
-        printFiles(plainFilenamesIn(STAGING_RM));
+        printFiles(status.removed());
         System.out.println("=== Modifications Not Staged For Commit ===");
-        modifiedNotStaged();
+        printFiles(status.modified());
         System.out.println("=== Untracked Files ===");
-        List<String> untrackedList = new ArrayList<>();
-        for (String file : plainFilenamesIn(CWD)) {
-            if (!currComit.isTracked(file) && !join(STAGING_ADD, file).exists()) {
-                untrackedList.add(file);
-            }
-        }
-        printFiles(untrackedList);
+        printFiles(status.untracked());
     }
-    /** Prints out the "Modifications Not Staged For Commit section. */
-    private static void modifiedNotStaged() {
-        CommitInfo currInfo = CommitInfo.readCommitInfo();
-        Commit currCommit = Commit.readCommit(currInfo.getHeadCommit());
-        Set<String> fileSet = new HashSet<>(plainFilenamesIn(CWD));
-        fileSet.addAll(currCommit.getBlobMap().keySet());
-        List<String> totalList = new ArrayList<>();
-        for (String file : fileSet) {
-            File currFile = join(CWD, file);
-            File addFile = join(STAGING_ADD, file);
-            File rmFile = join(STAGING_RM, file);
-            if (currFile.exists()) {
-                String fileHash = (sha1(readContents(currFile)));
-                if ((currCommit.isTracked(file)
-                        && !Objects.equals(fileHash, currCommit.getBlobUID(file))
-                        && !addFile.exists())
-                        && !readContentsAsString(currFile).contains("<<<<<<< HEAD")
-                        || (addFile.exists()
-                        && !Objects.equals(fileHash, sha1(readContents(addFile))))) {
-                    totalList.add(file + " (modified)");
-                }
-            } else {
-                if (addFile.exists() || (!rmFile.exists()) && currCommit.isTracked(file)) {
-                    totalList.add(file + " (deleted)");
+    /** Returns true if FILE contains merge conflict markers, scanning it line by line. */
+    static boolean hasConflictMarkers(File file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.contains("<<<<<<< HEAD")) {
+                    return true;
                 }
             }
         }
-        printFiles(totalList);
+        return false;
     }
     /** Prints out a list of file names, sorted lexicographically. */
     private static void printFiles(List<String> fileList) {
@@ -232,6 +298,79 @@ public class Repository implements Serializable {
         System.out.println("");
     }
 
+    /** Prints the differences between HEAD and the working directory, for every file
+     *  tracked by HEAD or staged for addition, as a unified diff. Files whose hash
+     *  (from the StatCache) matches HEAD's blob are skipped without being read.
+     */
+    public static void diff() throws IOException {
+        Commit head = Commit.readCommit(CommitInfo.readCommitInfo().getHeadCommit());
+        HashMap<String, String> tracked = new HashMap<>();
+        Tree.flatten(head.getTree(), tracked);
+        TreeSet<String> paths = new TreeSet<>(tracked.keySet());
+        paths.addAll(StagingArea.readStagingArea().added().keySet());
+        StatCache cache = StatCache.readStatCache();
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        for (String path : paths) {
+            String blob = tracked.get(path);
+            File file = join(CWD, path);
+            if (!file.isFile()) {
+                if (blob != null) {
+                    UnifiedDiff.write(path, readBlob(blob), null, out);
+                }
+            } else if (!cache.hash(path, file).equals(blob)) {
+                UnifiedDiff.write(path, readBlob(blob), readContents(file), out);
+            }
+        }
+        out.flush();
+        cache.saveStatCache();
+    }
+
+    /** Prints the differences between HEAD and the staging area as a unified diff. */
+    public static void diffStaged() throws IOException {
+        Commit head = Commit.readCommit(CommitInfo.readCommitInfo().getHeadCommit());
+        StagingArea stage = StagingArea.readStagingArea();
+        TreeSet<String> paths = new TreeSet<>(stage.added().keySet());
+        paths.addAll(stage.removed());
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        for (String path : paths) {
+            String blob = head.getBlobUID(path);
+            String staged = stage.blobUID(path);
+            if (!Objects.equals(staged, blob)) {
+                UnifiedDiff.write(path, readBlob(blob), readBlob(staged), out);
+            }
+        }
+        out.flush();
+    }
+
+    /** Prints the differences between the commits with the given (possibly
+     *  abbreviated) ids as a unified diff. Only files whose blobs differ are read,
+     *  and subtrees the two commits share aren't read at all.
+     */
+    public static void diff(String from, String to) throws IOException {
+        Commit before = Commit.readCommit(fullUID(from));
+        Commit after = Commit.readCommit(fullUID(to));
+        TreeSet<String> paths = new TreeSet<>();
+        Tree.diff(before.getTree(), after.getTree(), paths);
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        for (String path : paths) {
+            UnifiedDiff.write(path, readBlob(before.getBlobUID(path)),
+                    readBlob(after.getBlobUID(path)), out);
+        }
+        out.flush();
+    }
+
+    /** Returns the contents of the blob with the given id, or null if ID is null. */
+    private static byte[] readBlob(String id) {
+        if (id == null) {
+            return null;
+        }
+        byte[] contents = ObjectStore.read(id, ObjectStore.BLOB);
+        if (contents == null) {
+            throw error("Missing blob %s.", id);
+        }
+        return contents;
+    }
+
     /** All three cases for checkout. */
     public static void checkout(String fileName) throws IOException {
         CommitInfo currInfo = CommitInfo.readCommitInfo();
@@ -239,56 +378,39 @@ public class Repository implements Serializable {
 
     }
     public static void checkout(String commitUID, String fileName) throws IOException {
+        fileName = repoPath(fileName);
         commitUID = fullUID(commitUID);
         Commit targetCommit = Commit.readCommit(commitUID);
         String blobUID = targetCommit.getBlobUID(fileName);
         if (blobUID != null) {
-            File blobFile = join(BLOBS_DIR, blobUID);
             File targetFile = join(CWD, fileName);
-            Files.copy(blobFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            targetFile.getParentFile().mkdirs();
+            ObjectStore.copyTo(blobUID, targetFile);
+            StatCache cache = StatCache.readStatCache();
+            cache.update(fileName, targetFile, blobUID);
+            cache.saveStatCache();
         } else {
             gitletError("File does not exist in that commit.");
         }
     }
+    @SuppressWarnings("try")
     public static void checkoutBranch(String branch) throws IOException {
-        CommitInfo currInfo = CommitInfo.readCommitInfo();
-        String branchUID = currInfo.branchUID(branch);
-        if (branchUID == null) {
-            gitletError("No such branch exists.");
-        }
-        checkUntracked(branchUID);
-        if (branch.equals(currInfo.getHEAD())) {
-            gitletError("No need to checkout the current branch.");
-        }
-        Commit branchCommit = Commit.readCommit(branchUID);
-        delUntracked(branchCommit);
-        branchCommit.checkoutCommit();
-        currInfo.changeHead(branch);
-        clearStagingArea();
-    }
-    /** Checks if there's an untracked file that would be overwritten. */
-    private static void checkUntracked(String otherBranch) {
-        Commit currCommit = Commit.readCommit(CommitInfo.readCommitInfo().getHeadCommit());
-        Commit otherCommit = Commit.readCommit(otherBranch);
-        List<String> cwdFiles = plainFilenamesIn(CWD);
-        String er = "There is an untracked file in the way; delete it, or add and commit it first.";
-        if (cwdFiles != null) {
-            for (String fileName : cwdFiles) {
-                if (!currCommit.isTracked(fileName) && otherCommit.isTracked(fileName)) {
-                    gitletError(er);
-                }
+        try (Lock lock = StagingArea.lock()) {
+            CommitInfo currInfo = CommitInfo.readCommitInfo();
+            String branchUID = currInfo.branchUID(branch);
+            if (branchUID == null) {
+                gitletError("No such branch exists.");
             }
-        }
-    }
-    /** Deletes files in cwd not tracked by the given commit  */
-    private static void delUntracked(Commit targetCommit) throws IOException {
-        List<String> cwdFiles = plainFilenamesIn(CWD);
-        if (cwdFiles != null) {
-            for (String fileName : cwdFiles) {
-                if (!targetCommit.isTracked(fileName)) {
-                    Files.delete(join(CWD, fileName).toPath());
-                }
+            Checkout checkout = new Checkout(Commit.readCommit(currInfo.getHeadCommit()),
+                    Commit.readCommit(branchUID));
+            checkout.checkUntracked();
+            if (branch.equals(currInfo.getHEAD())) {
+                gitletError("No need to checkout the current branch.");
             }
+            checkout.run();
+            verbose("checkout: " + checkout);
+            currInfo.changeHead(branch);
+            clearStagingArea();
         }
     }
 
@@ -304,148 +426,209 @@ public class Repository implements Serializable {
         currInfo.removeBranch(name);
     }
 
+    /** Prints the reflog of the given branch, or of HEAD if BRANCH is null: every
+     *  commit it has pointed to, newest first, and why it moved there.
+     */
+    public static void reflog(String branch) {
+        CommitInfo currInfo = CommitInfo.readCommitInfo();
+        if (branch != null && currInfo.branchUID(branch) == null) {
+            gitletError("A branch with that name does not exist.");
+        }
+        String name = branch == null ? "HEAD" : branch;
+        List<String[]> entries = currInfo.reflog(branch);
+        for (int i = 0; i < entries.size(); i += 1) {
+            String[] entry = entries.get(i);
+            System.out.println(entry[1].substring(0, 7) + " " + name + "@{" + i + "}: "
+                    + entry[3]);
+        }
+    }
+
     /** Checks out all files tracked by the given commit. */
+    @SuppressWarnings("try")
     public static void reset(String commitUID) throws IOException {
-        CommitInfo currInfo = CommitInfo.readCommitInfo();
-        checkUntracked(commitUID);
-        commitUID = fullUID(commitUID);
-        Commit targetCommit = Commit.readCommit(commitUID);
-        delUntracked(targetCommit);
-        targetCommit.checkoutCommit();
-        currInfo.updateHead(commitUID);
-        clearStagingArea();
-    }
-    /** Returns the fullUID of the commit if it exists. Otherwise, returns error message. */
-    private static String fullUID(String uid) {
-        if (uid.length() == 40 && join(GITLET_DIR, uid).exists()) {
-            return uid;
-        } else if (uid.length() >= 6) {
-            List<String> commitList = plainFilenamesIn(GITLET_DIR);
-            for (String currUID : commitList) {
-                if (currUID.startsWith(uid)) {
-                    return currUID;
-                }
+        try (Lock lock = StagingArea.lock()) {
+            CommitInfo currInfo = CommitInfo.readCommitInfo();
+            commitUID = fullUID(commitUID);
+            Commit head = Commit.readCommit(currInfo.getHeadCommit());
+            Checkout checkout = new Checkout(head, Commit.readCommit(commitUID));
+            checkout.checkUntracked();
+            checkout.run();
+            verbose("reset: " + checkout);
+            currInfo.updateHead(head.getUID(), commitUID, "reset: moving to " + commitUID);
+            clearStagingArea();
+        }
+    }
+    /** Returns the fullUID of the commit if it exists and the given prefix is unique.
+     *  Otherwise, returns error message.
+     */
+    static String fullUID(String uid) {
+        if (uid.length() >= 6) {
+            List<String> matches = UidIndex.readUidIndex().resolve(uid, 2);
+            if (matches.size() == 1) {
+                return matches.get(0);
+            } else if (matches.size() > 1) {
+                gitletError("Ambiguous commit id.");
             }
         }
         gitletError("No commit with that id exists.");
         return null;
     }
 
+    @SuppressWarnings("try")
     public static void merge(String otherBranch) throws IOException {
-        CommitInfo currInfo = CommitInfo.readCommitInfo();
-        if (!plainFilenamesIn(STAGING_ADD).isEmpty() || !plainFilenamesIn(STAGING_RM).isEmpty()) {
-            gitletError("You have uncommitted changes.");
-        }
-        if (currInfo.branchUID(otherBranch) == null) {
-            gitletError("A branch with that name does not exist.");
-        }
-        checkUntracked(currInfo.branchUID(otherBranch));
-        boolean hasConflict = false;
-        if (currInfo.getHEAD().equals(otherBranch)) {
-            gitletError("Cannot merge a branch with itself.");
-        }
-        Commit headCommit = Commit.readCommit(currInfo.getHeadCommit());
-        Commit otherCommit = Commit.readCommit(currInfo.branchUID(otherBranch));
-        Commit splitCommit = splitPoint(headCommit, otherCommit);
-        if (splitCommit.getUID().equals(otherCommit.getUID())) {
-            gitletError("Given branch is an ancestor of the current branch.");
-        } else if (splitCommit.getUID().equals(headCommit.getUID())) {
-            checkoutBranch(otherBranch);
-            gitletError("Current branch fast-forwarded.");
-        }
-        Set<String> fileNames = fileSet(splitCommit, headCommit, otherCommit);
-        for (String name : fileNames) {
-            String headFile = headCommit.getBlobUID(name);
-            String otherFile = otherCommit.getBlobUID(name);
-            String splitFile = splitCommit.getBlobUID(name);
-            if (splitFile != null && (headFile != null || otherFile != null)) {
-                if (!Objects.equals(otherFile, splitFile) && Objects.equals(headFile, splitFile)) {
-                    if (otherFile == null) {
+        try (Lock lock = StagingArea.lock()) {
+            CommitInfo currInfo = CommitInfo.readCommitInfo();
+            if (!StagingArea.readStagingArea().isEmpty()) {
+                gitletError("You have uncommitted changes.");
+            }
+            if (currInfo.branchUID(otherBranch) == null) {
+                gitletError("A branch with that name does not exist.");
+            }
+            new Checkout(Commit.readCommit(currInfo.getHeadCommit()),
+                    Commit.readCommit(currInfo.branchUID(otherBranch))).checkUntracked();
+            boolean hasConflict = false;
+            if (currInfo.getHEAD().equals(otherBranch)) {
+                gitletError("Cannot merge a branch with itself.");
+            }
+            Commit headCommit = Commit.readCommit(currInfo.getHeadCommit());
+            Commit otherCommit = Commit.readCommit(currInfo.branchUID(otherBranch));
+            if (isAncestor(otherCommit, headCommit)) {
+                gitletError("Given branch is an ancestor of the current branch.");
+            } else if (isAncestor(headCommit, otherCommit)) {
+                checkoutBranch(otherBranch);
+                gitletDone("Current branch fast-forwarded.");
+            }
+            Commit splitCommit = splitPoint(headCommit, otherCommit);
+            Set<String> fileNames = fileSet(splitCommit, headCommit, otherCommit);
+            for (String name : fileNames) {
+                String headFile = headCommit.getBlobUID(name);
+                String otherFile = otherCommit.getBlobUID(name);
+                String splitFile = splitCommit.getBlobUID(name);
+                if (splitFile != null && (headFile != null || otherFile != null)) {
+                    if (!Objects.equals(otherFile, splitFile)
+                            && Objects.equals(headFile, splitFile)) {
+                        if (otherFile == null) {
+                            remove(name);
+                        } else {
+                            checkout(otherCommit.getUID(), name);
+                            add(name);
+                        }
+
+                    } else if (Objects.equals(headFile, splitFile) && otherFile == null) {
                         remove(name);
-                    } else {
+                    }
+                }
+                if (!Objects.equals(headFile, splitFile) && !Objects.equals(otherFile, splitFile)) {
+                    if (!Objects.equals(headFile, otherFile)) {
+                        if (mergeFile(name, splitFile, headFile, otherFile)) {
+                            hasConflict = true;
+                        } else {
+                            add(name);
+                        }
+                    }
+                }
+                if (splitFile == null) {
+                    if (headFile == null && otherFile != null) {
                         checkout(otherCommit.getUID(), name);
                         add(name);
                     }
-
-                } else if (Objects.equals(headFile, splitFile) && otherFile == null) {
-                    remove(name);
                 }
             }
-            if (!Objects.equals(headFile, splitFile) && !Objects.equals(otherFile, splitFile)) {
-                if (!Objects.equals(headFile, otherFile)) {
-                    conflict(name, headFile, otherFile);
-                    hasConflict = true;
-                }
-            }
-            if (splitFile == null) {
-                if (headFile == null && otherFile != null) {
-                    checkout(otherCommit.getUID(), name);
-                    add(name);
-                }
+            newCommit("Merged " + otherBranch + " into " + currInfo.getHEAD() + ".",
+                    otherCommit.getUID());
+            if (hasConflict) {
+                gitletDone("Encountered a merge conflict.");
             }
         }
-        newCommit("Merged " + otherBranch + " into " + currInfo.getHEAD() + ".",
-                otherCommit.getUID());
-        if (hasConflict) {
-            gitletError("Encountered a merge conflict.");
-        }
     }
-    /** Returns a set of all filenames between all three commits. */
+    /** Returns a set of all filenames that differ between the split point and either
+     *  of the other two commits. Every other file is the same in all three, so merge
+     *  has nothing to do for it. Subtrees that are the same on both sides of a
+     *  comparison are skipped, so this only reads the trees along changed paths.
+     */
     public static Set<String> fileSet(Commit split, Commit head, Commit other) {
-        Set<String> totalSet = new HashSet<>(split.getBlobMap().keySet());
-        totalSet.addAll(head.getBlobMap().keySet());
-        totalSet.addAll(other.getBlobMap().keySet());
+        Set<String> totalSet = new HashSet<>();
+        Tree.diff(split.getTree(), head.getTree(), totalSet);
+        Tree.diff(split.getTree(), other.getTree(), totalSet);
         return totalSet;
     }
-    /** Returns the commit of the split point given another branch. */
-    private static Commit splitPoint(Commit head, Commit other) {
-        Queue<Commit> commitQ = new LinkedList<>();
-        commitQ.add(head);
-        HashSet<String> marked = new HashSet<>();
-        marked.add(head.getUID());
-        while (!commitQ.isEmpty()) {
-            Commit currCommit = commitQ.remove();
-            String parent = currCommit.getParent();
-            String secParent = currCommit.getSecParent();
-            if (!marked.contains(parent) && parent != null) {
-                marked.add(parent);
-                commitQ.add(Commit.readCommit(parent));
-            }
-            if (!marked.contains(secParent) && secParent != null) {
-                marked.add(secParent);
-                commitQ.add(Commit.readCommit(secParent));
-            }
+    /** Returns true if ANCESTOR is DESCENDANT or one of its ancestors. This is a bit
+     *  lookup in the reachability bitmaps of DESCENDANT or its nearest ancestors with
+     *  one, and a merge base search if they're too far back.
+     */
+    private static boolean isAncestor(Commit ancestor, Commit descendant) {
+        Boolean reached = Bitmaps.readBitmaps().reaches(descendant.getUID(), ancestor.getUID());
+        if (reached != null) {
+            return reached;
         }
-        commitQ.add(other);
-        while (!commitQ.isEmpty()) {
-            Commit currCommit = commitQ.remove();
-            String otherParent = currCommit.getParent();
-            String otherSecParent = currCommit.getSecParent();
-            if (marked.contains(currCommit.getUID())) {
-                return currCommit;
-            }
-            if (otherParent != null) {
-                commitQ.add(Commit.readCommit(otherParent));
-            }
-            if (otherSecParent != null) {
-                commitQ.add(Commit.readCommit(otherSecParent));
-            }
+        Commit split = splitPoint(ancestor, descendant);
+        return split != null && split.getUID().equals(ancestor.getUID());
+    }
+    /** Returns the commit of the split point given another branch: the best merge base
+     *  of the two commits, found by walking the commit graph from both at once.
+     */
+    @SuppressWarnings("try")
+    static Commit splitPoint(Commit head, Commit other) {
+        try (Trace.Span span = Trace.span("splitPoint")) {
+            CommitGraph graph = CommitGraph.readCommitGraph();
+            int split = new MergeBase(graph).best(graph.add(head), graph.add(other));
+            return split < 0 ? null : Commit.readCommit(graph.id(split));
         }
-        return null;
     }
-    /** Prints out a merge conflict given two files. */
-    private static void conflict(String name, String head, String other) {
-        String conflictString = "<<<<<<< HEAD\n";
-        if (head != null) {
-            conflictString += readContentsAsString(join(BLOBS_DIR, head));
+    /** Writes the merge of the blobs HEAD and OTHER, both changed from SPLIT (any of
+     *  which may be null if the file is missing there), to the file NAME, and returns
+     *  true if it has conflicts. Text files changed on both sides are merged line by
+     *  line, so only the regions changed differently on each side conflict. A file
+     *  deleted on one side, or a binary file, is a conflict as a whole.
+     */
+    private static boolean mergeFile(String name, String split, String head, String other)
+            throws IOException {
+        if (head == null || other == null) {
+            conflict(name, head, other);
+            return true;
+        }
+        byte[] base = split == null ? new byte[0] : ObjectStore.read(split, ObjectStore.BLOB);
+        byte[] ours = ObjectStore.read(head, ObjectStore.BLOB);
+        byte[] theirs = ObjectStore.read(other, ObjectStore.BLOB);
+        if (Diff.isBinary(base) || Diff.isBinary(ours) || Diff.isBinary(theirs)) {
+            conflict(name, head, other);
+            return true;
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(join(CWD, name)))) {
+            return Merge3.merge(base, ours, theirs, out) > 0;
         }
-        conflictString += "=======\n";
-        if (other != null) {
-            conflictString += readContentsAsString(join(BLOBS_DIR, other));
+    }
+
+    /** Prints out a merge conflict given two files, streaming both blobs into it. */
+    private static void conflict(String name, String head, String other) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(join(CWD, name)))) {
+            out.write("<<<<<<< HEAD\n".getBytes(UTF_8));
+            if (head != null) {
+                try (InputStream in = ObjectStore.open(head)) {
+                    in.transferTo(out);
+                }
+            }
+            out.write("=======\n".getBytes(UTF_8));
+            if (other != null) {
+                try (InputStream in = ObjectStore.open(other)) {
+                    in.transferTo(out);
+                }
+            }
+            out.write(">>>>>>>\n".getBytes(UTF_8));
         }
-        conflictString += ">>>>>>>\n";
-        writeContents(join(CWD, name), conflictString);
+    }
+
+    /** Consolidates all loose objects into pack files. */
+    public static void repack() throws IOException {
+        ObjectStore.repack();
+    }
 
+    /** Deletes every object that can't be reached from a branch or the staging area,
+     *  or from the reflogs if KEEPREFLOG, and was stored more than GRACE seconds ago,
+     *  and repacks the rest.
+     */
+    public static void gc(boolean keepReflog, long grace) throws IOException {
+        new GarbageCollector(keepReflog, grace).run();
     }
 
     /** Checks to see if the repo has been initialized. */
@@ -456,26 +639,106 @@ public class Repository implements Serializable {
     }
 
     /** Clears the staging area. */
-    private static void clearStagingArea() {
-        List<String> addList = plainFilenamesIn(STAGING_ADD);
-        List<String> rmList = plainFilenamesIn(STAGING_RM);
-        if (addList != null) {
-            for (String curr : addList) {
-                File currFile = join(STAGING_ADD, curr);
-                currFile.delete();
+    private static void clearStagingArea() throws IOException {
+        new StagingArea().saveStagingArea();
+    }
+
+    /** Returns the paths, relative to DIR and with '/' separators, of every plain
+     *  file in DIR or its subdirectories, in sorted order. The .gitlet directory
+     *  is skipped, as are symbolic links to directories.
+     */
+    static List<String> filesUnder(File dir) {
+        List<String> files = new ArrayList<>();
+        listFiles(dir, "", files);
+        Collections.sort(files);
+        return files;
+    }
+
+    private static void listFiles(File dir, String prefix, List<String> files) {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        for (File entry : entries) {
+            if (entry.isFile()) {
+                files.add(prefix + entry.getName());
+            } else if (entry.isDirectory() && !entry.equals(GITLET_DIR)
+                    && !Files.isSymbolicLink(entry.toPath())) {
+                listFiles(entry, prefix + entry.getName() + "/", files);
             }
         }
-        if (rmList != null) {
-            for (String curr : rmList) {
-                File currFile = join(STAGING_RM, curr);
-                currFile.delete();
-            }
+    }
+
+    /** Deletes FILE, then any directories that leaves empty up to, but not
+     *  including, ROOT.
+     */
+    static void deleteFile(File file, File root) {
+        file.delete();
+        File dir = file.getParentFile();
+        while (dir != null && !dir.equals(root) && dir.delete()) {
+            dir = dir.getParentFile();
         }
     }
 
-    /** Prints the given message and exits. */
+    /** Returns the path of the file NAME relative to the CWD, normalized and with '/'
+     *  separators, as it is tracked in commits.
+     */
+    private static String repoPath(String name) {
+        Path cwd = CWD.toPath().toAbsolutePath().normalize();
+        Path path = cwd.resolve(name).normalize();
+        if (!path.startsWith(cwd) || path.equals(cwd)
+                || path.startsWith(GITLET_DIR.toPath().toAbsolutePath().normalize())) {
+            gitletError("File does not exist.");
+        }
+        return cwd.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /** Prints MSG to stderr if the gitlet.verbose system property is set. */
+    static void verbose(String msg) {
+        if (Boolean.getBoolean("gitlet.verbose")) {
+            System.err.println(msg);
+        }
+    }
+
+    /** Drops everything read from .gitlet and kept in memory by this process, for
+     *  when another process may have changed the repository.
+     */
+    static void forgetCaches() {
+        ObjectStore.forget();
+        Tree.forget();
+        Commit.forget();
+        CommitInfo.forget();
+        CommitGraph.forget();
+        CommitTable.forget();
+        UidIndex.forget();
+        Bitmaps.forget();
+    }
+
+    /** Reports how well each in-memory cache did, if the gitlet.verbose system
+     *  property is set. Otherwise returns before touching, and so loading, any of
+     *  the caches' classes.
+     */
+    static void reportCaches() {
+        if (!Boolean.getBoolean("gitlet.verbose")) {
+            return;
+        }
+        System.err.println(Commit.COMMITS);
+        System.err.println(CommitInfo.CACHE);
+        System.err.println(Tree.TREES);
+        System.err.println(ObjectStore.BLOBS);
+    }
+
+    /** Stops the current command with the given message, which Main prints before
+     *  exiting normally.
+     */
     public static void gitletError(String msg) {
-        System.out.println(msg);
-        System.exit(0);
+        throw new UserError(msg);
+    }
+
+    /** Stops the current command, which has done its work, with the given message,
+     *  which Main prints as it would an error's, though the command didn't fail.
+     */
+    public static void gitletDone(String msg) {
+        throw new UserError(msg, false);
     }
 }
@@ -0,0 +1,224 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** The files staged for the next commit: each file staged for addition, mapped to
+ *  the id of the blob add already wrote into the object store, and each file staged
+ *  for removal. Only these ids are kept, so a commit never reads file contents; it
+ *  just builds trees from them.
+ *
+ *  Older repositories kept copies of the staged files under .staging/.add and empty
+ *  markers under .staging/.rm. Those are moved into the object store and this file
+ *  the first time the staging area is read.
+ *
+ *  @author Alex Rios
+ */
+public class StagingArea {
+
+    /** File that stores the staging area. */
+    public static final File STAGE = join(Repository.GITLET_DIR, ".stage");
+
+    private static final int MAGIC = 0x474c5354;
+    private static final int VERSION = 1;
+
+    /** Files staged for addition, mapped to their blob ids. */
+    private final TreeMap<String, String> added = new TreeMap<>();
+    /** Files staged for removal. */
+    private final TreeSet<String> removed = new TreeSet<>();
+
+    /** The staging area held in memory for a batch, or null. */
+    private static StagingArea held;
+    /** True if HELD has changed since it was last written. */
+    private static boolean heldDirty;
+
+    /** Returns a lock on the staging area, held by every command that changes it or
+     *  moves the head branch, so only one at a time does either.
+     */
+    public static Lock lock() {
+        return Lock.acquire(STAGE);
+    }
+
+    /** Reads the staging area from STAGE, which is empty if there's no such file. */
+    @SuppressWarnings("try")
+    public static StagingArea readStagingArea() throws IOException {
+        if (held != null) {
+            return held;
+        }
+        try (Trace.Span span = Trace.span("stage.load")) {
+            return read();
+        }
+    }
+
+    private static StagingArea read() throws IOException {
+        StagingArea stage = new StagingArea();
+        if (STAGE.isFile()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(STAGE)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw error("Corrupt staging area.");
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i += 1) {
+                    String path = in.readUTF();
+                    if (in.readBoolean()) {
+                        byte[] id = new byte[20];
+                        in.readFully(id);
+                        stage.added.put(path, ObjectStore.toHex(ByteBuffer.wrap(id), 0));
+                    } else {
+                        stage.removed.add(path);
+                    }
+                }
+            }
+        }
+        stage.migrate();
+        return stage;
+    }
+
+    /** Keeps the staging area in memory until release, for a batch of commands run
+     *  in this process while it holds the lock: readStagingArea returns it, and
+     *  saveStagingArea replaces it without writing STAGE until flush or release.
+     */
+    static void hold() throws IOException {
+        held = readStagingArea();
+        heldDirty = false;
+    }
+
+    /** Writes the held staging area to STAGE if it has changed. */
+    static void flush() throws IOException {
+        if (held != null && heldDirty) {
+            StagingArea stage = held;
+            held = null;
+            stage.saveStagingArea();
+            held = stage;
+            heldDirty = false;
+        }
+    }
+
+    /** Writes the held staging area if it has changed, and stops holding it. */
+    static void release() throws IOException {
+        flush();
+        held = null;
+    }
+
+    /** Moves anything staged the old way, as files under .staging, into this
+     *  staging area, and saves it if there was any.
+     */
+    private void migrate() throws IOException {
+        File addDir = join(Repository.STAGING_AREA, ".add");
+        File rmDir = join(Repository.STAGING_AREA, ".rm");
+        if (!Repository.STAGING_AREA.isDirectory()) {
+            return;
+        }
+        List<String> adds = Repository.filesUnder(addDir);
+        List<String> rms = Repository.filesUnder(rmDir);
+        for (String path : adds) {
+            added.put(path, ObjectStore.writeBlob(join(addDir, path), null));
+        }
+        removed.addAll(rms);
+        saveStagingArea();
+        for (String path : adds) {
+            Repository.deleteFile(join(addDir, path), addDir);
+        }
+        for (String path : rms) {
+            Repository.deleteFile(join(rmDir, path), rmDir);
+        }
+        addDir.delete();
+        rmDir.delete();
+        Repository.STAGING_AREA.delete();
+    }
+
+    /** Stages PATH for addition as the blob ID. */
+    public void add(String path, String id) {
+        added.put(path, id);
+        removed.remove(path);
+    }
+
+    /** Stages PATH for removal. */
+    public void remove(String path) {
+        added.remove(path);
+        removed.add(path);
+    }
+
+    /** Unstages PATH, whether it was staged for addition or removal. */
+    public void unstage(String path) {
+        added.remove(path);
+        removed.remove(path);
+    }
+
+    /** Returns the blob id PATH is staged as, or null if it isn't staged for addition. */
+    public String blobUID(String path) {
+        return added.get(path);
+    }
+
+    /** Returns the files staged for addition and their blob ids, sorted by path. */
+    public Map<String, String> added() {
+        return added;
+    }
+
+    /** Returns the files staged for removal, sorted. */
+    public Set<String> removed() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    public void clear() {
+        added.clear();
+        removed.clear();
+    }
+
+    /** Writes the staging area to STAGE, replacing it atomically, or while it's
+     *  held, just makes it the one held.
+     */
+    @SuppressWarnings("try")
+    public void saveStagingArea() throws IOException {
+        if (held != null) {
+            held = this;
+            heldDirty = true;
+            return;
+        }
+        try (Trace.Span span = Trace.span("stage.save")) {
+            write();
+        }
+    }
+
+    private void write() throws IOException {
+        File tmp = join(Repository.GITLET_DIR, ".stage.tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(added.size() + removed.size());
+            for (Map.Entry<String, String> e : added.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeBoolean(true);
+                out.write(ObjectStore.toBytes(e.getValue()));
+            }
+            for (String path : removed) {
+                out.writeUTF(path);
+                out.writeBoolean(false);
+            }
+        }
+        Files.move(tmp.toPath(), STAGE.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,263 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** A persistent cache of the sha1 hash of every file gitlet has looked at, keyed by
+ *  its path relative to the CWD, along with the size, mtime, ctime and inode the file
+ *  had when it was hashed. A file whose stat data hasn't changed since then is
+ *  assumed to still have the same contents, so it doesn't need to be read again.
+ *
+ *  Like git, entries whose mtime isn't strictly older than the index file itself are
+ *  "racy": the file could have been changed again within the same timestamp tick
+ *  without its stat data changing, so they are always rehashed.
+ *
+ *  Files may be hashed and recorded from several threads at once; stat calls and
+ *  hashing happen outside the cache's lock.
+ *
+ *  @author Alex Rios
+ */
+public class StatCache {
+
+    /** File that stores the cache. */
+    public static final File INDEX = join(Repository.GITLET_DIR, ".index");
+
+    private static final int MAGIC = 0x474c5343;
+    private static final int VERSION = 1;
+
+    /** Cached stat data and hash, keyed by path. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    /** Modification time of INDEX when it was read, in nanoseconds. */
+    private long indexTime;
+    /** True if the cache has changed since it was read. */
+    private boolean dirty;
+
+    /** The cache held in memory for a batch, or null. */
+    private static StatCache held;
+
+    /** Reads the cache from INDEX, or returns an empty cache if there isn't one or it
+     *  can't be read.
+     */
+    public static StatCache readStatCache() {
+        if (held != null) {
+            return held;
+        }
+        StatCache cache = new StatCache();
+        if (!INDEX.isFile()) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(INDEX)))) {
+            cache.indexTime = toNanos(Files.getLastModifiedTime(INDEX.toPath()));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return new StatCache();
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                String path = in.readUTF();
+                Entry entry = new Entry(in.readLong(), in.readLong(), in.readLong(),
+                        in.readLong(), readId(in));
+                cache.entries.put(path, entry);
+            }
+        } catch (IOException excp) {
+            return new StatCache();
+        }
+        return cache;
+    }
+
+    /** Returns the sha1 hash of FILE, whose path relative to the CWD is PATH. The file
+     *  is only read if its stat data differs from the cached entry or the entry is racy.
+     */
+    public String hash(String path, File file) throws IOException {
+        Entry stat = stat(file.toPath());
+        synchronized (this) {
+            Entry cached = entries.get(path);
+            if (cached != null && cached.sameStat(stat) && cached.mtime < indexTime) {
+                return cached.id;
+            }
+        }
+        stat.id = ObjectStore.hashFile(file);
+        synchronized (this) {
+            entries.put(path, stat);
+            dirty = true;
+        }
+        return stat.id;
+    }
+
+    /** Returns the blob id of FILE, whose path relative to the CWD is PATH, making sure
+     *  that blob is in the object store. A file whose cached stat data still holds and
+     *  whose blob is already stored isn't read; otherwise it's hashed and stored in one
+     *  pass, as a delta against BASE if that's given and worthwhile. The stat data is
+     *  taken before the file is read, so a file changed while it's being stored won't
+     *  match it next time.
+     */
+    public String store(String path, File file, String base) throws IOException {
+        Entry stat = stat(file.toPath());
+        synchronized (this) {
+            Entry cached = entries.get(path);
+            if (cached != null && cached.sameStat(stat) && cached.mtime < indexTime
+                    && ObjectStore.contains(cached.id)) {
+                return cached.id;
+            }
+        }
+        stat.id = ObjectStore.writeBlob(file, base);
+        synchronized (this) {
+            entries.put(path, stat);
+            dirty = true;
+        }
+        return stat.id;
+    }
+
+    /** Records that the file at PATH, which was just written from the blob ID, has that
+     *  hash, so it doesn't need to be read to be hashed again.
+     */
+    public void update(String path, File file, String id) throws IOException {
+        Entry stat = stat(file.toPath());
+        stat.id = id;
+        synchronized (this) {
+            entries.put(path, stat);
+            dirty = true;
+        }
+    }
+
+    /** Forgets the file at PATH. */
+    public synchronized void remove(String path) {
+        if (entries.remove(path) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Keeps the cache in memory until release, for a batch of commands run in this
+     *  process: readStatCache returns it, and saveStatCache leaves it unwritten until
+     *  flush or release.
+     */
+    static void hold() {
+        held = readStatCache();
+    }
+
+    /** Writes the held cache back to INDEX if it has changed. */
+    static void flush() {
+        if (held != null) {
+            held.write();
+        }
+    }
+
+    /** Writes the held cache if it has changed, and stops holding it. */
+    static void release() {
+        flush();
+        held = null;
+    }
+
+    /** Writes the cache back to INDEX if it has changed, unless it's held. */
+    public void saveStatCache() {
+        if (this != held) {
+            write();
+        }
+    }
+
+    /** Writes the cache back to INDEX if it has changed. Entries are then trusted as
+     *  of the new INDEX's modification time, as they would be if it were read again.
+     */
+    private synchronized void write() {
+        if (!dirty) {
+            return;
+        }
+        File tmp;
+        try {
+            tmp = File.createTempFile(".index", ".tmp", Repository.GITLET_DIR);
+        } catch (IOException excp) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.ctime);
+                out.writeLong(entry.inode);
+                out.write(ObjectStore.toBytes(entry.id));
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), INDEX.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            indexTime = toNanos(Files.getLastModifiedTime(INDEX.toPath()));
+            dirty = false;
+        } catch (IOException excp) {
+            tmp.delete();
+        }
+    }
+
+    /** Returns the stat data of the file at PATH, with no hash filled in. */
+    private static Entry stat(Path path) throws IOException {
+        try {
+            Map<String, Object> attrs = Files.readAttributes(path,
+                    "unix:size,lastModifiedTime,ctime,ino");
+            return new Entry((Long) attrs.get("size"),
+                    toNanos((FileTime) attrs.get("lastModifiedTime")),
+                    toNanos((FileTime) attrs.get("ctime")),
+                    (Long) attrs.get("ino"), null);
+        } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return new Entry(attrs.size(), toNanos(attrs.lastModifiedTime()),
+                    toNanos(attrs.creationTime()), 0, null);
+        }
+    }
+
+    private static long toNanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    private static String readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[20];
+        in.readFully(id);
+        return ObjectStore.toHex(ByteBuffer.wrap(id), 0);
+    }
+
+    /** The stat data and hash of one file. */
+    private static class Entry {
+        private final long size;
+        private final long mtime;
+        private final long ctime;
+        private final long inode;
+        private String id;
+
+        Entry(long size, long mtime, long ctime, long inode, String id) {
+            this.size = size;
+            this.mtime = mtime;
+            this.ctime = ctime;
+            this.inode = inode;
+            this.id = id;
+        }
+
+        boolean sameStat(Entry other) {
+            return size == other.size && mtime == other.mtime
+                    && ctime == other.ctime && inode == other.inode;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static gitlet.Utils.*;
+
+/** Compares the working directory against the head commit and the staging area, for
+ *  status. The head commit's files and the staging area are loaded once, then the
+ *  working directory is walked a single time on a fork/join pool: each directory is
+ *  listed by its own task, and its files are classified (and hashed through the
+ *  StatCache, when that's needed to tell whether they changed) in batches alongside
+ *  the walk. Files that are neither tracked nor staged are never hashed.
+ *
+ *  @author Alex Rios
+ */
+public class Status {
+
+    /** Number of files each task classifies. */
+    private static final int BATCH_SIZE = 256;
+
+    /** Files in the head commit, mapped to their blob ids. */
+    private final Map<String, String> tracked = new HashMap<>();
+    /** Files staged for addition, mapped to their blob ids. */
+    private final Map<String, String> staged;
+    private final Set<String> removed;
+    private final StatCache cache = StatCache.readStatCache();
+
+    /** Working directory files seen by the walk. */
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private final Queue<String> modified = new ConcurrentLinkedQueue<>();
+    private final Queue<String> untracked = new ConcurrentLinkedQueue<>();
+
+    /** Prepares to compare the working directory against HEAD and the staging area. */
+    public Status(Commit head) throws IOException {
+        Tree.flatten(head.getTree(), tracked);
+        StagingArea stage = StagingArea.readStagingArea();
+        staged = stage.added();
+        removed = stage.removed();
+    }
+
+    /** Walks the working directory and classifies every file in it, then saves any
+     *  hashes the StatCache learned.
+     */
+    @SuppressWarnings("try")
+    public void scan() throws IOException {
+        try (Trace.Span span = Trace.span("status.scan")) {
+            walk();
+        }
+    }
+
+    private void walk() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            pool.invoke(new Walk(Repository.CWD, ""));
+        } catch (UncheckedIOException excp) {
+            throw excp.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+        Set<String> expected = new HashSet<>(tracked.keySet());
+        expected.addAll(staged.keySet());
+        for (String path : expected) {
+            if (seen.contains(path)) {
+                continue;
+            }
+            cache.remove(path);
+            if (staged.containsKey(path) || !removed.contains(path)) {
+                modified.add(path + " (deleted)");
+            }
+        }
+        cache.saveStatCache();
+    }
+
+    /** Classifies the working directory file FILE, whose path is PATH. */
+    private void classify(String path, File file) throws IOException {
+        seen.add(path);
+        String blob = tracked.get(path);
+        String stagedBlob = staged.get(path);
+        if (blob == null && stagedBlob == null) {
+            untracked.add(path);
+            return;
+        }
+        String hash = cache.hash(path, file);
+        if (stagedBlob != null) {
+            if (!hash.equals(stagedBlob)) {
+                modified.add(path + " (modified)");
+            }
+        } else if (!hash.equals(blob) && !Repository.hasConflictMarkers(file)) {
+            modified.add(path + " (modified)");
+        }
+    }
+
+    /** Returns the files staged for addition, sorted. */
+    public List<String> staged() {
+        return sorted(staged.keySet());
+    }
+
+    /** Returns the files staged for removal, sorted. */
+    public List<String> removed() {
+        return sorted(removed);
+    }
+
+    /** Returns the modified and deleted files that aren't staged, sorted. */
+    public List<String> modified() {
+        return sorted(modified);
+    }
+
+    /** Returns the files that are neither tracked nor staged, sorted. */
+    public List<String> untracked() {
+        return sorted(untracked);
+    }
+
+    private static List<String> sorted(Collection<String> paths) {
+        List<String> list = new ArrayList<>(paths);
+        Collections.sort(list);
+        return list;
+    }
+
+    /** Lists one directory, forking a task for each subdirectory and each batch of
+     *  files in it.
+     */
+    private class Walk extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 883102380142893174L;
+
+        private final File dir;
+        private final String prefix;
+
+        Walk(File dir, String prefix) {
+            this.dir = dir;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected void compute() {
+            File[] entries = dir.listFiles();
+            if (entries == null) {
+                return;
+            }
+            List<RecursiveAction> tasks = new ArrayList<>();
+            List<File> batch = new ArrayList<>();
+            for (File entry : entries) {
+                if (entry.isFile()) {
+                    batch.add(entry);
+                    if (batch.size() == BATCH_SIZE) {
+                        tasks.add(new Classify(prefix, batch));
+                        batch = new ArrayList<>();
+                    }
+                } else if (entry.isDirectory() && !entry.equals(Repository.GITLET_DIR)
+                        && !Files.isSymbolicLink(entry.toPath())) {
+                    tasks.add(new Walk(entry, prefix + entry.getName() + "/"));
+                }
+            }
+            if (!batch.isEmpty()) {
+                tasks.add(new Classify(prefix, batch));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /** Classifies a batch of files in one directory. */
+    private class Classify extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1719548391182953110L;
+
+        private final String prefix;
+        private final List<File> files;
+
+        Classify(String prefix, List<File> files) {
+            this.prefix = prefix;
+            this.files = files;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                for (File file : files) {
+                    classify(prefix + file.getName(), file);
+                }
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+        }
+    }
+}
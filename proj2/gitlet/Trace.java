@@ -0,0 +1,295 @@
+package gitlet;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** Opt-in tracing of what each command spends its time on. A command is divided
+ *  into spans, named phases such as loading the refs or finding a split point, and
+ *  counters tally work done along the way: commits and trees decoded, files hashed,
+ *  objects read and written and their bytes, and the hits and misses of each cache.
+ *  Tracing is turned on with the gitlet.trace system property.
+ *
+ *  With gitlet.trace set to a file name, each command appends one JSON line to that
+ *  file (or writes it to stderr if the name is "-"):
+ *
+ *      {"command":"merge","args":["topic"],"start":1760659200000,"millis":41.2,
+ *       "error":null,"spans":{"refs.load":{"count":1,"millis":0.8},...},
+ *       "counters":{"commits.decoded":3,...}}
+ *
+ *  Spans with the same name are summed, and spans nest, so their times overlap.
+ *
+ *  With gitlet.trace set to "jfr", spans and commands are instead JFR events
+ *  (gitlet.Span and gitlet.Command, the latter carrying the counters), for a flight
+ *  recording to pick up, e.g. with -XX:StartFlightRecording=filename=gitlet.jfr.
+ *
+ *  Without gitlet.trace, span returns a shared no-op and count returns after testing
+ *  one flag, and the JFR classes are never loaded, so tracing costs nothing that
+ *  shows.
+ *
+ *  @author Alex Rios
+ */
+public final class Trace {
+
+    /** Where traces go: a file name, "-" for stderr, "jfr", or null if they're off. */
+    static final String TRACE = System.getProperty("gitlet.trace");
+    /** Whether traces are JFR events. */
+    static final boolean JFR = "jfr".equals(TRACE);
+
+    /** Whether the current command is being traced. */
+    private static volatile boolean active;
+    private static String[] command;
+    private static String error;
+    private static long startMillis;
+    private static long startNanos;
+    private static CommandEvent event;
+    /** The count and total nanoseconds of each span so far, in the order they began. */
+    private static final Map<String, long[]> SPANS = new LinkedHashMap<>();
+    private static final ConcurrentHashMap<String, LongAdder> COUNTERS =
+            new ConcurrentHashMap<>();
+    /** Each cache's hits and misses when the command started. */
+    private static long[][] cacheStart;
+
+    private Trace() {
+    }
+
+    /** Starts tracing the command ARGS, if tracing is on. */
+    static synchronized void start(String[] args) {
+        active = TRACE != null;
+        if (!active) {
+            return;
+        }
+        command = args;
+        error = null;
+        SPANS.clear();
+        COUNTERS.clear();
+        LruCache<?, ?>[] caches = caches();
+        cacheStart = new long[caches.length][];
+        for (int i = 0; i < caches.length; i += 1) {
+            cacheStart[i] = new long[] {caches[i].hits(), caches[i].misses()};
+        }
+        startMillis = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        if (JFR) {
+            event = new CommandEvent();
+            event.begin();
+        }
+    }
+
+    /** Records that the current command failed with MSG. */
+    static synchronized void error(String msg) {
+        error = msg;
+    }
+
+    /** Finishes tracing the current command, writing out what it did. */
+    static synchronized void finish() {
+        if (!active) {
+            return;
+        }
+        active = false;
+        double millis = (System.nanoTime() - startNanos) / 1e6;
+        LruCache<?, ?>[] caches = caches();
+        for (int i = 0; i < caches.length; i += 1) {
+            String name = "cache." + caches[i].name().replace(' ', '-');
+            addCount(name + ".hits", caches[i].hits() - cacheStart[i][0]);
+            addCount(name + ".misses", caches[i].misses() - cacheStart[i][1]);
+        }
+        String counters = counters();
+        if (JFR) {
+            event.command = command.length > 0 ? command[0] : null;
+            event.args = String.join(" ", Arrays.asList(command).subList(
+                    Math.min(1, command.length), command.length));
+            event.error = error;
+            event.counters = counters;
+            event.commit();
+            event = null;
+            return;
+        }
+        StringBuilder line = new StringBuilder("{\"command\":");
+        quote(line, command.length > 0 ? command[0] : null);
+        line.append(",\"args\":[");
+        for (int i = 1; i < command.length; i += 1) {
+            if (i > 1) {
+                line.append(',');
+            }
+            quote(line, command[i]);
+        }
+        line.append("],\"start\":").append(startMillis)
+                .append(",\"millis\":").append(round(millis)).append(",\"error\":");
+        quote(line, error);
+        line.append(",\"spans\":{");
+        String sep = "";
+        for (Map.Entry<String, long[]> span : SPANS.entrySet()) {
+            line.append(sep);
+            quote(line, span.getKey());
+            long[] totals = span.getValue();
+            line.append(":{\"count\":").append(totals[0])
+                    .append(",\"millis\":").append(round(totals[1] / 1e6)).append('}');
+            sep = ",";
+        }
+        line.append("},\"counters\":").append(counters).append("}\n");
+        write(line.toString());
+    }
+
+    /** Returns a span called NAME, begun now and ended when it's closed. */
+    static Span span(String name) {
+        if (!active) {
+            return Span.NONE;
+        }
+        return new Span(name, JFR ? new SpanEvent() : null);
+    }
+
+    /** Adds N to the counter NAME, if the current command is being traced. */
+    static void count(String name, long n) {
+        if (active) {
+            addCount(name, n);
+        }
+    }
+
+    private static void addCount(String name, long n) {
+        if (n != 0) {
+            COUNTERS.computeIfAbsent(name, k -> new LongAdder()).add(n);
+        }
+    }
+
+    /** Adds a span called NAME that took NANOS to the current command. */
+    static synchronized void record(String name, long nanos) {
+        if (!active) {
+            return;
+        }
+        long[] span = SPANS.computeIfAbsent(name, k -> new long[2]);
+        span[0] += 1;
+        span[1] += nanos;
+    }
+
+    /** Returns the caches whose hits and misses are reported. They're only touched
+     *  while tracing, so an untraced command doesn't load their classes.
+     */
+    private static LruCache<?, ?>[] caches() {
+        return new LruCache<?, ?>[] {
+            Commit.COMMITS, CommitInfo.CACHE, Tree.TREES, ObjectStore.BLOBS
+        };
+    }
+
+    /** Returns the counters as a JSON object, sorted by name. */
+    private static String counters() {
+        StringBuilder result = new StringBuilder("{");
+        String sep = "";
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(COUNTERS).entrySet()) {
+            result.append(sep);
+            quote(result, counter.getKey());
+            result.append(':').append(counter.getValue().sum());
+            sep = ",";
+        }
+        return result.append('}').toString();
+    }
+
+    private static double round(double millis) {
+        return Math.round(millis * 1000) / 1000.0;
+    }
+
+    /** Appends S to OUT as a JSON string, or null. */
+    private static void quote(StringBuilder out, String s) {
+        if (s == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    /** Writes LINE to the trace file in a single append, so lines from processes
+     *  tracing to the same file don't interleave. A trace that can't be written is
+     *  dropped rather than failing the command.
+     */
+    private static void write(String line) {
+        if (TRACE.equals("-")) {
+            System.err.print(line);
+            System.err.flush();
+            return;
+        }
+        try (OutputStream out = new FileOutputStream(TRACE, true)) {
+            out.write(line.getBytes(UTF_8));
+        } catch (IOException excp) {
+            // Tracing is best effort.
+        }
+    }
+
+    /** A phase of a command, timed from its creation until it's closed, and the JFR
+     *  event recording it if traces are JFR events.
+     */
+    static final class Span implements AutoCloseable {
+        /** The span returned when nothing is tracing. */
+        static final Span NONE = new Span(null, null);
+
+        private final String name;
+        private final SpanEvent event;
+        private final long start;
+
+        private Span(String name, SpanEvent event) {
+            this.name = name;
+            this.event = event;
+            this.start = System.nanoTime();
+            if (event != null) {
+                event.name = name;
+                event.begin();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (this == NONE) {
+                return;
+            }
+            record(name, System.nanoTime() - start);
+            if (event != null) {
+                event.commit();
+            }
+        }
+    }
+
+    @Name("gitlet.Command")
+    @Label("Gitlet Command")
+    @Category("Gitlet")
+    static class CommandEvent extends Event {
+        @Label("Command")
+        String command;
+        @Label("Arguments")
+        String args;
+        @Label("Error")
+        String error;
+        @Label("Counters")
+        String counters;
+    }
+
+    @Name("gitlet.Span")
+    @Label("Gitlet Span")
+    @Category("Gitlet")
+    static class SpanEvent extends Event {
+        @Label("Name")
+        String name;
+    }
+}
@@ -0,0 +1,332 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** A directory snapshot: the sorted names in one directory, each with the id of the
+ *  blob (for a file) or tree (for a subdirectory) it refers to. Like blobs, trees are
+ *  content-addressed, so a commit that changes one file only writes new trees along
+ *  that file's path and shares every other subtree with its parent by id. Paths are
+ *  relative to the CWD and use '/' as the separator.
+ *
+ *  @author Alex Rios
+ */
+public class Tree {
+
+    /** Entry kinds. */
+    static final byte FILE = 0;
+    static final byte DIR = 1;
+
+    private static final int MAGIC = 0x474c5452;
+    private static final int VERSION = 1;
+
+    /** Total estimated size of the trees kept in memory. */
+    private static final long CACHE_SIZE = 64L << 20;
+    /** Recently read or written trees, by id. Trees are immutable, so this never
+     *  goes stale.
+     */
+    static final LruCache<String, Tree> TREES = new LruCache<>("tree", CACHE_SIZE, Tree::weight);
+
+    /** Entry names, sorted, and the kind and id of each. */
+    private final String[] names;
+    private final byte[] kinds;
+    private final String[] ids;
+
+    Tree(String[] names, byte[] kinds, String[] ids) {
+        this.names = names;
+        this.kinds = kinds;
+        this.ids = ids;
+    }
+
+    /** Returns the tree with the given id. */
+    public static Tree readTree(String id) {
+        Tree tree = TREES.get(id);
+        if (tree == null) {
+            byte[] data = ObjectStore.read(id, ObjectStore.TREE);
+            if (data == null) {
+                throw error("Missing tree %s.", id);
+            }
+            try {
+                tree = decode(data);
+                Trace.count("trees.decoded", 1);
+            } catch (IOException | BufferUnderflowException excp) {
+                throw error("Corrupt tree %s.", id);
+            }
+            TREES.put(id, tree);
+        }
+        return tree;
+    }
+
+    /** Drops every tree read by this process. */
+    static void forget() {
+        TREES.clear();
+    }
+
+    /** Writes the trees holding every file in FILES, a map from path to blob id, and
+     *  returns the id of the root.
+     */
+    public static String write(Map<String, String> files) {
+        return update(null, files);
+    }
+
+    /** Writes the trees that result from applying CHANGES to the tree ROOT (null for
+     *  an empty tree) and returns the id of the new root. CHANGES maps each path to
+     *  its new blob id, or to null to remove it. Only the trees along the changed
+     *  paths are rewritten; every other subtree is kept by id. Directories left empty
+     *  are removed.
+     */
+    @SuppressWarnings("try")
+    public static String update(String root, Map<String, String> changes) {
+        try (Trace.Span span = Trace.span("tree.update")) {
+            String id = updateDir(root, changes);
+            return id != null ? id : save(new TreeMap<>());
+        }
+    }
+
+    /** Returns the id of the updated tree, or null if it's left empty. */
+    private static String updateDir(String root, Map<String, String> changes) {
+        TreeMap<String, Entry> entries = root == null ? new TreeMap<>() : readTree(root).toMap();
+        TreeMap<String, Map<String, String>> subdirs = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subdirs.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                Entry old = entries.get(path);
+                if (old != null && old.kind == FILE) {
+                    entries.remove(path);
+                }
+            } else {
+                entries.put(path, new Entry(FILE, change.getValue()));
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> subdir : subdirs.entrySet()) {
+            Entry old = entries.get(subdir.getKey());
+            String updated = updateDir(old != null && old.kind == DIR ? old.id : null,
+                    subdir.getValue());
+            if (updated != null) {
+                entries.put(subdir.getKey(), new Entry(DIR, updated));
+            } else if (old != null && old.kind == DIR) {
+                entries.remove(subdir.getKey());
+            }
+        }
+        return entries.isEmpty() ? null : save(entries);
+    }
+
+    /** Writes a tree holding ENTRIES, unless it's already stored, and returns its id. */
+    private static String save(TreeMap<String, Entry> entries) {
+        String[] names = entries.keySet().toArray(new String[0]);
+        byte[] kinds = new byte[names.length];
+        String[] ids = new String[names.length];
+        int i = 0;
+        for (Entry entry : entries.values()) {
+            kinds[i] = entry.kind;
+            ids[i] = entry.id;
+            i += 1;
+        }
+        Tree tree = new Tree(names, kinds, ids);
+        byte[] data = tree.encode();
+        String id = sha1((Object) data);
+        if (TREES.get(id) == null) {
+            ObjectStore.writeTree(id, data);
+            TREES.put(id, tree);
+        }
+        return id;
+    }
+
+    /** Returns the id of the blob at PATH in the tree ROOT, or null. */
+    public static String lookup(String root, String path) {
+        Tree tree = readTree(root);
+        int start = 0;
+        while (true) {
+            int slash = path.indexOf('/', start);
+            String name = slash < 0 ? path.substring(start) : path.substring(start, slash);
+            int i = Arrays.binarySearch(tree.names, name);
+            if (i < 0) {
+                return null;
+            } else if (slash < 0) {
+                return tree.kinds[i] == FILE ? tree.ids[i] : null;
+            } else if (tree.kinds[i] != DIR) {
+                return null;
+            }
+            tree = readTree(tree.ids[i]);
+            start = slash + 1;
+        }
+    }
+
+    /** Adds every file in the tree ROOT to FILES, mapped to its blob id. */
+    public static void flatten(String root, Map<String, String> files) {
+        flatten(readTree(root), "", files);
+    }
+
+    private static void flatten(Tree tree, String prefix, Map<String, String> files) {
+        for (int i = 0; i < tree.names.length; i += 1) {
+            if (tree.kinds[i] == FILE) {
+                files.put(prefix + tree.names[i], tree.ids[i]);
+            } else {
+                flatten(readTree(tree.ids[i]), prefix + tree.names[i] + "/", files);
+            }
+        }
+    }
+
+    /** Adds to PATHS every file path whose blob differs between the trees A and B,
+     *  including files only in one of them. Subtrees with the same id on both sides
+     *  are skipped without being read.
+     */
+    public static void diff(String a, String b, Set<String> paths) {
+        diff(a, b, "", paths);
+    }
+
+    private static void diff(String a, String b, String prefix, Set<String> paths) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        Tree left = a == null ? null : readTree(a);
+        Tree right = b == null ? null : readTree(b);
+        int i = 0;
+        int j = 0;
+        int leftSize = left == null ? 0 : left.names.length;
+        int rightSize = right == null ? 0 : right.names.length;
+        while (i < leftSize || j < rightSize) {
+            int cmp = i >= leftSize ? 1 : j >= rightSize ? -1
+                    : left.names[i].compareTo(right.names[j]);
+            if (cmp < 0) {
+                left.diffEntry(i, null, (byte) -1, prefix, paths);
+                i += 1;
+            } else if (cmp > 0) {
+                right.diffEntry(j, null, (byte) -1, prefix, paths);
+                j += 1;
+            } else {
+                left.diffEntry(i, right.ids[j], right.kinds[j], prefix, paths);
+                i += 1;
+                j += 1;
+            }
+        }
+    }
+
+    /** Adds the differences between entry I of this tree and an entry with the same
+     *  name, kind OTHERKIND and id OTHER (null if there is none) to PATHS.
+     */
+    private void diffEntry(int i, String other, byte otherKind, String prefix,
+                           Set<String> paths) {
+        String path = prefix + names[i];
+        if (kinds[i] == otherKind) {
+            if (kinds[i] == FILE) {
+                if (!ids[i].equals(other)) {
+                    paths.add(path);
+                }
+            } else {
+                diff(ids[i], other, path + "/", paths);
+            }
+            return;
+        }
+        if (kinds[i] == FILE) {
+            paths.add(path);
+        } else {
+            diff(ids[i], null, path + "/", paths);
+        }
+        if (otherKind == FILE) {
+            paths.add(path);
+        } else if (otherKind == DIR) {
+            diff(other, null, path + "/", paths);
+        }
+    }
+
+    /** Returns the ids of the entries of the given KIND (FILE or DIR) in this tree. */
+    List<String> ids(byte kind) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < ids.length; i += 1) {
+            if (kinds[i] == kind) {
+                result.add(ids[i]);
+            }
+        }
+        return result;
+    }
+
+    /** Returns a rough estimate of the memory this tree takes, in bytes. */
+    private long weight() {
+        long size = 64;
+        for (String name : names) {
+            size += 2L * name.length() + 2 * UID_LENGTH + 96;
+        }
+        return size;
+    }
+
+    private TreeMap<String, Entry> toMap() {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        for (int i = 0; i < names.length; i += 1) {
+            entries.put(names[i], new Entry(kinds[i], ids[i]));
+        }
+        return entries;
+    }
+
+    /** Returns the encoding of this tree: a magic number and version, the number of
+     *  entries, then the kind, length-prefixed UTF-8 name and raw 20-byte id of each.
+     */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + names.length * 48);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(names.length);
+            for (int i = 0; i < names.length; i += 1) {
+                byte[] name = names[i].getBytes(UTF_8);
+                out.writeByte(kinds[i]);
+                out.writeInt(name.length);
+                out.write(name);
+                out.write(ObjectStore.toBytes(ids[i]));
+            }
+        } catch (IOException excp) {
+            throw error("Unable to encode tree.");
+        }
+        return bytes.toByteArray();
+    }
+
+    static Tree decode(byte[] data) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        if (in.getInt() != MAGIC || (in.get() & 0xff) != VERSION) {
+            throw new IOException("Unknown tree encoding.");
+        }
+        int count = in.getInt();
+        String[] names = new String[count];
+        byte[] kinds = new byte[count];
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            kinds[i] = in.get();
+            int length = in.getInt();
+            if (length < 0 || length + 20 > in.remaining()) {
+                throw new IOException("Truncated tree.");
+            }
+            names[i] = new String(data, in.position(), length, UTF_8);
+            ids[i] = ObjectStore.toHex(in, in.position() + length);
+            in.position(in.position() + length + 20);
+        }
+        return new Tree(names, kinds, ids);
+    }
+
+    /** The kind and id of one entry. */
+    private static class Entry {
+        private final byte kind;
+        private final String id;
+
+        Entry(byte kind, String id) {
+            this.kind = kind;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** An index of every commit id, used to expand abbreviated ids. The ids live in a
+ *  sorted, memory-mapped table with a 256-entry fan-out table in front of it, so a
+ *  prefix is found by binary search within one fan-out bucket. Commits made since
+ *  the table was last written are appended to a small journal instead, which is
+ *  folded back into the table once it grows past JOURNAL_LIMIT entries.
+ *
+ *  @author Alex Rios
+ */
+public class UidIndex {
+
+    /** File that stores the sorted table. */
+    public static final File INDEX_FILE = join(Repository.GITLET_DIR, ".uid-index");
+    /** File that stores ids added since the table was written. */
+    public static final File JOURNAL_FILE = join(Repository.GITLET_DIR, ".uid-journal");
+
+    private static final int MAGIC = 0x474c5549;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int FANOUT_BYTES = 256 * 4;
+    private static final int ID_BYTES = 20;
+    /** Journal size at which it is merged into the table. */
+    private static final int JOURNAL_LIMIT = 1024;
+
+    /** The index loaded by this process. */
+    private static UidIndex index;
+
+    private MappedByteBuffer table;
+    private int size;
+    /** Ids in the journal, sorted. */
+    private final TreeSet<String> journal = new TreeSet<>();
+
+    /** Drops the index loaded by this process, so the next read loads it again. */
+    static void forget() {
+        index = null;
+    }
+
+    /** Returns the index, building it from every stored commit if this repository
+     *  doesn't have one yet.
+     */
+    public static UidIndex readUidIndex() {
+        if (index == null) {
+            try {
+                if (!INDEX_FILE.isFile()) {
+                    writeTable(new TreeSet<>(ObjectStore.commitIds()));
+                    JOURNAL_FILE.delete();
+                }
+                index = new UidIndex();
+                index.load();
+            } catch (IOException excp) {
+                throw error("Unable to read the commit id index.");
+            }
+        }
+        return index;
+    }
+
+    private void load() throws IOException {
+        try (FileChannel ch = FileChannel.open(INDEX_FILE.toPath(), StandardOpenOption.READ)) {
+            table = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (table.getInt(0) != MAGIC || table.getInt(4) != VERSION) {
+            throw error("Corrupt commit id index.");
+        }
+        size = table.getInt(HEADER_BYTES + 255 * 4);
+        journal.clear();
+        if (JOURNAL_FILE.isFile()) {
+            ByteBuffer records = ByteBuffer.wrap(readContents(JOURNAL_FILE));
+            for (int pos = 0; pos + ID_BYTES <= records.capacity(); pos += ID_BYTES) {
+                journal.add(ObjectStore.toHex(records, pos));
+            }
+        }
+    }
+
+    /** Records a newly written commit, merging the journal into the table if it has
+     *  grown too large.
+     */
+    public void add(String uid) {
+        if (contains(uid)) {
+            return;
+        }
+        try {
+            if (journal.size() + 1 >= JOURNAL_LIMIT) {
+                TreeSet<String> all = new TreeSet<>(journal);
+                all.add(uid);
+                for (int i = 0; i < size; i += 1) {
+                    all.add(id(i));
+                }
+                writeTable(all);
+                JOURNAL_FILE.delete();
+                load();
+                return;
+            }
+            Files.write(JOURNAL_FILE.toPath(), ObjectStore.toBytes(uid),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            journal.add(uid);
+        } catch (IOException excp) {
+            throw error("Unable to update the commit id index.");
+        }
+    }
+
+    /** Returns the full ids of up to LIMIT commits whose ids start with PREFIX, which
+     *  must be lowercase hex.
+     */
+    public List<String> resolve(String prefix, int limit) {
+        List<String> matches = new ArrayList<>();
+        if (prefix.isEmpty() || prefix.length() > UID_LENGTH || !prefix.matches("[0-9a-f]+")) {
+            return matches;
+        }
+        int lo = 0;
+        int hi = size;
+        if (prefix.length() >= 2) {
+            int first = Integer.parseInt(prefix.substring(0, 2), 16);
+            lo = first == 0 ? 0 : fanout(first - 1);
+            hi = fanout(first);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparePrefix(mid, prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < size && matches.size() < limit && comparePrefix(i, prefix) == 0;
+             i += 1) {
+            matches.add(id(i));
+        }
+        for (String uid : journal.tailSet(prefix)) {
+            if (matches.size() >= limit || !uid.startsWith(prefix)) {
+                break;
+            }
+            matches.add(uid);
+        }
+        return matches;
+    }
+
+    /** Returns true if the full id UID is in the index. */
+    public boolean contains(String uid) {
+        return uid.length() == UID_LENGTH && resolve(uid, 1).size() == 1;
+    }
+
+    /** Compares the id at position I, truncated to the length of PREFIX, to PREFIX. */
+    private int comparePrefix(int i, String prefix) {
+        int base = HEADER_BYTES + FANOUT_BYTES + i * ID_BYTES;
+        for (int n = 0; n < prefix.length(); n += 1) {
+            int b = table.get(base + n / 2) & 0xff;
+            int nibble = n % 2 == 0 ? b >> 4 : b & 0xf;
+            int cmp = Integer.compare(nibble, Character.digit(prefix.charAt(n), 16));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private int fanout(int bucket) {
+        return table.getInt(HEADER_BYTES + bucket * 4);
+    }
+
+    private String id(int i) {
+        return ObjectStore.toHex(table, HEADER_BYTES + FANOUT_BYTES + i * ID_BYTES);
+    }
+
+    /** Atomically replaces the table with one holding IDS. */
+    private static void writeTable(TreeSet<String> ids) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + FANOUT_BYTES + ids.size() * ID_BYTES);
+        buf.putInt(MAGIC).putInt(VERSION);
+        int[] fanout = new int[256];
+        for (String uid : ids) {
+            fanout[Integer.parseInt(uid.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int count : fanout) {
+            total += count;
+            buf.putInt(total);
+        }
+        for (String uid : ids) {
+            buf.put(ObjectStore.toBytes(uid));
+        }
+        ObjectStore.writeAtomically(INDEX_FILE, (Object) buf.array());
+    }
+}
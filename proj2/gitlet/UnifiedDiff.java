@@ -0,0 +1,145 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** Writes the differences between two versions of a file in unified diff format,
+ *  with three lines of context around each change and nearby changes joined into
+ *  one hunk, as git does. A missing version (a file added or deleted) is shown as
+ *  /dev/null, and binary files are only reported as differing. Lines are written
+ *  with their exact bytes.
+ *
+ *  @author Alex Rios
+ */
+public class UnifiedDiff {
+
+    /** Unchanged lines shown on each side of a change. */
+    private static final int CONTEXT = 3;
+    private static final byte[] NO_NEWLINE = "\n\\ No newline at end of file\n".getBytes(UTF_8);
+
+    private final Diff.Lines before;
+    private final Diff.Lines after;
+    private final OutputStream out;
+
+    private UnifiedDiff(byte[] before, byte[] after, OutputStream out) {
+        HashMap<Diff.Line, Integer> ids = new HashMap<>();
+        this.before = new Diff.Lines(before, ids);
+        this.after = new Diff.Lines(after, ids);
+        this.out = out;
+    }
+
+    /** Writes the differences between BEFORE and AFTER, the old and new contents of
+     *  the file PATH, to OUT. Either may be null if the file doesn't exist on that
+     *  side. Nothing is written if they're the same.
+     */
+    public static void write(String path, byte[] before, byte[] after, OutputStream out)
+            throws IOException {
+        StringBuilder header = new StringBuilder();
+        header.append("diff --git a/").append(path).append(" b/").append(path).append('\n');
+        if (before == null) {
+            header.append("new file mode 100644\n");
+        } else if (after == null) {
+            header.append("deleted file mode 100644\n");
+        }
+        String from = before == null ? "/dev/null" : "a/" + path;
+        String to = after == null ? "/dev/null" : "b/" + path;
+        byte[] oldData = before == null ? new byte[0] : before;
+        byte[] newData = after == null ? new byte[0] : after;
+        if (Diff.isBinary(oldData) || Diff.isBinary(newData)) {
+            header.append("Binary files ").append(from).append(" and ").append(to)
+                    .append(" differ\n");
+            out.write(header.toString().getBytes(UTF_8));
+            return;
+        }
+        UnifiedDiff diff = new UnifiedDiff(oldData, newData, out);
+        List<int[]> changes = diff.changes();
+        if (changes.isEmpty() && before != null && after != null) {
+            return;
+        }
+        header.append("--- ").append(from).append('\n');
+        header.append("+++ ").append(to).append('\n');
+        out.write(header.toString().getBytes(UTF_8));
+        int first = 0;
+        for (int i = 1; i <= changes.size(); i += 1) {
+            if (i == changes.size()
+                    || changes.get(i)[0] - changes.get(i - 1)[1] > 2 * CONTEXT) {
+                diff.hunk(changes.subList(first, i));
+                first = i;
+            }
+        }
+    }
+
+    /** Returns the changed regions, in order, as {oldStart, oldEnd, newStart, newEnd}
+     *  line ranges.
+     */
+    private List<int[]> changes() {
+        int[] matches = Diff.match(before.ids, after.ids);
+        List<int[]> changes = new ArrayList<>();
+        int n = before.size();
+        int m = after.size();
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && matches[i] == j) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int oldStart = i;
+            int newStart = j;
+            while (i < n && matches[i] < 0) {
+                i += 1;
+            }
+            j = i < n ? matches[i] : m;
+            changes.add(new int[] {oldStart, i, newStart, j});
+        }
+        return changes;
+    }
+
+    /** Writes one hunk covering CHANGES and the context around them. */
+    private void hunk(List<int[]> changes) throws IOException {
+        int[] firstChange = changes.get(0);
+        int[] lastChange = changes.get(changes.size() - 1);
+        int oldFrom = Math.max(0, firstChange[0] - CONTEXT);
+        int oldTo = Math.min(before.size(), lastChange[1] + CONTEXT);
+        int newFrom = firstChange[2] - (firstChange[0] - oldFrom);
+        int newTo = lastChange[3] + (oldTo - lastChange[1]);
+        out.write(("@@ -" + range(oldFrom, oldTo) + " +" + range(newFrom, newTo) + " @@\n")
+                .getBytes(UTF_8));
+        int cursor = oldFrom;
+        for (int[] change : changes) {
+            lines(before, ' ', cursor, change[0]);
+            lines(before, '-', change[0], change[1]);
+            lines(after, '+', change[2], change[3]);
+            cursor = change[1];
+        }
+        lines(before, ' ', cursor, oldTo);
+    }
+
+    /** Writes lines [LO, HI) of LINES, each after PREFIX. */
+    private void lines(Diff.Lines lines, char prefix, int lo, int hi) throws IOException {
+        for (int i = lo; i < hi; i += 1) {
+            out.write(prefix);
+            lines.write(i, i + 1, out);
+            if (!lines.hasNewline(i)) {
+                out.write(NO_NEWLINE);
+            }
+        }
+    }
+
+    /** Returns a hunk range in unified diff form: the first line and the number of
+     *  lines, which is left out when it's one.
+     */
+    private static String range(int from, int to) {
+        int length = to - from;
+        if (length == 1) {
+            return String.valueOf(from + 1);
+        }
+        return (length == 0 ? from : from + 1) + "," + length;
+    }
+}
@@ -0,0 +1,36 @@
+package gitlet;
+
+import java.io.Serial;
+
+/** A GitletException for a mistake by the user, such as a missing file or an
+ *  unknown branch. Main prints its message and exits normally, as the gitlet spec
+ *  requires, rather than treating it as a failure. A few commands also stop early
+ *  this way once their work is done, to print how it went; those UserErrors aren't
+ *  failures at all, and say so, so that a batch doesn't report them.
+ *  @author Alex Rios
+ */
+class UserError extends GitletException {
+
+    @Serial
+    private static final long serialVersionUID = 6945313407666855410L;
+
+    /** Whether the command failed, rather than finished early. */
+    private final boolean failure;
+
+    /** A UserError with MSG as its message. */
+    UserError(String msg) {
+        this(msg, true);
+    }
+
+    /** A UserError with MSG as its message, for a command that failed if FAILURE. */
+    UserError(String msg, boolean failure) {
+        super(msg);
+        this.failure = failure;
+    }
+
+    /** Returns true if the command failed, rather than finishing early. */
+    boolean isFailure() {
+        return failure;
+    }
+
+}
@@ -0,0 +1,229 @@
+import sys, re, shlex, struct
+from subprocess import run, Popen, PIPE
+from os.path import join
+from getopt import getopt, GetoptError
+from os import makedirs
+from shutil import rmtree
+from tempfile import mkdtemp
+from time import sleep, time
+
+USAGE = """\
+Usage: python3 batch.py OPTIONS
+
+   OPTIONS may include
+       --progdir=DIR  Directory or JAR file containing the gitlet application
+                      (default: the CLASSPATH).
+       --keep         Keep the test repositories.
+
+Runs one script of gitlet commands twice, in two fresh repositories holding the
+same files: once a command per process, and once through java gitlet.Main
+--batch. The script has commands that fail, commands that stop early without
+failing (a fast-forward merge), a quoted argument, an unterminated quote, comments,
+a blank line and a checkpoint. Checks that the batch:
+
+   * prints on stdout what the separate processes printed, in order, apart from
+     commit dates and ids;
+   * reports on stderr exactly the lines that failed, as "line N: MESSAGE",
+     carrying on after each, and exits normally;
+   * has written the staging area at the checkpoint, while still running, as it
+     was at that point in the separate run;
+   * ends with the same staging area (.gitlet/.stage), byte for byte, and a stat
+     cache (.gitlet/.index) with the same paths and blob ids as the separate run.
+"""
+
+CHECKPOINT = "checkpoint"
+
+# Each line of the script and the error the batch reports for it, if any.
+SCRIPT = [
+    ("init", None),
+    ("# Two commits on master, and a branch at the first.", None),
+    ("", None),
+    ("add f.txt", None),
+    ('add "name with space.txt"', None),
+    ('commit "Add f.txt and a file with a space"', None),
+    ("branch other", None),
+    ("add nosuch.txt", "File does not exist."),
+    ("rm g.txt", "No reason to remove the file."),
+    ("add g.txt", None),
+    ('commit "unterminated', "Unterminated quote."),
+    ('commit "Add g.txt"', None),
+    ("add h.txt", None),
+    (CHECKPOINT, None),
+    ("checkout nosuch", "No such branch exists."),
+    ('commit "Add h.txt"', None),
+    ("checkout other", None),
+    ("merge master", None),
+    ("merge other", "Given branch is an ancestor of the current branch."),
+    ("rm f.txt", None),
+    ("add i.txt", None),
+    ("status", None),
+    ("log", None),
+]
+
+FILES = {
+    "f.txt": "f\n",
+    "g.txt": "g\n",
+    "h.txt": "h\n",
+    "i.txt": "i\n",
+    "name with space.txt": "space\n",
+}
+
+CHECKPOINT_TIMEOUT = 10
+
+
+class BatchTest:
+    def __init__(self, progdir):
+        self.java = ["java"] + (["-cp", progdir] if progdir else []) + ["gitlet.Main"]
+        self.dir = mkdtemp(prefix="gitlet-batch-")
+        self.failures = []
+
+    def fail(self, msg):
+        self.failures.append(msg)
+
+    def repo(self, name):
+        repo = join(self.dir, name)
+        makedirs(repo)
+        for path, text in FILES.items():
+            with open(join(repo, path), "w") as f:
+                f.write(text)
+        return repo
+
+    def separately(self, repo):
+        """Runs each command of SCRIPT in its own process in REPO, returning the
+        output and the staging area as it was at the checkpoint."""
+        out = []
+        checkpoint = None
+        for line, error in SCRIPT:
+            if line == CHECKPOINT:
+                checkpoint = contents(join(repo, ".gitlet", ".stage"))
+                continue
+            try:
+                args = shlex.split(line, comments=True)
+            except ValueError:
+                continue
+            if not args:
+                continue
+            result = run(self.java + args, cwd=repo, stdout=PIPE, stderr=PIPE,
+                         universal_newlines=True)
+            if result.returncode != 0 or result.stderr:
+                self.fail("{}: exit code {}: {}".format(line, result.returncode,
+                                                        result.stderr))
+            out.append(result.stdout)
+        return "".join(out), checkpoint
+
+    def batch(self, repo, checkpoint):
+        """Runs SCRIPT through --batch in REPO, checking the staging area at the
+        checkpoint against CHECKPOINT, and returns the output and error output."""
+        proc = Popen(self.java + ["--batch"], cwd=repo, stdin=PIPE, stdout=PIPE,
+                     stderr=PIPE, universal_newlines=True)
+        for line, error in SCRIPT:
+            proc.stdin.write(line + "\n")
+            if line == CHECKPOINT:
+                proc.stdin.flush()
+                stage = join(repo, ".gitlet", ".stage")
+                deadline = time() + CHECKPOINT_TIMEOUT
+                while contents(stage) != checkpoint and time() < deadline:
+                    sleep(0.05)
+                if contents(stage) != checkpoint:
+                    self.fail("staging area not written at the checkpoint")
+        out, err = proc.communicate()
+        if proc.returncode != 0:
+            self.fail("--batch: exit code {}".format(proc.returncode))
+        return out, err
+
+    def run(self):
+        single = self.repo("single")
+        batch = self.repo("batch")
+        expected_out, checkpoint = self.separately(single)
+        out, err = self.batch(batch, checkpoint)
+
+        if canonical(out) != canonical(expected_out):
+            self.fail("--batch printed\n{}\nbut separate runs printed\n{}"
+                      .format(out, expected_out))
+        expected_err = "".join("line {}: {}\n".format(n + 1, error)
+                               for n, (line, error) in enumerate(SCRIPT) if error)
+        if err != expected_err:
+            self.fail("--batch reported\n{}\nbut expected\n{}"
+                      .format(err, expected_err))
+
+        if contents(join(batch, ".gitlet", ".stage")) \
+                != contents(join(single, ".gitlet", ".stage")):
+            self.fail(".gitlet/.stage differs from the separate run's")
+        index = read_index(join(batch, ".gitlet", ".index"))
+        expected_index = read_index(join(single, ".gitlet", ".index"))
+        if index != expected_index:
+            self.fail(".gitlet/.index has {} but the separate run's has {}"
+                      .format(index, expected_index))
+
+    def report(self):
+        print("{} script lines, {} reported failures"
+              .format(len(SCRIPT), sum(1 for line, error in SCRIPT if error)))
+        for failure in self.failures:
+            print("FAILED: " + failure)
+        print("OK" if not self.failures else
+              "{} failures".format(len(self.failures)))
+
+
+def canonical(out):
+    """Returns OUT with commit ids and dates, which differ between runs, blanked."""
+    out = re.sub(r"\b[0-9a-f]{40}\b", "ID", out)
+    return re.sub(r"(?m)^Date: .*$", "Date:", out)
+
+
+def contents(path):
+    try:
+        with open(path, "rb") as f:
+            return f.read()
+    except FileNotFoundError:
+        return None
+
+
+def read_index(path):
+    """Returns the paths and blob ids in the stat cache at PATH, leaving out the
+    stat data, which differs between repositories."""
+    data = contents(path)
+    if data is None:
+        return None
+    magic, version, count = struct.unpack_from(">iii", data, 0)
+    pos = 12
+    entries = {}
+    for i in range(count):
+        length, = struct.unpack_from(">H", data, pos)
+        name = data[pos + 2:pos + 2 + length].decode()
+        pos += 2 + length + 4 * 8
+        entries[name] = data[pos:pos + 20].hex()
+        pos += 20
+    return entries
+
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], "", ["progdir=", "keep", "help"])
+    except GetoptError:
+        print(USAGE, file=sys.stderr)
+        sys.exit(1)
+    progdir = None
+    keep = False
+    for opt, val in opts:
+        if opt == "--progdir":
+            progdir = val
+        elif opt == "--keep":
+            keep = True
+        else:
+            print(USAGE)
+            sys.exit(0)
+
+    test = BatchTest(progdir)
+    try:
+        test.run()
+    finally:
+        test.report()
+        if keep:
+            print("Repositories kept in " + test.dir)
+        else:
+            rmtree(test.dir, ignore_errors=True)
+    sys.exit(1 if test.failures else 0)
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,475 @@
+import sys, os, re, json, math, socket, struct, time
+from subprocess import Popen, DEVNULL, PIPE, STDOUT
+from os.path import join, exists, dirname
+from getopt import getopt, GetoptError
+from random import Random
+from shutil import rmtree
+from statistics import median
+from tempfile import mkdtemp
+
+USAGE = """\
+Usage: python3 scaling.py OPTIONS
+
+   OPTIONS may include
+       --progdir=DIR    Directory or JAR file containing the gitlet application
+                        (default: the CLASSPATH).
+       --scales=LIST    Comma-separated repository sizes, each FILESxCOMMITS
+                        (default 100x20,1000x40,10000x80).
+       --branches=N     Number of branches developed in parallel (default 3).
+       --merge-rate=P   Chance that a commit merges in another branch
+                        (default 0.2).
+       --file-size=B    Median file size in bytes; sizes are log-normally
+                        distributed around it (default 2000).
+       --locality=P     Chance that each file an edit touches is in the same
+                        directory as the one before (default 0.8).
+       --seed=N         Seed for the generator (default 42).
+       --repeat=N       Number of timed runs of each command; the median is
+                        reported (default 3).
+       --budget=K       Largest allowed scaling exponent (default 1.5).
+       --budget=CMD=K   Largest allowed scaling exponent for CMD alone.
+       --json=FILE      Also write the measurements to FILE as JSON.
+       --keep           Keep the generated repositories.
+
+Generates a repository at each scale, then times add, commit, status, log,
+global-log, find, checkout, reset and merge in it, each run as a fresh
+gitlet.Main process. For every command it records the wall time, the bytes the
+process read and wrote (rchar and wchar from /proc/PID/io, so cached reads
+count), and its peak resident set size. The time of a gitlet.Main run that does
+nothing is subtracted first, so JVM startup doesn't hide growth.
+
+Between consecutive scales, a command's scaling exponent is
+log(time ratio) / log(file count ratio): about 1 if its time grows linearly
+with the number of files, 2 if quadratically. Any command whose exponent
+exceeds its budget fails the run. Times under MIN_MILLIS milliseconds are
+rounded up to it, so noise in very fast commands doesn't fail the run.
+
+Repositories are generated deterministically from the seed. FILES files of text
+are committed in batches of IMPORT_BATCH, and BRANCHES branches are created
+from there. Then COMMITS times a branch is picked at random and either merges
+in another branch that has moved since, or edits a few lines in one to
+MAX_EDITS of its files. Each branch only edits its own share of the files, so
+merges never conflict. Generation runs commands through a gitlet.Daemon so it
+isn't dominated by JVM startup.
+"""
+
+COMMANDS = ["add", "commit", "status", "log", "global-log", "find", "checkout",
+            "reset", "merge"]
+FILES_PER_DIR = 50
+DIRS_PER_DIR = 20
+IMPORT_BATCH = 250
+MAX_EDITS = 5
+MIN_MILLIS = 10
+MAX_FILE_SIZE = 1 << 18
+WORDS = ("wug gitlet blob tree commit branch merge split point head stage "
+         "index pack delta graph reflog checkout reset status").split()
+
+# What merge may print without having failed.
+MERGE_MESSAGES = ("Given branch is an ancestor of the current branch.",
+                  "Current branch fast-forwarded.")
+
+# Daemon frame types (see Daemon.java).
+OUT, ERR, EXIT = 1, 2, 3
+
+
+class GitletError(Exception):
+    pass
+
+
+class Gitlet:
+    """Runs gitlet commands in one repository, either as separate processes,
+    which can be measured, or through a daemon."""
+
+    def __init__(self, progdir, repo):
+        self.cp = ["-cp", progdir] if progdir else []
+        self.repo = repo
+        self.daemon = None
+
+    def measure(self, *args):
+        """Runs gitlet.Main with ARGS, returning its output, wall time in
+        milliseconds, bytes read and written, and peak RSS in kilobytes."""
+        start = time.perf_counter()
+        proc = Popen(["java"] + self.cp + ["gitlet.Main"] + list(args),
+                     cwd=self.repo, stdout=PIPE, stderr=STDOUT)
+        out = proc.stdout.read()
+        os.waitid(os.P_PID, proc.pid, os.WEXITED | os.WNOWAIT)
+        elapsed = (time.perf_counter() - start) * 1000
+        io = {}
+        with open("/proc/{}/io".format(proc.pid)) as f:
+            for line in f:
+                key, value = line.split(":")
+                io[key] = int(value)
+        _, status, usage = os.wait4(proc.pid, 0)
+        proc.returncode = status
+        proc.stdout.close()
+        return {"out": out.decode(), "ms": elapsed, "read": io["rchar"],
+                "written": io["wchar"], "rss": usage.ru_maxrss}
+
+    def start_daemon(self):
+        self.socket = join(self.repo, ".gitlet", ".daemon")
+        self.daemon = Popen(["java"] + self.cp + ["gitlet.Daemon"], cwd=self.repo,
+                            stdout=DEVNULL, stderr=DEVNULL)
+        for _ in range(200):
+            if exists(self.socket):
+                return
+            time.sleep(0.05)
+        raise GitletError("daemon did not start")
+
+    def stop_daemon(self):
+        if self.daemon:
+            os.remove(self.socket)
+            self.daemon.wait()
+            self.daemon = None
+
+    def call(self, *args, allow=()):
+        """Runs ARGS through the daemon and returns the output, raising
+        GitletError if the command fails or prints anything not in ALLOW."""
+        s = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+        s.connect(self.socket)
+        data = [a.encode() for a in args]
+        s.sendall(struct.pack(">i", len(data))
+                  + b"".join(struct.pack(">i", len(a)) + a for a in data))
+        reader = s.makefile("rb")
+        out = []
+        while True:
+            kind, length = struct.unpack(">bi", reader.read(5))
+            if kind == EXIT:
+                break
+            out.append(reader.read(length))
+        s.close()
+        out = b"".join(out).decode()
+        if length != 0 or out.strip() and out.strip() not in allow:
+            raise GitletError("{}: {}".format(" ".join(args), out.strip()))
+        return out
+
+
+class Generator:
+    """Builds a synthetic history in a repository through GITLET."""
+
+    def __init__(self, gitlet, files, commits, branches, merge_rate, file_size,
+                 locality, seed):
+        self.gitlet = gitlet
+        self.files = files
+        self.commits = commits
+        self.branches = ["master"] + ["b{}".format(i) for i in range(1, branches)]
+        self.merge_rate = merge_rate
+        self.file_size = file_size
+        self.locality = locality
+        self.random = Random(seed)
+        self.paths = [self.path(i) for i in range(files)]
+        self.head = "master"
+        # Commits made on each branch since each other branch last merged it.
+        self.unmerged = {b: {o: False for o in self.branches}
+                         for b in self.branches}
+
+    def path(self, i):
+        leaf = i // FILES_PER_DIR
+        return "d{:02d}/s{:02d}/f{:05d}.txt".format(leaf // DIRS_PER_DIR,
+                                                   leaf % DIRS_PER_DIR, i)
+
+    def text(self, size):
+        words = []
+        length = 0
+        while length < size:
+            line = " ".join(self.random.choice(WORDS)
+                            for _ in range(self.random.randint(3, 12)))
+            words.append(line)
+            length += len(line) + 1
+        return "\n".join(words) + "\n"
+
+    def write(self, path, contents):
+        full = join(self.gitlet.repo, path)
+        os.makedirs(dirname(full), exist_ok=True)
+        with open(full, "w") as f:
+            f.write(contents)
+
+    def generate(self):
+        g = self.gitlet
+        for start in range(0, self.files, IMPORT_BATCH):
+            batch = self.paths[start:start + IMPORT_BATCH]
+            for path in batch:
+                size = int(self.random.lognormvariate(math.log(self.file_size), 1.0))
+                self.write(path, self.text(max(16, min(size, MAX_FILE_SIZE))))
+                g.call("add", path)
+            g.call("commit", "import {}-{}".format(start, start + len(batch) - 1))
+        for branch in self.branches[1:]:
+            g.call("branch", branch)
+        for n in range(self.commits):
+            branch = self.random.choice(self.branches)
+            if branch != self.head:
+                g.call("checkout", branch)
+                self.head = branch
+            others = [o for o in self.branches if self.unmerged[o][branch]]
+            if others and self.random.random() < self.merge_rate:
+                other = self.random.choice(others)
+                out = g.call("merge", other, allow=MERGE_MESSAGES).strip()
+                if out == MERGE_MESSAGES[1]:
+                    # A fast-forward checks out the other branch.
+                    self.head = other
+                elif out != MERGE_MESSAGES[0]:
+                    self.committed(branch)
+                self.unmerged[other][branch] = False
+            else:
+                self.edit(branch)
+                g.call("commit", "commit {} on {}".format(n, branch))
+                self.committed(branch)
+        if self.head != "master":
+            g.call("checkout", "master")
+            self.head = "master"
+
+    def committed(self, branch):
+        for other in self.branches:
+            if other != branch:
+                self.unmerged[branch][other] = True
+
+    def edit(self, branch):
+        """Changes a few lines in up to MAX_EDITS of BRANCH's own files, each
+        likely to be in the same directory as the last."""
+        owner = self.branches.index(branch)
+        own = range(owner, self.files, len(self.branches))
+        path = self.paths[self.random.choice(own)]
+        for _ in range(self.random.randint(1, MAX_EDITS)):
+            if self.random.random() < self.locality:
+                leaf = self.paths.index(path) // FILES_PER_DIR
+                near = [i for i in range(leaf * FILES_PER_DIR,
+                                         min(self.files, (leaf + 1) * FILES_PER_DIR))
+                        if i % len(self.branches) == owner]
+                path = self.paths[self.random.choice(near or own)]
+            else:
+                path = self.paths[self.random.choice(own)]
+            with open(join(self.gitlet.repo, path)) as f:
+                lines = f.read().splitlines()
+            for _ in range(self.random.randint(1, 3)):
+                lines[self.random.randrange(len(lines))] = self.text(20).strip()
+            self.write(path, "\n".join(lines) + "\n")
+            self.gitlet.call("add", path)
+
+
+class Scaling:
+    def __init__(self, progdir, scales, options, repeat, budgets, keep):
+        self.progdir = progdir
+        self.scales = scales
+        self.options = options
+        self.repeat = repeat
+        self.budgets = budgets
+        self.keep = keep
+        self.results = []
+        self.failures = []
+
+    def run(self):
+        for files, commits in self.scales:
+            self.results.append(self.run_scale(files, commits))
+        self.check()
+
+    def run_scale(self, files, commits):
+        repo = mkdtemp(prefix="gitlet-scale-{}x{}-".format(files, commits))
+        gitlet = Gitlet(self.progdir, repo)
+        try:
+            gitlet.measure("init")
+            gitlet.start_daemon()
+            start = time.perf_counter()
+            try:
+                Generator(gitlet, files, commits, **self.options).generate()
+            finally:
+                gitlet.stop_daemon()
+            print("generated {} files x {} commits in {:.1f} s ({})"
+                  .format(files, commits, time.perf_counter() - start, repo),
+                  flush=True)
+            result = {"files": files, "commits": commits,
+                      "baseline": self.baseline(gitlet), "commands": {}}
+            for command in COMMANDS:
+                runs = getattr(self, "time_" + command.replace("-", "_"))(gitlet)
+                result["commands"][command] = summarize(runs)
+            return result
+        finally:
+            if self.keep:
+                print("Repository kept in " + repo)
+            else:
+                rmtree(repo, ignore_errors=True)
+
+    def baseline(self, gitlet):
+        return median(gitlet.measure()["ms"] for _ in range(self.repeat))
+
+    def expect(self, run, pattern=""):
+        if not re.fullmatch(pattern, run["out"].strip(), re.S):
+            raise GitletError("unexpected output: " + run["out"].strip())
+        return run
+
+    def time_add(self, gitlet):
+        runs = []
+        for i in range(self.repeat):
+            self.touch(gitlet, i)
+            runs.append(self.expect(gitlet.measure("add", "f00000-bench.txt")))
+            gitlet.measure("commit", "bench add {}".format(i))
+        return runs
+
+    def time_commit(self, gitlet):
+        runs = []
+        for i in range(self.repeat):
+            self.touch(gitlet, i + self.repeat)
+            gitlet.measure("add", "f00000-bench.txt")
+            runs.append(self.expect(gitlet.measure("commit", "bench commit {}".format(i))))
+        return runs
+
+    def touch(self, gitlet, i):
+        with open(join(gitlet.repo, "f00000-bench.txt"), "w") as f:
+            f.write("bench {}\n".format(i))
+
+    def time_status(self, gitlet):
+        return [self.expect(gitlet.measure("status"), r"=== Branches ===.*")
+                for _ in range(self.repeat)]
+
+    def time_log(self, gitlet):
+        return [self.expect(gitlet.measure("log"), r"===.*")
+                for _ in range(self.repeat)]
+
+    def time_global_log(self, gitlet):
+        return [self.expect(gitlet.measure("global-log"), r"===.*")
+                for _ in range(self.repeat)]
+
+    def time_find(self, gitlet):
+        return [self.expect(gitlet.measure("find", "bench commit 0"), r"[0-9a-f]+")
+                for _ in range(self.repeat)]
+
+    def time_checkout(self, gitlet):
+        runs = []
+        for _ in range(self.repeat):
+            runs.append(self.expect(gitlet.measure("checkout", "b1")))
+            runs.append(self.expect(gitlet.measure("checkout", "master")))
+        return runs
+
+    def time_reset(self, gitlet):
+        log = gitlet.measure("log")["out"]
+        ids = re.findall(r"^commit ([0-9a-f]{40})$", log, re.M)
+        older = ids[min(len(ids) - 1, 10)]
+        runs = []
+        for _ in range(self.repeat):
+            runs.append(self.expect(gitlet.measure("reset", older)))
+            runs.append(self.expect(gitlet.measure("reset", ids[0])))
+        return runs
+
+    def time_merge(self, gitlet):
+        runs = []
+        for i in range(self.repeat):
+            side = "bench-side-{}".format(i)
+            gitlet.measure("branch", side)
+            gitlet.measure("checkout", side)
+            with open(join(gitlet.repo, "f00001-side.txt"), "w") as f:
+                f.write("side {}\n".format(i))
+            gitlet.measure("add", "f00001-side.txt")
+            gitlet.measure("commit", "side " + str(i))
+            gitlet.measure("checkout", "master")
+            self.touch(gitlet, 100 + i)
+            gitlet.measure("add", "f00000-bench.txt")
+            gitlet.measure("commit", "main " + str(i))
+            runs.append(self.expect(gitlet.measure("merge", side)))
+        return runs
+
+    def check(self):
+        for prev, curr in zip(self.results, self.results[1:]):
+            ratio = curr["files"] / prev["files"]
+            for command in COMMANDS:
+                before = net(prev, command)
+                after = net(curr, command)
+                exponent = math.log(after / before) / math.log(ratio)
+                curr["commands"][command]["exponent"] = exponent
+                budget = self.budgets.get(command, self.budgets[None])
+                if exponent > budget:
+                    self.failures.append(
+                        "{} scaled with exponent {:.2f} from {} to {} files "
+                        "({:.0f} ms to {:.0f} ms); budget {}".format(
+                            command, exponent, prev["files"], curr["files"],
+                            before, after, budget))
+
+    def report(self):
+        print("{:<11} {:>13} {:>9} {:>9} {:>11} {:>11} {:>9} {:>6}".format(
+            "command", "scale", "wall ms", "net ms", "read KB", "written KB",
+            "RSS MB", "exp"))
+        for command in COMMANDS:
+            for result in self.results:
+                c = result["commands"][command]
+                print("{:<11} {:>13} {:>9.0f} {:>9.0f} {:>11.0f} {:>11.0f} {:>9.1f} {:>6}"
+                      .format(command, "{}x{}".format(result["files"], result["commits"]),
+                              c["ms"], net(result, command), c["read"] / 1024,
+                              c["written"] / 1024, c["rss"] / 1024,
+                              "{:.2f}".format(c["exponent"]) if "exponent" in c else ""))
+        for failure in self.failures:
+            print("FAILED: " + failure)
+        if len(self.results) < len(self.scales):
+            print("Stopped after {} of {} scales".format(len(self.results), len(self.scales)))
+        elif self.failures:
+            print("{} failures".format(len(self.failures)))
+        else:
+            print("OK")
+
+
+def summarize(runs):
+    return {key: median(run[key] for run in runs)
+            for key in ("ms", "read", "written", "rss")}
+
+
+def net(result, command):
+    return max(MIN_MILLIS, result["commands"][command]["ms"] - result["baseline"])
+
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], "",
+                            ["progdir=", "scales=", "branches=", "merge-rate=",
+                             "file-size=", "locality=", "seed=", "repeat=",
+                             "budget=", "json=", "keep", "help"])
+    except GetoptError:
+        print(USAGE, file=sys.stderr)
+        sys.exit(1)
+    progdir = None
+    scales = [(100, 20), (1000, 40), (10000, 80)]
+    options = {"branches": 3, "merge_rate": 0.2, "file_size": 2000,
+               "locality": 0.8, "seed": 42}
+    repeat = 3
+    budgets = {None: 1.5}
+    json_file = None
+    keep = False
+    for opt, val in opts:
+        if opt == "--progdir":
+            progdir = val
+        elif opt == "--scales":
+            scales = [tuple(int(n) for n in scale.split("x"))
+                      for scale in val.split(",")]
+        elif opt == "--branches":
+            options["branches"] = int(val)
+        elif opt == "--merge-rate":
+            options["merge_rate"] = float(val)
+        elif opt == "--file-size":
+            options["file_size"] = int(val)
+        elif opt == "--locality":
+            options["locality"] = float(val)
+        elif opt == "--seed":
+            options["seed"] = int(val)
+        elif opt == "--repeat":
+            repeat = int(val)
+        elif opt == "--budget":
+            command, _, budget = val.rpartition("=")
+            budgets[command or None] = float(budget)
+        elif opt == "--json":
+            json_file = val
+        elif opt == "--keep":
+            keep = True
+        else:
+            print(USAGE)
+            sys.exit(0)
+
+    scaling = Scaling(progdir, scales, options, repeat, budgets, keep)
+    try:
+        scaling.run()
+    finally:
+        scaling.report()
+        if json_file:
+            with open(json_file, "w") as f:
+                json.dump({"options": options, "repeat": repeat,
+                           "budgets": {k or "*": v for k, v in budgets.items()},
+                           "results": scaling.results,
+                           "failures": scaling.failures}, f, indent=2)
+    sys.exit(1 if scaling.failures else 0)
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,215 @@
+import sys, re
+from subprocess import run, PIPE, STDOUT
+from os.path import join
+from getopt import getopt, GetoptError
+from os import makedirs
+from shutil import rmtree
+from tempfile import mkdtemp
+from threading import Thread, Event, Lock
+
+USAGE = """\
+Usage: python3 stress.py OPTIONS
+
+   OPTIONS may include
+       --progdir=DIR  Directory or JAR file containing the gitlet application
+                      (default: the CLASSPATH).
+       --writers=N    Number of writer processes run at once (default 4).
+       --rounds=N     Number of commits each writer attempts (default 10).
+       --readers=N    Number of processes running log, status, global-log and
+                      find alongside the writers (default 2).
+       --keep         Keep the test repository.
+
+Runs several gitlet processes against one repository at the same time. Each
+writer repeatedly creates a file of its own, adds it, commits it, and creates a
+branch of its own; readers run log, status, global-log and find until the
+writers are done, so the commit table and message index are read and caught up
+while commits are being appended to them. A writer's commit may find its file
+already committed by another writer, and a ref update may lose a race and fail
+cleanly; both are allowed. Afterwards the repository is checked for lost
+updates: every file written must be committed, every successful commit must be
+in the log and the reflog, every branch created must exist, and no command may
+have failed any other way.
+"""
+
+NOTHING_TO_COMMIT = "No changes added to the commit."
+RACE_LOST = "was changed by another process."
+READ_ERRORS = re.compile(r"Exception|Corrupt|Unable|Missing")
+READ_COMMANDS = (("log",), ("status",), ("global-log",), ("find", "writer"))
+
+
+class Stress:
+    def __init__(self, progdir, writers, rounds, readers):
+        self.java = ["java"] + (["-cp", progdir] if progdir else []) + ["gitlet.Main"]
+        self.writers = writers
+        self.rounds = rounds
+        self.readers = readers
+        self.dir = mkdtemp(prefix="gitlet-stress-")
+        self.lock = Lock()
+        self.done = Event()
+        self.commits = []
+        self.files = []
+        self.branches = []
+        self.races = 0
+        self.empty = 0
+        self.reads = 0
+        self.failures = []
+
+    def gitlet(self, *args):
+        result = run(self.java + list(args), cwd=self.dir, stdout=PIPE,
+                     stderr=STDOUT, universal_newlines=True)
+        out = result.stdout.strip()
+        if result.returncode != 0:
+            self.fail("{}: exit code {}: {}".format(" ".join(args),
+                                                    result.returncode, out))
+        return out
+
+    def fail(self, msg):
+        with self.lock:
+            self.failures.append(msg)
+
+    def writer(self, n):
+        makedirs(join(self.dir, "w{}".format(n)), exist_ok=True)
+        for k in range(self.rounds):
+            name = "w{}/f{}.txt".format(n, k)
+            with open(join(self.dir, name), "w") as f:
+                f.write("writer {} round {}\n".format(n, k))
+            out = self.gitlet("add", name)
+            if out:
+                self.fail("add {}: {}".format(name, out))
+            with self.lock:
+                self.files.append(name)
+
+            message = "writer {} round {}".format(n, k)
+            out = self.gitlet("commit", message)
+            with self.lock:
+                if out == "":
+                    self.commits.append(message)
+                elif out == NOTHING_TO_COMMIT:
+                    self.empty += 1
+                elif out.endswith(RACE_LOST):
+                    self.races += 1
+                else:
+                    self.failures.append("commit {!r}: {}".format(message, out))
+
+            branch = "b{}_{}".format(n, k)
+            out = self.gitlet("branch", branch)
+            with self.lock:
+                if out == "":
+                    self.branches.append(branch)
+                elif out.endswith(RACE_LOST):
+                    self.races += 1
+                else:
+                    self.failures.append("branch {}: {}".format(branch, out))
+
+    def reader(self):
+        while not self.done.is_set():
+            for command in READ_COMMANDS:
+                out = self.gitlet(*command)
+                if READ_ERRORS.search(out):
+                    self.fail("{}: {}".format(" ".join(command), out))
+                with self.lock:
+                    self.reads += 1
+
+    def run(self):
+        self.gitlet("init")
+        writers = [Thread(target=self.writer, args=(n,))
+                   for n in range(self.writers)]
+        readers = [Thread(target=self.reader) for n in range(self.readers)]
+        for thread in writers + readers:
+            thread.start()
+        for thread in writers:
+            thread.join()
+        self.done.set()
+        for thread in readers:
+            thread.join()
+        if self.gitlet("commit", "final") == "":
+            self.commits.append("final")
+        self.verify()
+
+    def verify(self):
+        log = self.gitlet("log")
+        messages = re.findall(r"^Date: .*\n(.*)$", log, re.M)
+        if len(messages) != len(self.commits) + 1:
+            self.fail("log has {} commits; expected {}"
+                      .format(len(messages), len(self.commits) + 1))
+        for message in self.commits:
+            if message not in messages:
+                self.fail("lost commit {!r}".format(message))
+
+        reflog = self.gitlet("reflog", "master").splitlines()
+        if len(reflog) != len(self.commits) + 1:
+            self.fail("reflog of master has {} entries; expected {}"
+                      .format(len(reflog), len(self.commits) + 1))
+
+        status = self.gitlet("status")
+        sections = {}
+        for section in status.split("\n\n"):
+            lines = section.strip().splitlines()
+            if lines:
+                sections[lines[0]] = lines[1:]
+        branches = {b.lstrip("*") for b in sections.get("=== Branches ===", [])}
+        for branch in self.branches:
+            if branch not in branches:
+                self.fail("lost branch {}".format(branch))
+        for title in ("=== Staged Files ===", "=== Removed Files ===",
+                      "=== Modifications Not Staged For Commit ===",
+                      "=== Untracked Files ==="):
+            for path in sections.get(title, []):
+                self.fail("{} {}".format(title.strip("= "), path))
+
+        for name in self.files:
+            out = self.gitlet("checkout", "--", name)
+            if out:
+                self.fail("checkout -- {}: {}".format(name, out))
+
+    def report(self):
+        print("{} writers x {} rounds, {} readers: {} commits, {} with nothing "
+              "left to commit, {} lost races, {} branches, {} reads"
+              .format(self.writers, self.rounds, self.readers, len(self.commits),
+                      self.empty, self.races, len(self.branches), self.reads))
+        for failure in self.failures:
+            print("FAILED: " + failure)
+        print("OK" if not self.failures else
+              "{} failures".format(len(self.failures)))
+
+
+def main():
+    try:
+        opts, args = getopt(sys.argv[1:], "",
+                            ["progdir=", "writers=", "rounds=", "readers=",
+                             "keep", "help"])
+    except GetoptError:
+        print(USAGE, file=sys.stderr)
+        sys.exit(1)
+    progdir = None
+    writers, rounds, readers = 4, 10, 2
+    keep = False
+    for opt, val in opts:
+        if opt == "--progdir":
+            progdir = val
+        elif opt == "--writers":
+            writers = int(val)
+        elif opt == "--rounds":
+            rounds = int(val)
+        elif opt == "--readers":
+            readers = int(val)
+        elif opt == "--keep":
+            keep = True
+        else:
+            print(USAGE)
+            sys.exit(0)
+
+    stress = Stress(progdir, writers, rounds, readers)
+    try:
+        stress.run()
+    finally:
+        stress.report()
+        if keep:
+            print("Repository kept in " + stress.dir)
+        else:
+            rmtree(stress.dir, ignore_errors=True)
+    sys.exit(1 if stress.failures else 0)
+
+
+if __name__ == "__main__":
+    main()
@@ -1,11 +1,13 @@
 import sys, re
 from subprocess import \
-     check_output, PIPE, STDOUT, DEVNULL, CalledProcessError, TimeoutExpired
+     check_output, Popen, PIPE, STDOUT, DEVNULL, CalledProcessError, \
+     TimeoutExpired
 from os.path import abspath, basename, dirname, exists, join, splitext
 from getopt import getopt, GetoptError
-from os import chdir, environ, getcwd, mkdir, remove, access, W_OK
+from os import chdir, environ, getcwd, makedirs, mkdir, remove, access, W_OK
 from shutil import copyfile, rmtree
 from math import log
+from time import sleep
 
 SHORT_USAGE = """\
 Usage: python3 tester.py OPTIONS TEST.in ...
@@ -24,6 +26,9 @@ Usage: python3 tester.py OPTIONS TEST.in ...
        --tolerance=N  Set the maximum allowed edit distance between program
                       output and expected output to N (default 3).
        --verbose      Print extra information about execution.
+       --daemon       Run commands through gitlet.Client against a gitlet.Daemon
+                      in each repository, with every third command run
+                      directly by gitlet.Main, as another process would.
 """
 
 USAGE = SHORT_USAGE + """\
@@ -47,6 +52,8 @@ The instructions each have one of the following forms:
           intended to let you set up remote repositories.
    T N    Set the timeout for gitlet commands in the rest of this test to N
           seconds.
+   S N    Sleep for N seconds, so that everything written so far is at least
+          that old.
    + NAME F
           Copy the contents of src/F into a file named NAME.
    - NAME
@@ -90,6 +97,9 @@ TIMEOUT = 10
 
 JAVA_COMMAND = "java -ea"
 GITLET_CLASS = "gitlet.Main"
+CLIENT_CLASS = "gitlet.Client"
+DAEMON_CLASS = "gitlet.Daemon"
+DAEMON_SOCKET = join(".gitlet", ".daemon")
 JVM_OPTIONS = "-agentlib:jdwp=transport=dt_socket,server=y,suspend=y,address=5005"
 
 DEBUG = False
@@ -152,16 +162,50 @@ def doDelete(name, dir):
 def doCopy(dest, src, dir):
     try:
         doDelete(dest, dir)
+        makedirs(dirname(join(dir, dest)), exist_ok=True)
         copyfile(join(src_dir, src), join(dir, dest))
     except OSError:
         raise ValueError("file {} could not be copied to {}".format(src, dest))
 
+def startDaemon(dir):
+    """Start a daemon for the repository in DIR, if it has one and none is
+    running, and wait for it to listen."""
+    if not exists(join(dir, ".gitlet")) or exists(join(dir, DAEMON_SOCKET)):
+        return
+    daemons.append((dir, Popen("{} {}".format(JAVA_COMMAND, DAEMON_CLASS),
+                               shell=True, cwd=dir, stdin=DEVNULL,
+                               stdout=DEVNULL, stderr=DEVNULL)))
+    for i in range(100):
+        if exists(join(dir, DAEMON_SOCKET)):
+            return
+        sleep(0.05)
+    raise ValueError("daemon did not start in {}".format(dir))
+
+def stopDaemons():
+    """Stop the daemons started for the current test by deleting their
+    sockets."""
+    while daemons:
+        dir, proc = daemons.pop()
+        doDelete(DAEMON_SOCKET, dir)
+        try:
+            proc.wait(timeout=5)
+        except TimeoutExpired:
+            proc.kill()
+            proc.wait()
+
 def doExecute(cmnd, dir, timeout, line_num):
+    global daemon_count
     here = getcwd()
     out = ""
     try:
         chdir(dir)
-        full_cmnd = "{} {} {}".format(JAVA_COMMAND, GITLET_CLASS, cmnd)
+        main_class = GITLET_CLASS
+        if daemon:
+            daemon_count += 1
+            if daemon_count % 3 != 0:
+                startDaemon(".")
+                main_class = CLIENT_CLASS
+        full_cmnd = "{} {} {}".format(JAVA_COMMAND, main_class, cmnd)
         skip_first_line = False
 
         if DEBUG:
@@ -173,7 +217,7 @@ def doExecute(cmnd, dir, timeout, line_num):
                 next_cmd = input(input_prompt)
 
             if next_cmd == "s":
-                full_cmnd = "{} {} {} {}".format(JAVA_COMMAND, JVM_OPTIONS, GITLET_CLASS, cmnd)
+                full_cmnd = "{} {} {} {}".format(JAVA_COMMAND, JVM_OPTIONS, main_class, cmnd)
                 timeout, skip_first_line = None, True
 
         out = doCommand(full_cmnd, timeout, skip_first_line)
@@ -329,6 +373,11 @@ def doTest(test):
                     cdir = join(tmpdir, Group(1))
                     if not exists(cdir):
                         mkdir(cdir)
+            elif Match(r'S\s*(\S+)', line):
+                try:
+                    sleep(float(Group(1)))
+                except ValueError:
+                    raise ValueError("bad time: {}".format(line))
             elif Match(r'T\s*(\S+)', line):
                 try:
                     timeout = float(Group(1))
@@ -385,6 +434,7 @@ def doTest(test):
             else:
                 raise ValueError("bad test line at {}".format(line_num))
     finally:
+        stopDaemons()
         if not keep:
             cleanTempDir(tmpdir)
 
@@ -395,12 +445,15 @@ if __name__ == "__main__":
     verbose = False
     src_dir = 'src'
     output_tolerance = 3
+    daemon = False
+    daemons = []
+    daemon_count = 0
 
     try:
         opts, files = \
             getopt(sys.argv[1:], '',
                    ['show=', 'keep', 'progdir=', 'verbose', 'src=',
-                    'tolerance=', 'debug'])
+                    'tolerance=', 'debug', 'daemon'])
         for opt, val in opts:
             if opt == '--show':
                 val = val.lower()
@@ -422,6 +475,8 @@ if __name__ == "__main__":
                 output_tolerance = int(val)
             elif opt == "--debug":
                 DEBUG = True
+            elif opt == "--daemon":
+                daemon = True
         if prog_dir is None:
             prog_dir = abspath(getcwd())
             k = 10